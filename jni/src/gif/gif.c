@@ -19,7 +19,6 @@
 #include <jni.h>
 #include <stdlib.h>
 #include <unistd.h>
-#include <sys/time.h>
 
 #include <android/bitmap.h>
 
@@ -36,7 +35,6 @@ typedef struct ImageData ImageData;
 
 struct Decoder {
 	int errorCode;
-	int64_t startTime;
 	GifFileType * file;
 	ImageData * datas;
 	int duration;
@@ -136,16 +134,23 @@ jint getErrorCode(JNIEnv * env, jlong pointer) {
 
 void getSummary(JNIEnv * env, jlong pointer, jintArray output) {
 	Decoder * decoder = pointerCast(pointer);
-	jint result[2];
+	jint result[4];
 	result[0] = decoder->file->SWidth;
 	result[1] = decoder->file->SHeight;
-	(*env)->SetIntArrayRegion(env, output, 0, 2, result);
+	result[2] = decoder->file->ImageCount;
+	result[3] = decoder->duration;
+	(*env)->SetIntArrayRegion(env, output, 0, 4, result);
 }
 
-static int64_t getTime() {
-	struct timeval now;
-	gettimeofday(&now, NULL);
-	return (int64_t) now.tv_sec * 1000 + now.tv_usec / 1000;
+void getStartTimes(JNIEnv * env, jlong pointer, jintArray output) {
+	Decoder * decoder = pointerCast(pointer);
+	int count = decoder->file->ImageCount;
+	jint * result = malloc(sizeof(jint) * count);
+	for (int i = 0; i < count; i++) {
+		result[i] = decoder->datas[i].startTime;
+	}
+	(*env)->SetIntArrayRegion(env, output, 0, count, result);
+	free(result);
 }
 
 static void drawImage(Decoder * decoder, int index, int * colors) {
@@ -203,29 +208,10 @@ static void drawImage(Decoder * decoder, int index, int * colors) {
 	}
 }
 
-jint draw(JNIEnv * env, jlong pointer, jobject bitmap) {
+void drawFrame(JNIEnv * env, jlong pointer, jobject bitmap, jint index) {
 	Decoder * decoder = pointerCast(pointer);
-	int position = 0;
-	if (decoder->duration > 0) {
-		int64_t time = getTime();
-		if (decoder->startTime == 0) {
-			decoder->startTime = time;
-		}
-		position = (int) ((time - decoder->startTime) % decoder->duration);
-	}
-	int index;
-	int delay = -1;
-	int count = decoder->file->ImageCount;
-	for (int i = 0; i < count; i++) {
-		ImageData * nextData = &decoder->datas[i];
-		if (position >= nextData->startTime) {
-			index = i;
-		} else {
-			break;
-		}
-	}
-	if (count > 1) {
-		delay = (index + 1 < count ? decoder->datas[index + 1].startTime : decoder->duration) - position;
+	if (index < 0 || index >= decoder->file->ImageCount) {
+		return;
 	}
 	if (decoder->lastIndex != index) {
 		int * colors = 0;
@@ -246,5 +232,4 @@ jint draw(JNIEnv * env, jlong pointer, jobject bitmap) {
 			decoder->lastIndex = index;
 		}
 	}
-	return delay;
 }
@@ -21,5 +21,6 @@ void destroy(JNIEnv *, jlong);
 
 jint getErrorCode(JNIEnv *, jlong);
 void getSummary(JNIEnv *, jlong, jintArray);
+void getStartTimes(JNIEnv *, jlong, jintArray);
 
-jint draw(JNIEnv *, jlong, jobject);
\ No newline at end of file
+void drawFrame(JNIEnv *, jlong, jobject, jint);
\ No newline at end of file
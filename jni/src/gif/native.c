@@ -34,6 +34,12 @@ void Java_com_mishiranu_dashchan_media_GifDecoder_getSummary(JNIEnv * env, jobje
 	getSummary(env, pointer, output);
 }
 
-jint Java_com_mishiranu_dashchan_media_GifDecoder_draw(JNIEnv * env, jobject this, jlong pointer, jobject bitmap) {
-	return draw(env, pointer, bitmap);
+void Java_com_mishiranu_dashchan_media_GifDecoder_getStartTimes(JNIEnv * env, jobject this, jlong pointer,
+		jintArray output) {
+	getStartTimes(env, pointer, output);
+}
+
+void Java_com_mishiranu_dashchan_media_GifDecoder_drawFrame(JNIEnv * env, jobject this, jlong pointer,
+		jobject bitmap, jint index) {
+	drawFrame(env, pointer, bitmap, index);
 }
\ No newline at end of file
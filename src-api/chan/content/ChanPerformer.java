@@ -132,6 +132,12 @@ public class ChanPerformer implements ChanManager.Linked {
 		throw new UnsupportedOperationException();
 	}
 
+	@Extendable
+	protected ReadBoardPostsCountResult onReadBoardPostsCount(ReadBoardPostsCountData data) throws HttpException,
+			InvalidResponseException {
+		throw new UnsupportedOperationException();
+	}
+
 	@Extendable
 	protected ReadContentResult onReadContent(ReadContentData data) throws HttpException, InvalidResponseException {
 		return new ReadContentResult(new HttpRequest(data.uri, data.holder, data).read());
@@ -521,24 +527,90 @@ public class ChanPerformer implements ChanManager.Linked {
 		}
 	}
 
+	@Public
+	public static class ReadBoardPostsCountData implements HttpRequest.HolderPreset, HttpRequest.TimeoutsPreset {
+		@Public public final String boardName;
+		@Public public final Collection<String> threadNumbers;
+		public final int connectTimeout;
+		public final int readTimeout;
+		@Public public final HttpHolder holder;
+		@Public public final HttpValidator validator;
+
+		public ReadBoardPostsCountData(String boardName, Collection<String> threadNumbers, int connectTimeout,
+				int readTimeout, HttpHolder holder, HttpValidator validator) {
+			this.boardName = boardName;
+			this.threadNumbers = Collections.unmodifiableCollection(threadNumbers);
+			this.connectTimeout = connectTimeout;
+			this.readTimeout = readTimeout;
+			this.holder = holder;
+			this.validator = validator;
+		}
+
+		@Override
+		public HttpHolder getHolder() {
+			return holder;
+		}
+
+		@Override
+		public int getConnectTimeout() {
+			return connectTimeout;
+		}
+
+		@Override
+		public int getReadTimeout() {
+			return readTimeout;
+		}
+	}
+
+	@Public
+	public static final class ReadBoardPostsCountResult {
+		public final HashMap<String, Integer> postsCounts = new HashMap<>();
+		public HttpValidator validator;
+
+		@Public
+		public ReadBoardPostsCountResult() {}
+
+		@Public
+		public ReadBoardPostsCountResult put(String threadNumber, int postsCount) {
+			postsCounts.put(threadNumber, postsCount);
+			return this;
+		}
+
+		@Public
+		public ReadBoardPostsCountResult setValidator(HttpValidator validator) {
+			this.validator = validator;
+			return this;
+		}
+	}
+
 	@Public
 	public static class ReadContentData implements HttpRequest.HolderPreset, HttpRequest.TimeoutsPreset,
-			HttpRequest.InputListenerPreset, HttpRequest.OutputStreamPreset {
+			HttpRequest.InputListenerPreset, HttpRequest.OutputStreamPreset, HttpRequest.RangePreset {
 		@Public public final Uri uri;
 		public final int connectTimeout;
 		public final int readTimeout;
 		@Public public final HttpHolder holder;
 		public final HttpHolder.InputListener listener;
-		public final OutputStream outputStream;
+		@Public public final OutputStream outputStream;
+		public final long rangeStart;
+		public final HttpValidator rangeValidator;
 
 		public ReadContentData(Uri uri, int connectTimeout, int readTimeout, HttpHolder holder,
-				HttpHolder.InputListener listener, OutputStream outputStream) {
+				HttpHolder.InputListener listener, OutputStream outputStream, long rangeStart,
+				HttpValidator rangeValidator) {
 			this.uri = uri;
 			this.connectTimeout = connectTimeout;
 			this.readTimeout = readTimeout;
 			this.holder = holder;
 			this.listener = listener;
 			this.outputStream = outputStream;
+			this.rangeStart = rangeStart;
+			this.rangeValidator = rangeValidator;
+		}
+
+		public ReadContentData(Uri uri, int connectTimeout, int readTimeout, HttpHolder holder,
+				HttpHolder.InputListener listener, OutputStream outputStream) {
+			this(uri, connectTimeout, readTimeout, holder, listener, outputStream, 0L, null);
 		}
 
 		@Override
@@ -565,6 +637,16 @@ public class ChanPerformer implements ChanManager.Linked {
 		public OutputStream getOutputStream() {
 			return outputStream;
 		}
+
+		@Override
+		public long getRangeStart() {
+			return rangeStart;
+		}
+
+		@Override
+		public HttpValidator getRangeValidator() {
+			return rangeValidator;
+		}
 	}
 
 	@Public
@@ -1180,6 +1262,15 @@ public class ChanPerformer implements ChanManager.Linked {
 			}
 		}
 
+		public ReadBoardPostsCountResult onReadBoardPostsCount(ReadBoardPostsCountData data)
+				throws ExtensionException, HttpException, InvalidResponseException {
+			try {
+				return performer.onReadBoardPostsCount(data);
+			} catch (LinkageError | RuntimeException e) {
+				throw new ExtensionException(e);
+			}
+		}
+
 		public ReadContentResult onReadContent(ReadContentData data) throws ExtensionException, HttpException,
 				InvalidResponseException {
 			try {
@@ -16,6 +16,8 @@
 
 package chan.content.model;
 
+import java.io.IOException;
+
 import android.net.Uri;
 
 import chan.annotation.Public;
@@ -62,6 +64,35 @@ public final class EmbeddedAttachment implements Attachment {
 		mForcedName = forcedName;
 	}
 
+	EmbeddedAttachment(PostsCodec.Input input) throws IOException {
+		int end = input.beginBlock();
+		mFileUriString = input.readString();
+		mThumbnailUriString = input.readString();
+		mEmbeddedType = input.readSharedString();
+		int contentType = input.readVarInt();
+		ContentType[] contentTypes = ContentType.values();
+		if (contentType < 0 || contentType >= contentTypes.length) {
+			throw new IOException("Invalid content type");
+		}
+		mContentType = contentTypes[contentType];
+		mCanDownload = input.readBoolean();
+		mForcedName = input.readString();
+		mTitle = input.readString();
+		input.endBlock(end);
+	}
+
+	void write(PostsCodec.Output output) {
+		int start = output.beginBlock();
+		output.writeString(mFileUriString);
+		output.writeString(mThumbnailUriString);
+		output.writeSharedString(mEmbeddedType);
+		output.writeVarInt(mContentType.ordinal());
+		output.writeBoolean(mCanDownload);
+		output.writeString(mForcedName);
+		output.writeString(mTitle);
+		output.endBlock(start);
+	}
+
 	@Public
 	public Uri getFileUri() {
 		return mFileUriString != null ? Uri.parse(mFileUriString) : null;
@@ -109,6 +140,11 @@ public final class EmbeddedAttachment implements Attachment {
 		return this;
 	}
 
+	public EmbeddedAttachment copy() {
+		return new EmbeddedAttachment(getFileUri(), getThumbnailUri(), mEmbeddedType, mContentType, mCanDownload,
+				mForcedName).setTitle(mTitle);
+	}
+
 	@Public
 	public static EmbeddedAttachment obtain(String data) {
 		return EmbeddedManager.getInstance().obtainAttachment(data);
@@ -16,6 +16,8 @@
 
 package chan.content.model;
 
+import java.io.IOException;
+
 import android.net.Uri;
 
 import chan.annotation.Public;
@@ -41,6 +43,30 @@ public final class FileAttachment implements Attachment {
 	@Public
 	public FileAttachment() {}
 
+	FileAttachment(PostsCodec.Input input) throws IOException {
+		int end = input.beginBlock();
+		mFileUriString = input.readString();
+		mThumbnailUriString = input.readString();
+		mOriginalName = input.readString();
+		mSize = input.readVarInt();
+		mWidth = input.readVarInt();
+		mHeight = input.readVarInt();
+		mSpoiler = input.readBoolean();
+		input.endBlock(end);
+	}
+
+	void write(PostsCodec.Output output) {
+		int start = output.beginBlock();
+		output.writeString(mFileUriString);
+		output.writeString(mThumbnailUriString);
+		output.writeString(mOriginalName);
+		output.writeVarInt(mSize);
+		output.writeVarInt(mWidth);
+		output.writeVarInt(mHeight);
+		output.writeBoolean(mSpoiler);
+		output.endBlock(start);
+	}
+
 	private static String fixRelativeUriString(String uriString) {
 		int index = uriString.indexOf("//");
 		if (index >= 0) {
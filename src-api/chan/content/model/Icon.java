@@ -16,6 +16,7 @@
 
 package chan.content.model;
 
+import java.io.IOException;
 import java.io.Serializable;
 
 import android.net.Uri;
@@ -37,6 +38,20 @@ public final class Icon implements Serializable {
 		mTitle = StringUtils.nullIfEmpty(title);
 	}
 
+	Icon(PostsCodec.Input input) throws IOException {
+		int end = input.beginBlock();
+		mUriString = input.readSharedString();
+		mTitle = input.readSharedString();
+		input.endBlock(end);
+	}
+
+	void write(PostsCodec.Output output) {
+		int start = output.beginBlock();
+		output.writeSharedString(mUriString);
+		output.writeSharedString(mTitle);
+		output.endBlock(start);
+	}
+
 	public Uri getRelativeUri() {
 		return mUriString != null ? Uri.parse(mUriString) : null;
 	}
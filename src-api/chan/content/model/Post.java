@@ -16,6 +16,7 @@
 
 package chan.content.model;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Collection;
 
@@ -47,6 +48,9 @@ public final class Post implements Serializable, Comparable<Post> {
 	private static final int FLAG_DELETED = 0x00040000;
 	private static final int FLAG_USER_POST = 0x00080000;
 
+	private static final int ATTACHMENT_FILE = 1;
+	private static final int ATTACHMENT_EMBEDDED = 2;
+
 	private int mFlags;
 
 	private String mThreadNumber;
@@ -71,6 +75,93 @@ public final class Post implements Serializable, Comparable<Post> {
 	@Public
 	public Post() {}
 
+	Post(PostsCodec.Input input) throws IOException {
+		int end = input.beginBlock();
+		mFlags = input.readVarInt();
+		mThreadNumber = input.readSharedString();
+		mParentPostNumber = input.readSharedString();
+		mPostNumber = input.readNumberString();
+		mTimestamp = input.readVarLong();
+		mSubject = input.readString();
+		mComment = input.readString();
+		mEditedComment = input.readString();
+		mCommentMarkup = input.readSharedString();
+		mName = input.readSharedString();
+		mIdentifier = input.readSharedString();
+		mTripcode = input.readSharedString();
+		mCapcode = input.readSharedString();
+		mEmail = input.readSharedString();
+		int attachmentsCount = input.readVarInt() - 1;
+		if (attachmentsCount >= 0) {
+			Attachment[] attachments = new Attachment[attachmentsCount];
+			for (int i = 0; i < attachmentsCount; i++) {
+				int type = input.readByte();
+				switch (type) {
+					case ATTACHMENT_FILE: {
+						attachments[i] = new FileAttachment(input);
+						break;
+					}
+					case ATTACHMENT_EMBEDDED: {
+						attachments[i] = new EmbeddedAttachment(input);
+						break;
+					}
+					default: {
+						throw new IOException("Unknown attachment type: " + type);
+					}
+				}
+			}
+			mAttachments = attachments;
+		}
+		int iconsCount = input.readVarInt() - 1;
+		if (iconsCount >= 0) {
+			Icon[] icons = new Icon[iconsCount];
+			for (int i = 0; i < iconsCount; i++) {
+				icons[i] = new Icon(input);
+			}
+			mIcons = icons;
+		}
+		input.endBlock(end);
+	}
+
+	void write(PostsCodec.Output output) {
+		int start = output.beginBlock();
+		output.writeVarInt(mFlags);
+		output.writeSharedString(mThreadNumber);
+		output.writeSharedString(mParentPostNumber);
+		output.writeNumberString(mPostNumber);
+		output.writeVarLong(mTimestamp);
+		output.writeString(mSubject);
+		output.writeString(mComment);
+		output.writeString(mEditedComment);
+		output.writeSharedString(mCommentMarkup);
+		output.writeSharedString(mName);
+		output.writeSharedString(mIdentifier);
+		output.writeSharedString(mTripcode);
+		output.writeSharedString(mCapcode);
+		output.writeSharedString(mEmail);
+		Attachment[] attachments = mAttachments;
+		output.writeVarInt(attachments != null ? attachments.length + 1 : 0);
+		if (attachments != null) {
+			for (Attachment attachment : attachments) {
+				if (attachment instanceof FileAttachment) {
+					output.writeByte(ATTACHMENT_FILE);
+					((FileAttachment) attachment).write(output);
+				} else {
+					output.writeByte(ATTACHMENT_EMBEDDED);
+					((EmbeddedAttachment) attachment).write(output);
+				}
+			}
+		}
+		Icon[] icons = mIcons;
+		output.writeVarInt(icons != null ? icons.length + 1 : 0);
+		if (icons != null) {
+			for (Icon icon : icons) {
+				icon.write(output);
+			}
+		}
+		output.endBlock(start);
+	}
+
 	private static void validateThreadNumber(String threadNumber) throws IllegalArgumentException {
 		if (threadNumber != null) {
 			String escapedThreadNumber = StringUtils.escapeFile(threadNumber, false);
@@ -567,4 +658,10 @@ public final class Post implements Serializable, Comparable<Post> {
 		result.mIcons = mIcons;
 		return result;
 	}
+
+	public Post copyWithState() {
+		Post result = copy();
+		result.mFlags = mFlags;
+		return result;
+	}
 }
\ No newline at end of file
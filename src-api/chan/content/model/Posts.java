@@ -16,9 +16,13 @@
 
 package chan.content.model;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import android.net.Uri;
 import android.util.Pair;
@@ -225,4 +229,116 @@ public final class Posts implements Serializable {
 	public Posts(Collection<? extends Post> posts) {
 		setPosts(posts);
 	}
+
+	Posts(PostsCodec.Input input) throws IOException {
+		readHeader(input);
+		mPosts = readPosts(input);
+	}
+
+	private void readHeader(PostsCodec.Input input) throws IOException {
+		int end = input.beginBlock();
+		String validator = input.readString();
+		mHttpValidator = validator != null ? HttpValidator.fromString(validator) : null;
+		mArchivedThreadUriString = input.readString();
+		mUniquePosters = input.readVarInt();
+		mPostsCount = input.readVarInt();
+		mFilesCount = input.readVarInt();
+		mPostsWithFilesCount = input.readVarInt();
+		int localAutohideCount = input.readVarInt() - 1;
+		if (localAutohideCount >= 0) {
+			mLocalAutohide = new String[localAutohideCount][];
+			for (int i = 0; i < localAutohideCount; i++) {
+				int count = input.readVarInt() - 1;
+				if (count >= 0) {
+					String[] localAutohide = new String[count];
+					for (int j = 0; j < count; j++) {
+						localAutohide[j] = input.readSharedString();
+					}
+					mLocalAutohide[i] = localAutohide;
+				}
+			}
+		}
+		mAutoRefreshEnabled = input.readBoolean();
+		mAutoRefreshInterval = input.readVarInt();
+		input.endBlock(end);
+	}
+
+	private static Post[] readPosts(PostsCodec.Input input) throws IOException {
+		int count = input.readVarInt();
+		if (count > 0) {
+			Post[] posts = new Post[count];
+			for (int i = 0; i < count; i++) {
+				posts[i] = new Post(input);
+			}
+			return posts;
+		}
+		return null;
+	}
+
+	void applyDelta(PostsCodec.Input input) throws IOException {
+		readHeader(input);
+		int removedCount = input.readVarInt();
+		HashSet<String> removedPostNumbers = new HashSet<>(removedCount);
+		for (int i = 0; i < removedCount; i++) {
+			removedPostNumbers.add(input.readNumberString());
+		}
+		Post[] changedPosts = readPosts(input);
+		HashMap<String, Post> changedPostsMap = new HashMap<>();
+		if (changedPosts != null) {
+			for (Post post : changedPosts) {
+				changedPostsMap.put(post.getPostNumber(), post);
+			}
+		}
+		ArrayList<Post> posts = new ArrayList<>(length() + changedPostsMap.size());
+		if (mPosts != null) {
+			for (Post post : mPosts) {
+				String postNumber = post.getPostNumber();
+				if (!removedPostNumbers.contains(postNumber)) {
+					Post changedPost = changedPostsMap.remove(postNumber);
+					posts.add(changedPost != null ? changedPost : post);
+				}
+			}
+		}
+		if (!changedPostsMap.isEmpty()) {
+			posts.addAll(changedPostsMap.values());
+			Collections.sort(posts);
+		}
+		mPosts = posts.isEmpty() ? null : CommonUtils.toArray(posts, Post.class);
+	}
+
+	void write(PostsCodec.Output output) {
+		writeHeader(output);
+		Post[] posts = mPosts;
+		output.writeVarInt(posts != null ? posts.length : 0);
+		if (posts != null) {
+			for (Post post : posts) {
+				post.write(output);
+			}
+		}
+	}
+
+	void writeHeader(PostsCodec.Output output) {
+		int start = output.beginBlock();
+		output.writeString(mHttpValidator != null ? mHttpValidator.toString() : null);
+		output.writeString(mArchivedThreadUriString);
+		output.writeVarInt(mUniquePosters);
+		output.writeVarInt(mPostsCount);
+		output.writeVarInt(mFilesCount);
+		output.writeVarInt(mPostsWithFilesCount);
+		String[][] localAutohide = mLocalAutohide;
+		output.writeVarInt(localAutohide != null ? localAutohide.length + 1 : 0);
+		if (localAutohide != null) {
+			for (String[] strings : localAutohide) {
+				output.writeVarInt(strings != null ? strings.length + 1 : 0);
+				if (strings != null) {
+					for (String string : strings) {
+						output.writeSharedString(string);
+					}
+				}
+			}
+		}
+		output.writeBoolean(mAutoRefreshEnabled);
+		output.writeVarInt(mAutoRefreshInterval);
+		output.endBlock(start);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,458 @@
+/*
+ * Copyright 2014-2016 Fukurou Mishiranu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package chan.content.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+import com.mishiranu.dashchan.util.IOUtils;
+
+/*
+ * Binary format for cached thread pages.
+ *
+ * File starts with 4 bytes magic and 1 byte version followed by records. Every record consists of
+ * 1 byte type, 4 bytes payload length, 4 bytes payload CRC32 and payload itself. Record payload contains
+ * its own string table, so records can be appended independently. Numbers are written as zigzag varints.
+ *
+ * The first record is a full snapshot. Each following delta record contains posts header, removed post numbers
+ * and added or changed posts, so refreshing a thread only appends a small record to the end of file.
+ */
+public final class PostsCodec {
+	private static final int MAGIC = 0x44435053; // DCPS
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 5;
+	private static final int RECORD_HEADER_SIZE = 9;
+
+	public static final int RECORD_SNAPSHOT = 1;
+	public static final int RECORD_DELTA = 2;
+
+	private static final int COMPACTION_MIN_DELTA_LENGTH = 64 * 1024;
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private PostsCodec() {}
+
+	public static boolean isLegacyHeader(byte[] header, int count) {
+		// Java serialization stream magic
+		return count >= 2 && (header[0] & 0xff) == 0xac && (header[1] & 0xff) == 0xed;
+	}
+
+	public static void writeHeader(OutputStream output) throws IOException {
+		byte[] header = IOUtils.intToBytes(MAGIC, false, 0, 4, new byte[HEADER_SIZE]);
+		header[4] = VERSION;
+		output.write(header);
+	}
+
+	public static boolean readHeader(InputStream input) throws IOException {
+		byte[] header = new byte[HEADER_SIZE];
+		return IOUtils.readExactlyCheck(input, header, 0, HEADER_SIZE) &&
+				IOUtils.bytesToInt(false, 0, 4, header) == MAGIC && header[4] <= VERSION;
+	}
+
+	public static final class Journal {
+		private HashMap<String, Integer> checksums;
+		private int headerChecksum;
+
+		private long snapshotLength;
+		private long deltaLength;
+
+		public Journal() {}
+
+		public long getLength() {
+			return HEADER_SIZE + snapshotLength + deltaLength;
+		}
+
+		public boolean isCompactionRequired() {
+			return deltaLength >= Math.max(COMPACTION_MIN_DELTA_LENGTH, snapshotLength / 2);
+		}
+	}
+
+	private static int calculateChecksum(Output output, CRC32 crc32) {
+		crc32.reset();
+		crc32.update(output.buffer, 0, output.position);
+		output.reset();
+		return (int) crc32.getValue();
+	}
+
+	private static HashMap<String, Integer> calculateChecksums(Post[] posts, Output output, CRC32 crc32) {
+		HashMap<String, Integer> checksums = new HashMap<>();
+		if (posts != null) {
+			for (Post post : posts) {
+				post.write(output);
+				checksums.put(post.getPostNumber(), calculateChecksum(output, crc32));
+			}
+		}
+		return checksums;
+	}
+
+	private static void updateChecksums(Posts posts, Journal journal) {
+		Output fingerprint = new Output(false);
+		CRC32 crc32 = new CRC32();
+		posts.writeHeader(fingerprint);
+		journal.headerChecksum = calculateChecksum(fingerprint, crc32);
+		journal.checksums = calculateChecksums(posts.getPosts(), fingerprint, crc32);
+	}
+
+	public static Journal write(Posts posts, OutputStream output) throws IOException {
+		writeHeader(output);
+		Output payload = new Output(true);
+		posts.write(payload);
+		Journal journal = new Journal();
+		journal.snapshotLength = payload.writeRecord(output, RECORD_SNAPSHOT);
+		updateChecksums(posts, journal);
+		return journal;
+	}
+
+	// Appends delta record relative to the state stored in journal, returns false if nothing has changed
+	public static boolean writeDelta(Posts posts, Journal journal, OutputStream output) throws IOException {
+		Post[] postsArray = posts.getPosts();
+		Output fingerprint = new Output(false);
+		CRC32 crc32 = new CRC32();
+		posts.writeHeader(fingerprint);
+		int headerChecksum = calculateChecksum(fingerprint, crc32);
+		HashMap<String, Integer> checksums = calculateChecksums(postsArray, fingerprint, crc32);
+		ArrayList<String> removedPostNumbers = new ArrayList<>();
+		for (String postNumber : journal.checksums.keySet()) {
+			if (!checksums.containsKey(postNumber)) {
+				removedPostNumbers.add(postNumber);
+			}
+		}
+		ArrayList<Post> changedPosts = new ArrayList<>();
+		if (postsArray != null) {
+			for (Post post : postsArray) {
+				String postNumber = post.getPostNumber();
+				if (!checksums.get(postNumber).equals(journal.checksums.get(postNumber))) {
+					changedPosts.add(post);
+				}
+			}
+		}
+		if (headerChecksum == journal.headerChecksum && removedPostNumbers.isEmpty() && changedPosts.isEmpty()) {
+			return false;
+		}
+		Output payload = new Output(true);
+		posts.writeHeader(payload);
+		payload.writeVarInt(removedPostNumbers.size());
+		for (String postNumber : removedPostNumbers) {
+			payload.writeNumberString(postNumber);
+		}
+		payload.writeVarInt(changedPosts.size());
+		for (Post post : changedPosts) {
+			post.write(payload);
+		}
+		journal.deltaLength += payload.writeRecord(output, RECORD_DELTA);
+		journal.headerChecksum = headerChecksum;
+		journal.checksums = checksums;
+		return true;
+	}
+
+	public static Posts read(InputStream input) throws IOException {
+		return read(input, null);
+	}
+
+	// Fills journal with the state of read file if journal is not null, so delta records can be appended to it
+	public static Posts read(InputStream input, Journal journal) throws IOException {
+		if (!readHeader(input)) {
+			throw new IOException("Invalid header");
+		}
+		Posts posts = null;
+		long snapshotLength = 0;
+		long deltaLength = 0;
+		Input record;
+		while ((record = Input.readRecord(input)) != null) {
+			if (record.type == RECORD_SNAPSHOT) {
+				posts = new Posts(record);
+				snapshotLength += deltaLength + record.getRecordLength();
+				deltaLength = 0;
+			} else {
+				if (record.type == RECORD_DELTA && posts != null) {
+					posts.applyDelta(record);
+				}
+				deltaLength += record.getRecordLength();
+			}
+		}
+		if (posts == null) {
+			throw new IOException("No snapshot record");
+		}
+		if (journal != null) {
+			journal.snapshotLength = snapshotLength;
+			journal.deltaLength = deltaLength;
+			updateChecksums(posts, journal);
+		}
+		return posts;
+	}
+
+	static final class Output {
+		private byte[] buffer = new byte[8192];
+		private int position = 0;
+
+		private final HashMap<String, Integer> strings;
+
+		public Output(boolean shareStrings) {
+			strings = shareStrings ? new HashMap<>() : null;
+		}
+
+		public void reset() {
+			position = 0;
+			if (strings != null) {
+				strings.clear();
+			}
+		}
+
+		private void ensureCapacity(int count) {
+			if (position + count > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + count));
+			}
+		}
+
+		public void writeByte(int value) {
+			ensureCapacity(1);
+			buffer[position++] = (byte) value;
+		}
+
+		public void writeBoolean(boolean value) {
+			writeByte(value ? 1 : 0);
+		}
+
+		public void writeVarLong(long value) {
+			ensureCapacity(10);
+			value = (value << 1) ^ (value >> 63);
+			while ((value & ~0x7fL) != 0) {
+				buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			buffer[position++] = (byte) value;
+		}
+
+		public void writeVarInt(int value) {
+			writeVarLong(value);
+		}
+
+		public void writeString(String value) {
+			if (value == null) {
+				writeVarInt(0);
+			} else {
+				byte[] bytes = value.getBytes(CHARSET);
+				writeVarInt(bytes.length + 1);
+				ensureCapacity(bytes.length);
+				System.arraycopy(bytes, 0, buffer, position, bytes.length);
+				position += bytes.length;
+			}
+		}
+
+		// Used for values repeated across posts: names, tripcodes, capcodes, thread numbers, etc.
+		public void writeSharedString(String value) {
+			if (value == null) {
+				writeVarInt(0);
+			} else if (strings == null) {
+				writeVarInt(1);
+				writeString(value);
+			} else {
+				Integer index = strings.get(value);
+				if (index != null) {
+					writeVarInt(index + 2);
+				} else {
+					strings.put(value, strings.size());
+					writeVarInt(1);
+					writeString(value);
+				}
+			}
+		}
+
+		// Post numbers are usually decimal numbers without leading zeros
+		public void writeNumberString(String value) {
+			int length = value != null ? value.length() : 0;
+			boolean numeric = length > 0 && length <= 18 && value.charAt(0) != '0';
+			for (int i = 0; numeric && i < length; i++) {
+				char c = value.charAt(i);
+				numeric = c >= '0' && c <= '9';
+			}
+			if (numeric) {
+				writeByte(2);
+				writeVarLong(Long.parseLong(value));
+			} else if (value != null) {
+				writeByte(1);
+				writeString(value);
+			} else {
+				writeByte(0);
+			}
+		}
+
+		public int beginBlock() {
+			ensureCapacity(4);
+			int start = position;
+			position += 4;
+			return start;
+		}
+
+		public void endBlock(int start) {
+			IOUtils.intToBytes(position - start - 4, false, start, 4, buffer);
+		}
+
+		public int writeRecord(OutputStream output, int type) throws IOException {
+			CRC32 crc32 = new CRC32();
+			crc32.update(buffer, 0, position);
+			byte[] header = new byte[RECORD_HEADER_SIZE];
+			header[0] = (byte) type;
+			IOUtils.intToBytes(position, false, 1, 4, header);
+			IOUtils.intToBytes((int) crc32.getValue(), false, 5, 4, header);
+			output.write(header);
+			output.write(buffer, 0, position);
+			return RECORD_HEADER_SIZE + position;
+		}
+	}
+
+	static final class Input {
+		public final int type;
+
+		private final byte[] buffer;
+		private final int limit;
+		private int position = 0;
+
+		private final ArrayList<String> strings = new ArrayList<>();
+
+		private Input(int type, byte[] buffer) {
+			this.type = type;
+			this.buffer = buffer;
+			limit = buffer.length;
+		}
+
+		public int getRecordLength() {
+			return RECORD_HEADER_SIZE + limit;
+		}
+
+		// Returns null when there are no more complete records, e.g. when the last append was interrupted
+		static Input readRecord(InputStream input) throws IOException {
+			byte[] header = new byte[RECORD_HEADER_SIZE];
+			if (!IOUtils.readExactlyCheck(input, header, 0, RECORD_HEADER_SIZE)) {
+				return null;
+			}
+			int type = header[0] & 0xff;
+			int length = IOUtils.bytesToInt(false, 1, 4, header);
+			int checksum = IOUtils.bytesToInt(false, 5, 4, header);
+			if (length < 0) {
+				return null;
+			}
+			byte[] buffer = new byte[length];
+			if (!IOUtils.readExactlyCheck(input, buffer, 0, length)) {
+				return null;
+			}
+			CRC32 crc32 = new CRC32();
+			crc32.update(buffer, 0, length);
+			if ((int) crc32.getValue() != checksum) {
+				return null;
+			}
+			return new Input(type, buffer);
+		}
+
+		private void checkAvailable(int count) throws IOException {
+			if (count < 0 || position + count > limit) {
+				throw new IOException("Unexpected end of record");
+			}
+		}
+
+		public int readByte() throws IOException {
+			checkAvailable(1);
+			return buffer[position++] & 0xff;
+		}
+
+		public boolean readBoolean() throws IOException {
+			return readByte() != 0;
+		}
+
+		public long readVarLong() throws IOException {
+			long value = 0;
+			int shift = 0;
+			int b;
+			do {
+				if (shift >= 64) {
+					throw new IOException("Malformed varint");
+				}
+				b = readByte();
+				value |= (long) (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		public int readVarInt() throws IOException {
+			return (int) readVarLong();
+		}
+
+		public String readString() throws IOException {
+			int length = readVarInt() - 1;
+			if (length < 0) {
+				return null;
+			}
+			checkAvailable(length);
+			String value = new String(buffer, position, length, CHARSET);
+			position += length;
+			return value;
+		}
+
+		public String readSharedString() throws IOException {
+			int index = readVarInt();
+			if (index == 0) {
+				return null;
+			} else if (index == 1) {
+				String value = readString();
+				strings.add(value);
+				return value;
+			} else {
+				index -= 2;
+				if (index >= strings.size()) {
+					throw new IOException("Invalid string index");
+				}
+				return strings.get(index);
+			}
+		}
+
+		public String readNumberString() throws IOException {
+			switch (readByte()) {
+				case 0: {
+					return null;
+				}
+				case 1: {
+					return readString();
+				}
+				case 2: {
+					return Long.toString(readVarLong());
+				}
+			}
+			throw new IOException("Invalid number string");
+		}
+
+		public int beginBlock() throws IOException {
+			checkAvailable(4);
+			int length = IOUtils.bytesToInt(false, position, 4, buffer);
+			position += 4;
+			checkAvailable(length);
+			return position + length;
+		}
+
+		public void endBlock(int end) {
+			// Skip unknown trailing fields
+			position = end;
+		}
+	}
+}
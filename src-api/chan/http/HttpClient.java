@@ -65,6 +65,7 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Pair;
 
 import chan.content.ChanLocator;
@@ -83,13 +84,17 @@ import com.mishiranu.dashchan.util.Log;
 
 public class HttpClient {
 	private static final int MAX_ATTEMPS_COUNT = 10;
+	private static final int MAX_HOST_CONNECTION_WAIT_TIME = 15000;
 
 	private static final HashMap<String, String> SHORT_RESPONSE_MESSAGES = new HashMap<>();
 
 	private static final HostnameVerifier DEFAULT_HOSTNAME_VERIFIER = HttpsURLConnection.getDefaultHostnameVerifier();
 	private static final HostnameVerifier UNSAFE_HOSTNAME_VERIFIER = (hostname, session) -> true;
 
-	private static final SSLSocketFactory DEFAULT_SSL_SOCKET_FACTORY = HttpsURLConnection.getDefaultSSLSocketFactory();
+	private static final HashMap<String, ConnectionStatistics> CONNECTION_STATISTICS = new HashMap<>();
+
+	private static final SSLSocketFactory DEFAULT_SSL_SOCKET_FACTORY = new StatisticsSSLSocketFactory
+			(HttpsURLConnection.getDefaultSSLSocketFactory());
 	private static final SSLSocketFactory UNSAFE_SSL_SOCKET_FACTORY;
 
 	static final int HTTP_TEMPORARY_REDIRECT = 307;
@@ -128,7 +133,7 @@ public class HttpClient {
 		try {
 			SSLContext sslContext = SSLContext.getInstance("TLS");
 			sslContext.init(null, new X509TrustManager[] {trustManager}, null);
-			sslSocketFactory = sslContext.getSocketFactory();
+			sslSocketFactory = new StatisticsSSLSocketFactory(sslContext.getSocketFactory());
 		} catch (Exception e) {
 			sslSocketFactory = DEFAULT_SSL_SOCKET_FACTORY;
 		}
@@ -331,6 +336,7 @@ public class HttpClient {
 				HttpsURLConnection secureConnection = (HttpsURLConnection) connection;
 				secureConnection.setHostnameVerifier(getHostnameVerifier(holder.verifyCertificate));
 				secureConnection.setSSLSocketFactory(getSSLSocketFactory(holder.verifyCertificate));
+				obtainConnectionStatistics(url.getHost(), statistics -> statistics.requestsCount++);
 			}
 			try {
 				holder.setConnection(connection, request.inputListener, request.outputStream);
@@ -364,8 +370,13 @@ public class HttpClient {
 			if (!userAgentSet) {
 				connection.setRequestProperty("User-Agent", AdvancedPreferences.getUserAgent(chanName));
 			}
+			boolean rangeSet = false;
+			if (request.rangeStart > 0 && request.rangeValidator != null) {
+				rangeSet = request.rangeValidator.writeRange(connection, request.rangeStart);
+			}
 			if (!acceptEncodingSet) {
-				connection.setRequestProperty("Accept-Encoding", "gzip");
+				// Byte ranges of compressed response can't be appended to uncompressed data
+				connection.setRequestProperty("Accept-Encoding", rangeSet ? "identity" : "gzip");
 			}
 			CookieBuilder cookieBuilder = obtainModifiedCookieBuilder(request.cookieBuilder, chanName);
 			if (cookieBuilder != null) {
@@ -431,6 +442,7 @@ public class HttpClient {
 				if (result.success) {
 					// TODO Handle possible connection replacement
 					if (holder.nextAttempt()) {
+						holder.disconnectAndClear();
 						executeInternal(request);
 						return;
 					} else {
@@ -491,7 +503,13 @@ public class HttpClient {
 
 			if (validator != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
 				String responseMessage = connection.getResponseMessage();
-				holder.disconnectAndClear();
+				try {
+					// Consume empty body to keep connection alive
+					IOUtils.close(connection.getInputStream());
+					holder.releaseAndClear();
+				} catch (IOException e) {
+					holder.disconnectAndClear();
+				}
 				throw new HttpException(responseCode, responseMessage);
 			}
 			if (request.successOnly) {
@@ -507,6 +525,7 @@ public class HttpClient {
 				// Sometimes server closes the socket, but client is still trying to use it
 				if (holder.nextAttempt()) {
 					Log.persistent().stack(e);
+					holder.disconnectAndClear();
 					executeInternal(request);
 					return;
 				}
@@ -523,6 +542,7 @@ public class HttpClient {
 						}
 					}
 					if (holder.nextAttempt()) {
+						holder.disconnectAndClear();
 						executeInternal(request);
 						return;
 					}
@@ -534,49 +554,61 @@ public class HttpClient {
 		}
 	}
 
+	private ClientInputStream obtainInputStream(HttpHolder holder, HttpURLConnection connection)
+			throws IOException {
+		InputStream commonInput;
+		try {
+			commonInput = connection.getInputStream();
+		} catch (FileNotFoundException e) {
+			commonInput = connection.getErrorStream();
+		}
+		commonInput = new BufferedInputStream(commonInput, 4096);
+		String encoding = connection.getContentEncoding();
+		int contentLength = connection.getContentLength();
+		if ("gzip".equals(encoding)) {
+			commonInput = new GZIPInputStream(commonInput);
+			contentLength = -1;
+		}
+		return new ClientInputStream(commonInput, holder, holder.inputListener, contentLength);
+	}
+
+	private String obtainCharsetName(HttpURLConnection connection) {
+		String contentType = connection.getHeaderField("Content-Type");
+		String charsetName = null;
+		if (contentType != null) {
+			int index = contentType.indexOf("charset=");
+			if (index >= 0) {
+				int end = contentType.indexOf(';', index);
+				charsetName = contentType.substring(index + 8, end >= 0 ? end : contentType.length());
+				try {
+					Charset.forName(charsetName);
+				} catch (UnsupportedCharsetException e) {
+					charsetName = null;
+				}
+			}
+		}
+		return charsetName;
+	}
+
 	HttpResponse read(HttpHolder holder) throws HttpException {
+		boolean release = false;
 		try {
 			HttpURLConnection connection = holder.getConnection();
 			holder.checkDisconnected();
-			InputStream commonInput;
-			try {
-				commonInput = connection.getInputStream();
-			} catch (FileNotFoundException e) {
-				commonInput = connection.getErrorStream();
-			}
-			commonInput = new BufferedInputStream(commonInput, 4096);
-			String encoding = connection.getContentEncoding();
-			int contentLength = connection.getContentLength();
-			if ("gzip".equals(encoding)) {
-				commonInput = new GZIPInputStream(commonInput);
-				contentLength = -1;
-			}
 			OutputStream output = holder.outputStream;
-			ClientInputStream input = new ClientInputStream(commonInput, holder, holder.inputListener, contentLength);
+			ClientInputStream input = obtainInputStream(holder, connection);
 			ByteArrayOutputStream writeTo = output == null ? new ByteArrayOutputStream() : null;
 			if (output == null) {
 				output = writeTo;
 			}
 			try {
 				IOUtils.copyStream(input, output);
+				release = true;
 			} finally {
 				IOUtils.close(input);
 				IOUtils.close(output);
 			}
-			String contentType = connection.getHeaderField("Content-Type");
-			String charsetName = null;
-			if (contentType != null) {
-				int index = contentType.indexOf("charset=");
-				if (index >= 0) {
-					int end = contentType.indexOf(';', index);
-					charsetName = contentType.substring(index + 8, end >= 0 ? end : contentType.length());
-					try {
-						Charset.forName(charsetName);
-					} catch (UnsupportedCharsetException e) {
-						charsetName = null;
-					}
-				}
-			}
+			String charsetName = obtainCharsetName(connection);
 			holder.checkDisconnectedAndSetHasUnreadBody(false);
 			if (writeTo != null) {
 				HttpResponse httpResponse = new HttpResponse(writeTo.toByteArray());
@@ -593,7 +625,38 @@ public class HttpClient {
 			checkExceptionAndThrow(e);
 			throw new HttpException(ErrorItem.TYPE_DOWNLOAD, false, true, e);
 		} finally {
-			holder.disconnectAndClear();
+			if (release) {
+				holder.releaseAndClear();
+			} else {
+				holder.disconnectAndClear();
+			}
+		}
+	}
+
+	HttpResponse readStream(HttpHolder holder) throws HttpException {
+		boolean success = false;
+		try {
+			HttpURLConnection connection = holder.getConnection();
+			holder.checkDisconnected();
+			ResponseInputStream input = new ResponseInputStream(obtainInputStream(holder, connection),
+					holder, connection);
+			String charsetName = obtainCharsetName(connection);
+			holder.checkDisconnected(input);
+			HttpResponse httpResponse = new HttpResponse(input);
+			if (charsetName != null) {
+				httpResponse.setEncoding(charsetName);
+			}
+			success = true;
+			return httpResponse;
+		} catch (DisconnectedIOException e) {
+			throw new HttpException(0, false, false, e);
+		} catch (IOException e) {
+			checkExceptionAndThrow(e);
+			throw new HttpException(ErrorItem.TYPE_DOWNLOAD, false, true, e);
+		} finally {
+			if (!success) {
+				holder.disconnectAndClear();
+			}
 		}
 	}
 
@@ -658,6 +721,15 @@ public class HttpClient {
 		}
 	}
 
+	HttpException transformReadException(IOException exception) {
+		if (exception instanceof DisconnectedIOException) {
+			return new HttpException(0, false, false, exception);
+		}
+		Log.persistent().stack(exception);
+		int errorType = getErrorTypeForException(exception);
+		return new HttpException(errorType != 0 ? errorType : ErrorItem.TYPE_DOWNLOAD, false, true, exception);
+	}
+
 	private int getErrorTypeForException(IOException exception) {
 		if (isConnectionReset(exception)) {
 			return ErrorItem.TYPE_CONNECTION_RESET;
@@ -791,6 +863,83 @@ public class HttpClient {
 		}
 	}
 
+	private static class ResponseInputStream extends InputStream {
+		private static final int MAX_DISCARD_LENGTH = 8192;
+
+		private final ClientInputStream input;
+		private final HttpHolder holder;
+		private final HttpURLConnection connection;
+
+		private boolean end = false;
+		private boolean closed = false;
+
+		public ResponseInputStream(ClientInputStream input, HttpHolder holder, HttpURLConnection connection) {
+			this.input = input;
+			this.holder = holder;
+			this.connection = connection;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int value = input.read();
+			if (value < 0) {
+				end = true;
+			}
+			return value;
+		}
+
+		@Override
+		public int read(byte[] b) throws IOException {
+			return read(b, 0, b.length);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int value = input.read(b, off, len);
+			if (value < 0) {
+				end = true;
+			}
+			return value;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			return input.skip(n);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return input.available();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				try {
+					if (!end) {
+						// Parsers usually stop right after the last token, short tail can be discarded
+						byte[] buffer = new byte[1024];
+						int discarded = 0;
+						while (discarded <= MAX_DISCARD_LENGTH) {
+							int count = input.read(buffer);
+							if (count < 0) {
+								end = true;
+								break;
+							}
+							discarded += count;
+						}
+					}
+				} catch (IOException e) {
+					end = false;
+				} finally {
+					IOUtils.close(input);
+					holder.onStreamClosed(connection, end);
+				}
+			}
+		}
+	}
+
 	private static class ClientOutputStream extends OutputStream {
 		private final OutputStream output;
 		private final HttpHolder holder;
@@ -854,10 +1003,14 @@ public class HttpClient {
 	private final HashMap<Object, HttpURLConnection> singleConnections = new HashMap<>();
 	private final HashMap<HttpURLConnection, Object> singleConnectionIdetifiers = new HashMap<>();
 
+	private final HashMap<String, Integer> hostConnectionsCounts = new HashMap<>();
+	private final HashMap<HttpURLConnection, String> hostConnections = new HashMap<>();
+
 	private final HashMap<String, AtomicBoolean> delayLocks = new HashMap<>();
 
 	// Called from HttpHolder
-	void onConnect(String chanName, HttpURLConnection connection, int delay) throws DisconnectedIOException {
+	void onConnect(HttpHolder holder, String chanName, HttpURLConnection connection, int delay)
+			throws DisconnectedIOException {
 		if (AdvancedPreferences.isSingleConnection(chanName)) {
 			synchronized (singleConnections) {
 				while (singleConnections.containsKey(chanName)) {
@@ -872,6 +1025,34 @@ public class HttpClient {
 				singleConnectionIdetifiers.put(connection, chanName);
 			}
 		}
+		String host = connection.getURL().getAuthority();
+		if (host != null) {
+			int maxConnections = AdvancedPreferences.getHostConnections();
+			synchronized (hostConnectionsCounts) {
+				// Limit is soft, so connections which were never released can't block host forever
+				long waitUntil = System.currentTimeMillis() + MAX_HOST_CONNECTION_WAIT_TIME;
+				while (true) {
+					if (holder.isDisconnectRequested()) {
+						onDisconnect(connection);
+						throw new DisconnectedIOException();
+					}
+					Integer count = hostConnectionsCounts.get(host);
+					long waitTime = waitUntil - System.currentTimeMillis();
+					if (count == null || count < maxConnections || waitTime <= 0) {
+						hostConnectionsCounts.put(host, count != null ? count + 1 : 1);
+						hostConnections.put(connection, host);
+						break;
+					}
+					try {
+						hostConnectionsCounts.wait(waitTime);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						onDisconnect(connection);
+						throw new DisconnectedIOException();
+					}
+				}
+			}
+		}
 		if (delay > 0) {
 			URL url = connection.getURL();
 			String key = url.getAuthority();
@@ -905,6 +1086,13 @@ public class HttpClient {
 		}
 	}
 
+	// Called from HttpHolder
+	void onDisconnectRequested() {
+		synchronized (hostConnectionsCounts) {
+			hostConnectionsCounts.notifyAll();
+		}
+	}
+
 	// Called from HttpHolder
 	void onDisconnect(HttpURLConnection connection) {
 		synchronized (singleConnections) {
@@ -916,6 +1104,129 @@ public class HttpClient {
 				}
 			}
 		}
+		synchronized (hostConnectionsCounts) {
+			String host = hostConnections.remove(connection);
+			if (host != null) {
+				Integer count = hostConnectionsCounts.get(host);
+				if (count != null && count > 1) {
+					hostConnectionsCounts.put(host, count - 1);
+				} else {
+					hostConnectionsCounts.remove(host);
+				}
+				hostConnectionsCounts.notifyAll();
+			}
+		}
+	}
+
+	private static class ConnectionStatistics {
+		public final String host;
+
+		public int requestsCount;
+		public int connectionsCount;
+		public int handshakesCount;
+		public long handshakesTime;
+
+		public ConnectionStatistics(String host) {
+			this.host = host;
+		}
+
+		public float getReuseRatio() {
+			return requestsCount > 0 ? Math.max(1f - (float) connectionsCount / requestsCount, 0f) : 0f;
+		}
+
+		public long getAverageHandshakeTime() {
+			return handshakesCount > 0 ? handshakesTime / handshakesCount : 0L;
+		}
+	}
+
+	private interface ConnectionStatisticsUpdater {
+		public void update(ConnectionStatistics statistics);
+	}
+
+	private static void obtainConnectionStatistics(String host, ConnectionStatisticsUpdater updater) {
+		if (host != null) {
+			host = host.toLowerCase(Locale.US);
+			synchronized (CONNECTION_STATISTICS) {
+				ConnectionStatistics statistics = CONNECTION_STATISTICS.get(host);
+				if (statistics == null) {
+					statistics = new ConnectionStatistics(host);
+					CONNECTION_STATISTICS.put(host, statistics);
+				}
+				updater.update(statistics);
+			}
+		}
+	}
+
+	// Statistics for secure connections only, reused connections don't pass through socket factory
+	public void writeConnectionStatistics() {
+		synchronized (CONNECTION_STATISTICS) {
+			for (ConnectionStatistics statistics : CONNECTION_STATISTICS.values()) {
+				Log.persistent().write(Log.DISABLE_QUOTES, "Connection statistics for", statistics.host + ":",
+						"requests:", statistics.requestsCount, "connections:", statistics.connectionsCount,
+						"reuse ratio:", statistics.getReuseRatio(), "average handshake time (ms):",
+						statistics.getAverageHandshakeTime());
+			}
+		}
+	}
+
+	private static class StatisticsSSLSocketFactory extends SSLSocketFactory {
+		private final SSLSocketFactory wrapped;
+
+		public StatisticsSSLSocketFactory(SSLSocketFactory sslSocketFactory) {
+			wrapped = sslSocketFactory;
+		}
+
+		// Socket is not wrapped, platform configures TLS extensions using socket's own class
+		private Socket handle(Socket socket, String host) {
+			if (socket instanceof SSLSocket) {
+				obtainConnectionStatistics(host, statistics -> statistics.connectionsCount++);
+				long start = SystemClock.elapsedRealtime();
+				((SSLSocket) socket).addHandshakeCompletedListener(event -> {
+					long time = SystemClock.elapsedRealtime() - start;
+					obtainConnectionStatistics(host, statistics -> {
+						statistics.handshakesCount++;
+						statistics.handshakesTime += time;
+					});
+				});
+			}
+			return socket;
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return wrapped.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return wrapped.getSupportedCipherSuites();
+		}
+
+		@Override
+		public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+			return handle(wrapped.createSocket(s, host, port, autoClose), host);
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return handle(wrapped.createSocket(host, port), host);
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port) throws IOException {
+			return wrapped.createSocket(address, port);
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localAddress, int localPort) throws IOException {
+			return handle(wrapped.createSocket(host, port, localAddress, localPort), host);
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+				throws IOException {
+			return wrapped.createSocket(address, port, localAddress, localPort);
+		}
 	}
 
 	private static class NoSSLv3SSLSocketFactory extends SSLSocketFactory {
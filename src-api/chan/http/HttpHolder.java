@@ -98,6 +98,7 @@ public final class HttpHolder {
 	@Public
 	public void disconnect() {
 		disconnectRequested = true;
+		HttpClient.getInstance().onDisconnectRequested();
 		if (requestThread == Thread.currentThread()) {
 			disconnectAndClear();
 		}
@@ -123,7 +124,7 @@ public final class HttpHolder {
 			throw new HttpClient.DisconnectedIOException();
 		}
 		if (notifyClient) {
-			HttpClient.getInstance().onConnect(chanName, connection, delay);
+			HttpClient.getInstance().onConnect(this, chanName, connection, delay);
 		}
 	}
 
@@ -144,6 +145,10 @@ public final class HttpHolder {
 		return connection;
 	}
 
+	boolean isDisconnectRequested() {
+		return disconnectRequested;
+	}
+
 	void checkDisconnected() throws HttpClient.DisconnectedIOException {
 		checkDisconnected(null);
 	}
@@ -161,6 +166,15 @@ public final class HttpHolder {
 	}
 
 	void disconnectAndClear() {
+		clear(true);
+	}
+
+	// Response body must be fully read and closed, so connection can be returned to pool
+	void releaseAndClear() {
+		clear(false);
+	}
+
+	private void clear(boolean disconnect) {
 		HttpURLConnection connection = this.connection;
 		this.connection = null;
 		Callback callback = this.callback;
@@ -168,7 +182,9 @@ public final class HttpHolder {
 		inputListener = null;
 		outputStream = null;
 		if (connection != null) {
-			connection.disconnect();
+			if (disconnect) {
+				connection.disconnect();
+			}
 			deadConnection = connection;
 			HttpClient.getInstance().onDisconnect(connection);
 		}
@@ -188,6 +204,24 @@ public final class HttpHolder {
 		return response;
 	}
 
+	@Public
+	public HttpResponse readStream() throws HttpException {
+		response = null;
+		return HttpClient.getInstance().readStream(this);
+	}
+
+	// Called from HttpClient when stream response is closed
+	void onStreamClosed(HttpURLConnection connection, boolean release) {
+		if (this.connection == connection) {
+			hasUnreadBody = false;
+			if (release) {
+				releaseAndClear();
+			} else {
+				disconnectAndClear();
+			}
+		}
+	}
+
 	@Public
 	public void checkResponseCode() throws HttpException {
 		HttpClient.getInstance().checkResponseCode(this);
@@ -51,6 +51,11 @@ public final class HttpRequest {
 		public OutputStream getOutputStream();
 	}
 
+	public interface RangePreset extends Preset {
+		public long getRangeStart();
+		public HttpValidator getRangeValidator();
+	}
+
 	public interface OutputListener {
 		public void onOutputProgressChange(long progress, long progressMax);
 	}
@@ -131,6 +136,9 @@ public final class HttpRequest {
 	OutputListener outputListener;
 	OutputStream outputStream;
 
+	long rangeStart;
+	HttpValidator rangeValidator;
+
 	int connectTimeout = 15000;
 	int readTimeout = 15000;
 	int delay = 0;
@@ -162,6 +170,9 @@ public final class HttpRequest {
 		if (preset instanceof OutputStreamPreset) {
 			setOutputStream(((OutputStreamPreset) preset).getOutputStream());
 		}
+		if (preset instanceof RangePreset) {
+			setRange(((RangePreset) preset).getRangeStart(), ((RangePreset) preset).getRangeValidator());
+		}
 	}
 
 	@Public
@@ -265,6 +276,12 @@ public final class HttpRequest {
 		return this;
 	}
 
+	public HttpRequest setRange(long rangeStart, HttpValidator rangeValidator) {
+		this.rangeStart = rangeStart;
+		this.rangeValidator = rangeValidator;
+		return this;
+	}
+
 	private HttpRequest addHeader(Pair<String, String> header) {
 		if (header != null && header.first != null && header.second != null) {
 			if (headers == null) {
@@ -341,6 +358,7 @@ public final class HttpRequest {
 		request.setInputListener(inputListener);
 		request.setOutputListener(outputListener);
 		request.setOutputStream(outputStream);
+		request.setRange(rangeStart, rangeValidator);
 		request.setTimeouts(connectTimeout, readTimeout);
 		request.setDelay(delay);
 		if (headers != null) {
@@ -375,4 +393,18 @@ public final class HttpRequest {
 			throw e;
 		}
 	}
+
+	@Public
+	public HttpResponse readStream() throws HttpException {
+		execute();
+		try {
+			if (requestMethod == REQUEST_METHOD_HEAD) {
+				return null;
+			}
+			return holder.readStream();
+		} catch (HttpException e) {
+			holder.disconnect();
+			throw e;
+		}
+	}
 }
\ No newline at end of file
@@ -16,6 +16,11 @@
 
 package chan.http;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 
 import org.json.JSONArray;
@@ -24,12 +29,17 @@ import org.json.JSONObject;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.util.JsonReader;
 
 import chan.annotation.Public;
 
+import com.mishiranu.dashchan.util.IOUtils;
+
 @Public
 public class HttpResponse {
-	private final byte[] bytes;
+	private byte[] bytes;
+	private InputStream input;
+	private HttpException exception;
 	private String data;
 
 	private String charsetName;
@@ -40,18 +50,71 @@ public class HttpResponse {
 		this.charsetName = "UTF-8";
 	}
 
+	HttpResponse(InputStream input) {
+		this((byte[]) null);
+		this.input = input;
+	}
+
 	@Public
 	public void setEncoding(String charsetName) {
 		this.data = null;
 		this.charsetName = charsetName;
 	}
 
+	// Read failure is kept to be thrown from stream accessors, other getters return null as before
+	private void obtainBytes() {
+		InputStream input = this.input;
+		if (input != null) {
+			this.input = null;
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			try {
+				IOUtils.copyStream(input, output);
+				bytes = output.toByteArray();
+			} catch (IOException e) {
+				exception = HttpClient.getInstance().transformReadException(e);
+			} finally {
+				IOUtils.close(input);
+			}
+		}
+	}
+
 	@Public
 	public byte[] getBytes() {
+		obtainBytes();
 		return bytes;
 	}
 
+	@Public
+	public InputStream getInputStream() throws HttpException {
+		InputStream input = this.input;
+		if (input != null) {
+			this.input = null;
+			return input;
+		}
+		obtainBytes();
+		if (exception != null) {
+			throw exception;
+		}
+		return bytes != null ? new ByteArrayInputStream(bytes) : null;
+	}
+
+	// Reader must be closed to release the connection
+	@Public
+	public JsonReader getJsonReader() throws HttpException {
+		InputStream input = getInputStream();
+		if (input != null) {
+			try {
+				return new JsonReader(new InputStreamReader(input, charsetName));
+			} catch (UnsupportedEncodingException e) {
+				IOUtils.close(input);
+				throw new RuntimeException(e);
+			}
+		}
+		return null;
+	}
+
 	private void obtainString() {
+		obtainBytes();
 		if (data == null && bytes != null) {
 			try {
 				data = new String(bytes, charsetName);
@@ -69,6 +132,10 @@ public class HttpResponse {
 
 	@Public
 	public Bitmap getBitmap() {
+		obtainBytes();
+		if (bytes == null) {
+			return null;
+		}
 		return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
 	}
 
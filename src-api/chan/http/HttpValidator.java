@@ -62,6 +62,17 @@ public final class HttpValidator implements Parcelable, Serializable {
 		}
 	}
 
+	public boolean writeRange(HttpURLConnection connection, long rangeStart) {
+		// Weak entity tags can't be used in If-Range header
+		String ifRange = eTag != null && !eTag.startsWith("W/") ? eTag : lastModified;
+		if (ifRange != null) {
+			connection.setRequestProperty("Range", "bytes=" + rangeStart + "-");
+			connection.setRequestProperty("If-Range", ifRange);
+			return true;
+		}
+		return false;
+	}
+
 	@Override
 	public int describeContents() {
 		return 0;
@@ -79,6 +79,7 @@ public class BackupManager {
 		addFileToMap(files, Preferences.getPreferencesFile(), true);
 		addFileToMap(files, DatabaseHelper.getDatabaseFile(), true);
 		addFileToMap(files, FavoritesStorage.getInstance().getFile(), false);
+		addFileToMap(files, FavoritesStorage.getInstance().getJournalFile(), false);
 		addFileToMap(files, AutohideStorage.getInstance().getFile(), false);
 		addFileToMap(files, StatisticsStorage.getInstance().getFile(), false);
 		return files;
@@ -123,6 +124,8 @@ public class BackupManager {
 		LinkedHashMap<String, Pair<File, Boolean>> files = obtainBackupFiles();
 		ZipInputStream zip = null;
 		boolean success = true;
+		// Journal from the current state must not be applied to restored snapshot
+		FavoritesStorage.getInstance().getJournalFile().delete();
 		try {
 			zip = new ZipInputStream(new FileInputStream(file));
 			ZipEntry entry;
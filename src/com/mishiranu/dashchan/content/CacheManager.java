@@ -16,17 +16,22 @@
 
 package com.mishiranu.dashchan.content;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -37,6 +42,8 @@ import java.util.Locale;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 
+import android.app.ActivityManager;
+import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.Bitmap;
@@ -49,11 +56,16 @@ import android.util.Pair;
 import chan.content.ChanConfiguration;
 import chan.content.ChanManager;
 import chan.content.model.Posts;
+import chan.content.model.PostsCodec;
 import chan.util.StringUtils;
 
+import com.mishiranu.dashchan.C;
+import com.mishiranu.dashchan.content.model.FileHolder;
 import com.mishiranu.dashchan.content.storage.FavoritesStorage;
+import com.mishiranu.dashchan.preference.AdvancedPreferences;
 import com.mishiranu.dashchan.preference.Preferences;
 import com.mishiranu.dashchan.util.AndroidUtils;
+import com.mishiranu.dashchan.util.BitmapLruCache;
 import com.mishiranu.dashchan.util.ConcurrentUtils;
 import com.mishiranu.dashchan.util.IOUtils;
 import com.mishiranu.dashchan.util.Log;
@@ -69,8 +81,18 @@ public class CacheManager implements Runnable {
 
 	private static final float TRIM_FACTOR = 0.3f;
 
+	private static final int MAX_ORIGINAL_THUMBNAIL_SIZE = 50 * 1024;
+
 	private static final String TEMP_PAGE_FILE_PREFIX = "temp_";
 
+	private static final String INDEX_FILE_NAME = "cache-index";
+	private static final int INDEX_MAGIC = 0x44434349; // DCCI
+	private static final int INDEX_VERSION = 1;
+	private static final int INDEX_OPERATION_PUT = 1;
+	private static final int INDEX_OPERATION_REMOVE = 2;
+	private static final int INDEX_FLUSH_DELAY = 2000;
+	private static final int INDEX_MAX_JOURNAL_RECORDS = 5000;
+
 	private static final CacheManager INSTANCE = new CacheManager();
 
 	public static CacheManager getInstance() {
@@ -85,6 +107,7 @@ public class CacheManager implements Runnable {
 		MainApplication.getInstance()
 				.registerReceiver(AndroidUtils.createReceiver((r, c, i) -> syncCache()), intentFilter);
 		new Thread(this, "CacheManagerWorker").start();
+		new Thread(this::handleIndexRecords, "CacheManagerIndexWorker").start();
 	}
 
 	private final LinkedBlockingQueue<CacheItem> cacheItemsToDelete = new LinkedBlockingQueue<>();
@@ -131,10 +154,14 @@ public class CacheManager implements Runnable {
 		public final int type;
 
 		public CacheItem(File file, int type) {
-			name = file.getName();
+			this(file.getName(), type, file.length(), file.lastModified());
+		}
+
+		public CacheItem(String name, int type, long length, long lastModified) {
+			this.name = name;
 			nameLc = name.toLowerCase(Locale.US);
-			length = file.length();
-			lastModified = file.lastModified();
+			this.length = length;
+			this.lastModified = lastModified;
 			this.type = type;
 		}
 
@@ -187,7 +214,7 @@ public class CacheManager implements Runnable {
 			for (File file : files) {
 				CacheItem cacheItem = new CacheItem(file, type);
 				if (type == CacheItem.TYPE_PAGES && cacheItem.name.startsWith(TEMP_PAGE_FILE_PREFIX)) {
-					if (cacheItem.lastModified < System.currentTimeMillis() - OLD_THREADS_THRESHOLD) {
+					if (isOldTempPageFile(cacheItem)) {
 						file.delete();
 					}
 					continue;
@@ -195,6 +222,11 @@ public class CacheManager implements Runnable {
 				cacheItemsList.add(cacheItem);
 			}
 		}
+		return fillCache(cacheItems, cacheItemsList);
+	}
+
+	private long fillCache(LinkedHashMap<String, CacheItem> cacheItems, ArrayList<CacheItem> cacheItemsList) {
+		cacheItems.clear();
 		Collections.sort(cacheItemsList, SORT_BY_DATE_COMPARATOR);
 		long size = 0L;
 		for (CacheItem cacheItem : cacheItemsList) {
@@ -204,28 +236,315 @@ public class CacheManager implements Runnable {
 		return size;
 	}
 
+	private boolean isOldTempPageFile(CacheItem cacheItem) {
+		return cacheItem.lastModified < System.currentTimeMillis() - OLD_THREADS_THRESHOLD;
+	}
+
+	private long reconcileCache(LinkedHashMap<String, CacheItem> cacheItems, File directory, int type,
+			long syncTime) {
+		String[] names = directory != null ? directory.list() : null;
+		if (names == null) {
+			synchronized (cacheItems) {
+				return getCacheSize(type);
+			}
+		}
+		HashMap<String, String> namesLc = new HashMap<>(names.length);
+		for (String name : names) {
+			if (type == CacheItem.TYPE_PAGES && name.startsWith(TEMP_PAGE_FILE_PREFIX)) {
+				File file = new File(directory, name);
+				if (isOldTempPageFile(new CacheItem(file, type))) {
+					file.delete();
+				}
+				continue;
+			}
+			namesLc.put(name.toLowerCase(Locale.US), name);
+		}
+		ArrayList<String> newNames = new ArrayList<>();
+		synchronized (cacheItems) {
+			long lengthDelta = 0L;
+			Iterator<CacheItem> iterator = cacheItems.values().iterator();
+			while (iterator.hasNext()) {
+				CacheItem cacheItem = iterator.next();
+				// Items changed after sync start are handled by cache methods
+				if (namesLc.remove(cacheItem.nameLc) == null && cacheItem.lastModified < syncTime) {
+					iterator.remove();
+					lengthDelta -= cacheItem.length;
+					journalRemove(cacheItem);
+				}
+			}
+			newNames.addAll(namesLc.values());
+			modifyCacheSize(type, lengthDelta);
+		}
+		if (newNames.isEmpty()) {
+			synchronized (cacheItems) {
+				return getCacheSize(type);
+			}
+		}
+		ArrayList<CacheItem> newCacheItems = new ArrayList<>(newNames.size());
+		for (String name : newNames) {
+			File file = new File(directory, name);
+			if (file.exists()) {
+				newCacheItems.add(new CacheItem(file, type));
+			}
+		}
+		synchronized (cacheItems) {
+			ArrayList<CacheItem> cacheItemsList = new ArrayList<>(cacheItems.values());
+			for (CacheItem cacheItem : newCacheItems) {
+				if (!cacheItems.containsKey(cacheItem.nameLc)) {
+					cacheItemsList.add(cacheItem);
+					journalPut(cacheItem);
+				}
+			}
+			return fillCache(cacheItems, cacheItemsList);
+		}
+	}
+
+	private long getCacheSize(int type) {
+		switch (type) {
+			case CacheItem.TYPE_THUMBNAILS: {
+				return thumbnailsCacheSize;
+			}
+			case CacheItem.TYPE_MEDIA: {
+				return mediaCacheSize;
+			}
+			case CacheItem.TYPE_PAGES: {
+				return pagesCacheSize;
+			}
+		}
+		throw new RuntimeException("Unknown cache type");
+	}
+
 	private void syncCache() {
 		final CountDownLatch latch = new CountDownLatch(1);
 		cacheBuildingLatch = latch;
 		new Thread(() -> {
+			long syncTime = System.currentTimeMillis();
+			boolean indexLoaded = false;
 			try {
-				synchronized (thumbnailsCache) {
-					thumbnailsCacheSize = fillCache(thumbnailsCache, getThumbnailsDirectory(),
-							CacheItem.TYPE_THUMBNAILS);
-				}
-				synchronized (mediaCache) {
-					mediaCacheSize = fillCache(mediaCache, getMediaDirectory(), CacheItem.TYPE_MEDIA);
-				}
-				synchronized (pagesCache) {
-					pagesCacheSize = fillCache(pagesCache, getPagesDirectory(), CacheItem.TYPE_PAGES);
+				indexLoaded = loadIndex();
+				if (!indexLoaded) {
+					synchronized (thumbnailsCache) {
+						thumbnailsCacheSize = fillCache(thumbnailsCache, getThumbnailsDirectory(),
+								CacheItem.TYPE_THUMBNAILS);
+					}
+					synchronized (mediaCache) {
+						mediaCacheSize = fillCache(mediaCache, getMediaDirectory(), CacheItem.TYPE_MEDIA);
+					}
+					synchronized (pagesCache) {
+						pagesCacheSize = fillCache(pagesCache, getPagesDirectory(), CacheItem.TYPE_PAGES);
+					}
 				}
-				cleanupAsync(true, true, true);
 			} finally {
 				latch.countDown();
 			}
+			if (indexLoaded) {
+				// Index is available before the directories are listed, so cache can be used immediately
+				reconcileCache(thumbnailsCache, getThumbnailsDirectory(), CacheItem.TYPE_THUMBNAILS, syncTime);
+				reconcileCache(mediaCache, getMediaDirectory(), CacheItem.TYPE_MEDIA, syncTime);
+				reconcileCache(pagesCache, getPagesDirectory(), CacheItem.TYPE_PAGES, syncTime);
+			}
+			requestIndexSnapshot();
+			cleanupAsync(true, true, true);
 		}).start();
 	}
 
+	private File getIndexFile() {
+		File directory = getExternalCacheDirectory();
+		return directory != null ? new File(directory, INDEX_FILE_NAME) : null;
+	}
+
+	private boolean loadIndex() {
+		File file = getIndexFile();
+		if (file == null || !isCacheAvailable() || !file.exists()) {
+			return false;
+		}
+		HashMap<CacheItem, CacheItem> cacheItems = new HashMap<>();
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (input.readInt() != INDEX_MAGIC || input.readInt() != INDEX_VERSION) {
+				return false;
+			}
+			while (true) {
+				int operation = input.read();
+				if (operation == -1) {
+					break;
+				}
+				int type = input.readByte();
+				String name = input.readUTF();
+				if (operation == INDEX_OPERATION_PUT) {
+					long length = input.readLong();
+					long lastModified = input.readLong();
+					CacheItem cacheItem = new CacheItem(name, type, length, lastModified);
+					cacheItems.put(cacheItem, cacheItem);
+				} else if (operation == INDEX_OPERATION_REMOVE) {
+					cacheItems.remove(new CacheItem(name, type, 0L, 0L));
+				} else {
+					return false;
+				}
+			}
+		} catch (EOFException e) {
+			// Last journal record was not written completely, ignore exception
+		} catch (IOException e) {
+			return false;
+		} finally {
+			IOUtils.close(input);
+		}
+		ArrayList<CacheItem> thumbnailsCacheItems = new ArrayList<>();
+		ArrayList<CacheItem> mediaCacheItems = new ArrayList<>();
+		ArrayList<CacheItem> pagesCacheItems = new ArrayList<>();
+		for (CacheItem cacheItem : cacheItems.values()) {
+			switch (cacheItem.type) {
+				case CacheItem.TYPE_THUMBNAILS: {
+					thumbnailsCacheItems.add(cacheItem);
+					break;
+				}
+				case CacheItem.TYPE_MEDIA: {
+					mediaCacheItems.add(cacheItem);
+					break;
+				}
+				case CacheItem.TYPE_PAGES: {
+					pagesCacheItems.add(cacheItem);
+					break;
+				}
+			}
+		}
+		synchronized (thumbnailsCache) {
+			thumbnailsCacheSize = fillCache(thumbnailsCache, thumbnailsCacheItems);
+		}
+		synchronized (mediaCache) {
+			mediaCacheSize = fillCache(mediaCache, mediaCacheItems);
+		}
+		synchronized (pagesCache) {
+			pagesCacheSize = fillCache(pagesCache, pagesCacheItems);
+		}
+		return true;
+	}
+
+	private static class IndexRecord {
+		public final CacheItem cacheItem;
+		public final boolean remove;
+
+		public IndexRecord(CacheItem cacheItem, boolean remove) {
+			this.cacheItem = cacheItem;
+			this.remove = remove;
+		}
+	}
+
+	private final LinkedBlockingQueue<IndexRecord> indexRecords = new LinkedBlockingQueue<>();
+	private int indexJournalRecords = 0;
+
+	private void journalPut(CacheItem cacheItem) {
+		indexRecords.add(new IndexRecord(cacheItem, false));
+	}
+
+	private void journalRemove(CacheItem cacheItem) {
+		indexRecords.add(new IndexRecord(cacheItem, true));
+	}
+
+	private void requestIndexSnapshot() {
+		indexRecords.add(new IndexRecord(null, false));
+	}
+
+	private void handleIndexRecords() {
+		ArrayList<IndexRecord> records = new ArrayList<>();
+		while (true) {
+			try {
+				records.add(indexRecords.take());
+				// Collect records to write them at once
+				Thread.sleep(INDEX_FLUSH_DELAY);
+			} catch (InterruptedException e) {
+				return;
+			}
+			indexRecords.drainTo(records);
+			if (!waitCacheSync() && isCacheAvailable()) {
+				boolean snapshot = indexJournalRecords + records.size() > INDEX_MAX_JOURNAL_RECORDS;
+				if (!snapshot) {
+					for (IndexRecord record : records) {
+						if (record.cacheItem == null) {
+							snapshot = true;
+							break;
+						}
+					}
+				}
+				if (snapshot) {
+					writeIndexSnapshot();
+				} else {
+					appendIndexRecords(records);
+				}
+			}
+			records.clear();
+		}
+	}
+
+	private static void writeIndexRecord(DataOutputStream output, CacheItem cacheItem, boolean remove)
+			throws IOException {
+		output.writeByte(remove ? INDEX_OPERATION_REMOVE : INDEX_OPERATION_PUT);
+		output.writeByte(cacheItem.type);
+		output.writeUTF(cacheItem.name);
+		if (!remove) {
+			output.writeLong(cacheItem.length);
+			output.writeLong(cacheItem.lastModified);
+		}
+	}
+
+	private void appendIndexRecords(ArrayList<IndexRecord> records) {
+		File file = getIndexFile();
+		if (file == null || !file.exists()) {
+			writeIndexSnapshot();
+			return;
+		}
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+			for (IndexRecord record : records) {
+				writeIndexRecord(output, record.cacheItem, record.remove);
+			}
+			output.flush();
+			indexJournalRecords += records.size();
+		} catch (IOException e) {
+			// Index will be rebuilt with the next snapshot
+			file.delete();
+		} finally {
+			IOUtils.close(output);
+		}
+	}
+
+	private void writeIndexSnapshot() {
+		File file = getIndexFile();
+		if (file == null) {
+			return;
+		}
+		ArrayList<CacheItem> cacheItems = new ArrayList<>();
+		for (LinkedHashMap<String, CacheItem> typeCacheItems : Arrays.asList(thumbnailsCache, mediaCache, pagesCache)) {
+			synchronized (typeCacheItems) {
+				cacheItems.addAll(typeCacheItems.values());
+			}
+		}
+		File tempFile = new File(file.getParentFile(), TEMP_PAGE_FILE_PREFIX + INDEX_FILE_NAME);
+		boolean success = false;
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			output.writeInt(INDEX_MAGIC);
+			output.writeInt(INDEX_VERSION);
+			for (CacheItem cacheItem : cacheItems) {
+				writeIndexRecord(output, cacheItem, false);
+			}
+			output.flush();
+			success = true;
+		} catch (IOException e) {
+			// Ignore exception
+		} finally {
+			success &= IOUtils.close(output);
+		}
+		if (success && tempFile.renameTo(file)) {
+			indexJournalRecords = 0;
+		} else {
+			tempFile.delete();
+		}
+	}
+
 	private void cleanupAsync(boolean thumbnails, boolean media, boolean pages) {
 		int maxCache = MAX_THUMBNAILS_PART + MAX_MEDIA_PART + MAX_PAGES_PART;
 		int maxCacheSizeMb = Preferences.getCacheSize();
@@ -283,6 +602,7 @@ public class CacheManager implements Runnable {
 				deleteAmount -= cacheItem.length;
 				size -= cacheItem.length;
 				iterator.remove();
+				journalRemove(cacheItem);
 				cleanupCacheItems.add(cacheItem);
 			}
 		}
@@ -369,6 +689,7 @@ public class CacheManager implements Runnable {
 			if (cacheItem != null && !file.exists()) {
 				cacheItems.remove(cacheItem.nameLc);
 				modifyCacheSize(type, -cacheItem.length);
+				journalRemove(cacheItem);
 				cacheItem = null;
 			}
 			return cacheItem != null;
@@ -389,8 +710,10 @@ public class CacheManager implements Runnable {
 					file.setLastModified(lastModified);
 					cacheItem.lastModified = lastModified;
 					cacheItems.put(fileNameLc, cacheItem);
+					journalPut(cacheItem);
 				} else {
 					modifyCacheSize(type, -cacheItem.length);
+					journalRemove(cacheItem);
 				}
 			}
 		}
@@ -406,11 +729,15 @@ public class CacheManager implements Runnable {
 			CacheItem cacheItem = cacheItems.remove(fileName.toLowerCase(Locale.US));
 			if (cacheItem != null) {
 				lengthDelta = -cacheItem.length;
+				if (!success) {
+					journalRemove(cacheItem);
+				}
 			}
 			if (success) {
 				cacheItem = new CacheItem(file, type);
 				cacheItems.put(cacheItem.nameLc, cacheItem);
 				lengthDelta += cacheItem.length;
+				journalPut(cacheItem);
 			}
 			modifyCacheSize(type, lengthDelta);
 			if (success) {
@@ -489,6 +816,7 @@ public class CacheManager implements Runnable {
 				iterator.remove();
 			}
 		}
+		requestIndexSnapshot();
 		return deleted;
 	}
 
@@ -589,28 +917,31 @@ public class CacheManager implements Runnable {
 		}
 	}
 
-	private final LruCache<String, Bitmap> bitmapCache = new LruCache<>(MainApplication.getInstance().isLowRam()
-			? 50 : 200);
+	private final BitmapLruCache bitmapCache = new BitmapLruCache(obtainBitmapCacheSize());
+
+	private static long obtainBitmapCacheSize() {
+		MainApplication application = MainApplication.getInstance();
+		ActivityManager activityManager = (ActivityManager) application.getSystemService(Context.ACTIVITY_SERVICE);
+		int memoryClass = activityManager != null ? activityManager.getMemoryClass() : 16;
+		return memoryClass * 1024L * 1024L / (application.isLowRam() ? 16 : 8);
+	}
 
 	public boolean isThumbnailCachedMemory(String thumbnailKey) {
-		synchronized (bitmapCache) {
-			return bitmapCache.get(thumbnailKey) != null;
-		}
+		return bitmapCache.contains(thumbnailKey);
 	}
 
 	public Bitmap loadThumbnailMemory(String thumbnailKey) {
-		synchronized (bitmapCache) {
-			return bitmapCache.get(thumbnailKey);
-		}
+		return bitmapCache.get(thumbnailKey);
 	}
 
 	public void storeThumbnailMemory(String thumbnailKey, Bitmap data) {
-		synchronized (bitmapCache) {
-			if (isThumbnailCachedMemory(thumbnailKey)) {
-				return;
-			}
-			bitmapCache.put(thumbnailKey, data);
-		}
+		bitmapCache.putIfAbsent(thumbnailKey, data);
+	}
+
+	public void writeThumbnailsMemoryStatistics() {
+		Log.persistent().write(Log.DISABLE_QUOTES, "Thumbnails memory cache statistics:",
+				"hits:", bitmapCache.getHitCount(), "misses:", bitmapCache.getMissCount(),
+				"evictions:", bitmapCache.getEvictionCount(), "size:", bitmapCache.getSize());
 	}
 
 	public File getThumbnailFile(String thumbnailKey) {
@@ -650,7 +981,30 @@ public class CacheManager implements Runnable {
 		}
 	}
 
-	public void storeThumbnailExternal(String thumbnailKey, Bitmap data) {
+	private static Bitmap.CompressFormat getThumbnailCompressFormat(Bitmap bitmap) {
+		String format = AdvancedPreferences.getThumbnailsFormat();
+		if ("png".equals(format)) {
+			return Bitmap.CompressFormat.PNG;
+		} else if ("jpeg".equals(format) && !bitmap.hasAlpha()) {
+			return Bitmap.CompressFormat.JPEG;
+		} else if (C.API_JELLY_BEAN_MR1) {
+			// Lossy WebP with transparency can be decoded since Android 4.2
+			return Bitmap.CompressFormat.WEBP;
+		} else {
+			return bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+		}
+	}
+
+	private static boolean isOriginalThumbnailAllowed(byte[] originalData) {
+		if (originalData != null && originalData.length <= MAX_ORIGINAL_THUMBNAIL_SIZE) {
+			FileHolder.ImageType imageType = FileHolder.getImageType(originalData);
+			return imageType == FileHolder.ImageType.IMAGE_JPEG ||
+					imageType == FileHolder.ImageType.IMAGE_WEBP && C.API_JELLY_BEAN_MR1;
+		}
+		return false;
+	}
+
+	public void storeThumbnailExternal(String thumbnailKey, Bitmap data, byte[] originalData) {
 		if (!isCacheAvailable()) {
 			return;
 		}
@@ -663,7 +1017,14 @@ public class CacheManager implements Runnable {
 		File file = new File(directory, thumbnailKey);
 		try {
 			outputStream = new FileOutputStream(file);
-			data.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+			if (isOriginalThumbnailAllowed(originalData)) {
+				// Downloaded thumbnail is already small and compressed, so it's stored without encoding
+				outputStream.write(originalData);
+			} else {
+				Bitmap.CompressFormat format = getThumbnailCompressFormat(data);
+				int quality = format == Bitmap.CompressFormat.PNG ? 100 : AdvancedPreferences.getThumbnailsQuality();
+				data.compress(format, quality, outputStream);
+			}
 			success = true;
 		} catch (IOException e) {
 			// Ignore exception
@@ -718,7 +1079,7 @@ public class CacheManager implements Runnable {
 
 	private final HashMap<String, SerializePageCallback> serializePageCallbacks = new HashMap<>();
 
-	private void serializePage(String fileName, Object object) {
+	private void serializePage(String fileName, Posts posts) {
 		if (!isCacheAvailable()) {
 			return;
 		}
@@ -734,7 +1095,7 @@ public class CacheManager implements Runnable {
 		if (callback != null) {
 			callback.cancel();
 		}
-		callback = new SerializePageCallback(file, tempFile, fileName, object);
+		callback = new SerializePageCallback(file, tempFile, fileName, posts);
 		synchronized (serializePageCallbacks) {
 			serializePageCallbacks.put(fileName, callback);
 		}
@@ -742,7 +1103,7 @@ public class CacheManager implements Runnable {
 		handleSerializationQueue(false);
 	}
 
-	private Object deserializePage(String fileName, SerializationHolder holder) {
+	private Posts deserializePage(String fileName, SerializationHolder holder) {
 		if (!isCacheAvailable()) {
 			return null;
 		}
@@ -753,7 +1114,7 @@ public class CacheManager implements Runnable {
 		synchronized (serializePageCallbacks) {
 			SerializePageCallback callback = serializePageCallbacks.get(fileName);
 			if (callback != null) {
-				return callback.object;
+				return callback.posts;
 			}
 		}
 		synchronized (obtainPageFileLock(fileName)) {
@@ -766,13 +1127,32 @@ public class CacheManager implements Runnable {
 					validateNewCachedFile(file, fileName, CacheItem.TYPE_PAGES, true);
 				}
 			}
-			ObjectInputStream objectInputStream = null;
+			InputStream inputStream = null;
 			try {
 				FileInputStream fileInputStream = new FileInputStream(file);
 				holder.setCloseable(fileInputStream);
-				objectInputStream = new ObjectInputStream(fileInputStream);
-				Object result = objectInputStream.readObject();
+				inputStream = new BufferedInputStream(fileInputStream);
+				inputStream.mark(2);
+				byte[] header = new byte[2];
+				int count = IOUtils.readExactly(inputStream, header, 0, header.length);
+				inputStream.reset();
+				Posts result;
+				boolean legacy = PostsCodec.isLegacyHeader(header, count);
+				if (legacy) {
+					// Old java serialization format, will be rewritten using new format
+					Object object = new ObjectInputStream(inputStream).readObject();
+					result = object instanceof Posts ? (Posts) object : null;
+				} else {
+					PostsCodec.Journal journal = new PostsCodec.Journal();
+					result = PostsCodec.read(inputStream, journal);
+					synchronized (pageJournals) {
+						pageJournals.put(fileName, journal);
+					}
+				}
 				updateCachedFileLastModified(file, fileName, CacheItem.TYPE_PAGES);
+				if (legacy && result != null) {
+					serializePage(fileName, result);
+				}
 				return result;
 			} catch (FileNotFoundException e) {
 				// File not exist, ignore exception
@@ -781,7 +1161,7 @@ public class CacheManager implements Runnable {
 					Log.persistent().stack(e);
 				}
 			} finally {
-				IOUtils.close(objectInputStream);
+				IOUtils.close(inputStream);
 			}
 			return null;
 		}
@@ -789,6 +1169,9 @@ public class CacheManager implements Runnable {
 
 	private final HashMap<String, Object> pageFileLocks = new HashMap<>();
 
+	// Page files state used to append changed posts instead of rewriting the whole file
+	private final LruCache<String, PostsCodec.Journal> pageJournals = new LruCache<>(10);
+
 	private Object obtainPageFileLock(String fileName) {
 		synchronized (pageFileLocks) {
 			Object object = pageFileLocks.get(fileName);
@@ -804,14 +1187,14 @@ public class CacheManager implements Runnable {
 		private final File file;
 		private final File tempFile;
 		private final String fileName;
-		private final Object object;
+		private final Posts posts;
 		private final SerializationHolder holder = new SerializationHolder();
 
-		public SerializePageCallback(File file, File tempFile, String fileName, Object object) {
+		public SerializePageCallback(File file, File tempFile, String fileName, Posts posts) {
 			this.file = file;
 			this.tempFile = tempFile;
 			this.fileName = fileName;
-			this.object = object;
+			this.posts = posts;
 		}
 
 		@Override
@@ -820,44 +1203,118 @@ public class CacheManager implements Runnable {
 				if (holder.cancelled) {
 					return;
 				}
-				if (file.exists() && (!tempFile.exists() || !tempFile.delete()) && !file.renameTo(tempFile)) {
-					Log.persistent().write(Log.TYPE_ERROR, Log.DISABLE_QUOTES,
-							"Can't create backup of", file.getName());
-					return;
+				PostsCodec.Journal journal;
+				synchronized (pageJournals) {
+					journal = pageJournals.remove(fileName);
 				}
-				boolean success = false;
-				FileOutputStream outputStream = null;
-				try {
-					outputStream = new FileOutputStream(file);
-					ObjectOutputStream objectOutputStream = new ObjectOutputStream
-							(new BufferedOutputStream(outputStream));
-					holder.setCloseable(objectOutputStream);
-					objectOutputStream.writeObject(object);
-					objectOutputStream.flush();
-					outputStream.getFD().sync();
-					success = true;
-				} catch (IOException e) {
-					Log.persistent().write(e);
-				} finally {
-					success &= IOUtils.close(outputStream);
-					if (success) {
-						if (tempFile.exists() && !tempFile.delete()) {
-							Log.persistent().write(Log.TYPE_ERROR, Log.DISABLE_QUOTES,
-									"Can't delete temp file", tempFile.getName());
-						}
-						validateNewCachedFile(file, fileName, CacheItem.TYPE_PAGES, true);
-					} else {
-						file.delete();
-						tempFile.renameTo(file);
+				if (journal == null) {
+					journal = readJournal();
+				}
+				// Rewrite the whole file when appended records become too large
+				if (journal != null && !journal.isCompactionRequired() && appendDelta(journal)) {
+					synchronized (pageJournals) {
+						pageJournals.put(fileName, journal);
 					}
 					synchronized (serializePageCallbacks) {
 						serializePageCallbacks.remove(fileName);
 					}
 					handleSerializationQueue(true);
+				} else if (!holder.cancelled) {
+					writeSnapshot();
 				}
 			}
 		}
 
+		// Restores journal from file when it was evicted from memory or after restart
+		private PostsCodec.Journal readJournal() {
+			if (holder.cancelled || tempFile.exists() || !file.exists()) {
+				return null;
+			}
+			InputStream inputStream = null;
+			try {
+				FileInputStream fileInputStream = new FileInputStream(file);
+				holder.setCloseable(fileInputStream);
+				inputStream = new BufferedInputStream(fileInputStream);
+				PostsCodec.Journal journal = new PostsCodec.Journal();
+				PostsCodec.read(inputStream, journal);
+				return journal;
+			} catch (IOException e) {
+				// Legacy or corrupted file, will be rewritten
+				return null;
+			} finally {
+				IOUtils.close(inputStream);
+			}
+		}
+
+		private boolean appendDelta(PostsCodec.Journal journal) {
+			if (tempFile.exists() || file.length() != journal.getLength()) {
+				return false;
+			}
+			boolean success = false;
+			boolean written = false;
+			FileOutputStream outputStream = null;
+			try {
+				outputStream = new FileOutputStream(file, true);
+				BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outputStream);
+				holder.setCloseable(bufferedOutputStream);
+				written = PostsCodec.writeDelta(posts, journal, bufferedOutputStream);
+				if (written) {
+					bufferedOutputStream.flush();
+					outputStream.getFD().sync();
+				}
+				success = true;
+			} catch (IOException e) {
+				Log.persistent().write(e);
+			} finally {
+				success &= IOUtils.close(outputStream);
+			}
+			if (success && written) {
+				validateNewCachedFile(file, fileName, CacheItem.TYPE_PAGES, true);
+			}
+			return success;
+		}
+
+		private void writeSnapshot() {
+			if (file.exists() && (!tempFile.exists() || !tempFile.delete()) && !file.renameTo(tempFile)) {
+				Log.persistent().write(Log.TYPE_ERROR, Log.DISABLE_QUOTES,
+						"Can't create backup of", file.getName());
+				return;
+			}
+			boolean success = false;
+			PostsCodec.Journal journal = null;
+			FileOutputStream outputStream = null;
+			try {
+				outputStream = new FileOutputStream(file);
+				BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outputStream);
+				holder.setCloseable(bufferedOutputStream);
+				journal = PostsCodec.write(posts, bufferedOutputStream);
+				bufferedOutputStream.flush();
+				outputStream.getFD().sync();
+				success = true;
+			} catch (IOException e) {
+				Log.persistent().write(e);
+			} finally {
+				success &= IOUtils.close(outputStream);
+				if (success) {
+					if (tempFile.exists() && !tempFile.delete()) {
+						Log.persistent().write(Log.TYPE_ERROR, Log.DISABLE_QUOTES,
+								"Can't delete temp file", tempFile.getName());
+					}
+					synchronized (pageJournals) {
+						pageJournals.put(fileName, journal);
+					}
+					validateNewCachedFile(file, fileName, CacheItem.TYPE_PAGES, true);
+				} else {
+					file.delete();
+					tempFile.renameTo(file);
+				}
+				synchronized (serializePageCallbacks) {
+					serializePageCallbacks.remove(fileName);
+				}
+				handleSerializationQueue(true);
+			}
+		}
+
 		public void cancel() {
 			holder.cancel();
 			synchronized (obtainPageFileLock(fileName)) {
@@ -879,6 +1336,10 @@ public class CacheManager implements Runnable {
 		}
 		synchronized (obtainPageFileLock(fromFile.getName())) {
 			synchronized (obtainPageFileLock(toFile.getName())) {
+				synchronized (pageJournals) {
+					pageJournals.remove(fromFileName);
+					pageJournals.remove(toFileName);
+				}
 				if (fromFile.exists() && !toFile.exists()) {
 					toTempFile.delete();
 					fromFile.renameTo(toFile);
@@ -894,7 +1355,7 @@ public class CacheManager implements Runnable {
 		return !ChanConfiguration.get(chanName).getOption(ChanConfiguration.OPTION_HIDDEN_DISABLE_SERIALIZATION);
 	}
 
-	public void serializePosts(String chanName, String boardName, String threadNumber, Object posts) {
+	public void serializePosts(String chanName, String boardName, String threadNumber, Posts posts) {
 		if (allowPagesCache(chanName)) {
 			serializePage(getPostsFileName(chanName, boardName, threadNumber), posts);
 		}
@@ -902,11 +1363,7 @@ public class CacheManager implements Runnable {
 
 	public Posts deserializePosts(String chanName, String boardName, String threadNumber, SerializationHolder holder) {
 		if (allowPagesCache(chanName)) {
-			try {
-				return (Posts) deserializePage(getPostsFileName(chanName, boardName, threadNumber), holder);
-			} catch (ClassCastException e) {
-				return null;
-			}
+			return deserializePage(getPostsFileName(chanName, boardName, threadNumber), holder);
 		} else {
 			return null;
 		}
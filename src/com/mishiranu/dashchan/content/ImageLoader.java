@@ -38,6 +38,7 @@ import chan.content.ExtensionException;
 import chan.http.HttpException;
 import chan.http.HttpHolder;
 import chan.http.HttpRequest;
+import chan.http.HttpResponse;
 import chan.util.StringUtils;
 
 import com.mishiranu.dashchan.content.async.HttpHolderTask;
@@ -117,6 +118,7 @@ public class ImageLoader {
 			boolean dataScheme = "data".equals(scheme);
 			boolean storeExternal = !chanScheme && !dataScheme;
 			Bitmap bitmap = null;
+			byte[] originalData = null;
 			try {
 				bitmap = storeExternal ? cacheManager.loadThumbnailExternal(key) : null;
 				synchronized (this) {
@@ -181,29 +183,32 @@ public class ImageLoader {
 						}
 						int connectTimeout = 10000;
 						int readTimeout = 5000;
+						HttpResponse response;
 						if (chanName != null) {
 							ChanPerformer performer = ChanPerformer.get(chanName);
 							try {
 								ChanPerformer.ReadContentResult result = performer.safe()
 										.onReadContent(new ChanPerformer.ReadContentData(uri, connectTimeout,
 										readTimeout, holder, null, null));
-								bitmap = result != null && result.response != null ? result.response.getBitmap() : null;
+								response = result != null ? result.response : null;
 							} catch (ExtensionException e) {
 								e.getErrorItemAndHandle();
 								return null;
 							}
 						} else {
-							bitmap = new HttpRequest(uri, holder).setTimeouts(connectTimeout, readTimeout)
-									.read().getBitmap();
+							response = new HttpRequest(uri, holder).setTimeouts(connectTimeout, readTimeout).read();
 						}
+						bitmap = response != null ? response.getBitmap() : null;
+						originalData = response != null ? response.getBytes() : null;
 					}
 					if (isCancelled()) {
 						return null;
 					}
+					Bitmap decodedBitmap = bitmap;
 					bitmap = GraphicsUtils.reduceThumbnailSize(MainApplication.getInstance().getResources(), bitmap);
 					cacheManager.storeThumbnailMemory(key, bitmap);
 					if (storeExternal) {
-						cacheManager.storeThumbnailExternal(key, bitmap);
+						cacheManager.storeThumbnailExternal(key, bitmap, bitmap == decodedBitmap ? originalData : null);
 					}
 				}
 			} catch (HttpException e) {
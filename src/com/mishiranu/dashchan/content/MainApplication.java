@@ -56,6 +56,15 @@ public class MainApplication extends Application {
 		LocaleManager.getInstance().apply(this, true);
 	}
 
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		if (level == TRIM_MEMORY_UI_HIDDEN) {
+			CacheManager.getInstance().writeThumbnailsMemoryStatistics();
+			HttpClient.getInstance().writeConnectionStatistics();
+		}
+	}
+
 	public static MainApplication getInstance() {
 		return instance;
 	}
@@ -21,6 +21,7 @@ import chan.content.model.Posts;
 
 import com.mishiranu.dashchan.content.CacheManager;
 import com.mishiranu.dashchan.content.model.PostItem;
+import com.mishiranu.dashchan.content.model.PostItemPreloader;
 
 import java.util.ArrayList;
 
@@ -67,6 +68,7 @@ public class DeserializePostsTask extends CancellableTask<Void, Void, Boolean> {
 		for (Post post : posts) {
 			postItems.add(new PostItem(post, chanName, boardName));
 		}
+		PostItemPreloader.preload(postItems);
 		return true;
 	}
 
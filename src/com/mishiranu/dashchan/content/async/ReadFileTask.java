@@ -16,13 +16,13 @@
 
 package com.mishiranu.dashchan.content.async;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 
 import android.content.Context;
 import android.net.Uri;
@@ -35,6 +35,8 @@ import chan.http.HttpClient;
 import chan.http.HttpException;
 import chan.http.HttpHolder;
 import chan.http.HttpRequest;
+import chan.http.HttpResponse;
+import chan.http.HttpValidator;
 
 import com.mishiranu.dashchan.content.CacheManager;
 import com.mishiranu.dashchan.content.model.ErrorItem;
@@ -42,6 +44,8 @@ import com.mishiranu.dashchan.content.net.EmbeddedManager;
 import com.mishiranu.dashchan.util.IOUtils;
 
 public class ReadFileTask extends HttpHolderTask<String, Long, Boolean> {
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
 	public interface Callback {
 		public void onFileExists(Uri uri, File file);
 		public void onStartDownloading(Uri uri, File file);
@@ -65,6 +69,9 @@ public class ReadFileTask extends HttpHolderTask<String, Long, Boolean> {
 	private final File toFile;
 	private final File cachedMediaFile;
 	private final boolean overwrite;
+	private final boolean resumable;
+
+	private volatile HttpValidator validator;
 
 	private ErrorItem errorItem;
 
@@ -78,6 +85,11 @@ public class ReadFileTask extends HttpHolderTask<String, Long, Boolean> {
 	};
 
 	public ReadFileTask(Context context, String chanName, Uri from, File to, boolean overwrite, Callback callback) {
+		this(context, chanName, from, to, overwrite, false, null, callback);
+	}
+
+	public ReadFileTask(Context context, String chanName, Uri from, File to, boolean overwrite, boolean resumable,
+			HttpValidator validator, Callback callback) {
 		this.context = context.getApplicationContext();
 		this.chanName = chanName;
 		this.callback = callback;
@@ -90,6 +102,8 @@ public class ReadFileTask extends HttpHolderTask<String, Long, Boolean> {
 		}
 		this.cachedMediaFile = cachedMediaFile;
 		this.overwrite = overwrite;
+		this.resumable = resumable;
+		this.validator = validator;
 	}
 
 	@Override
@@ -121,30 +135,29 @@ public class ReadFileTask extends HttpHolderTask<String, Long, Boolean> {
 			} else {
 				Uri uri = fromUri;
 				uri = EmbeddedManager.getInstance().doReadRealUri(uri, holder);
-				final int connectTimeout = 15000, readTimeout = 15000;
-				byte[] response;
 				String chanName = this.chanName;
 				if (chanName == null) {
 					chanName = ChanManager.getInstance().getChanNameByHost(uri.getAuthority());
 				}
-				if (chanName != null) {
-					ChanPerformer.ReadContentResult result = ChanPerformer.get(chanName).safe()
-							.onReadContent(new ChanPerformer.ReadContentData (uri, connectTimeout, readTimeout,
-							holder, progressHandler, null));
-					response = result.response.getBytes();
-				} else {
-					response = new HttpRequest(uri, holder).setTimeouts(connectTimeout, readTimeout)
-							.setInputListener(progressHandler).read().getBytes();
-				}
-				ByteArrayInputStream input = new ByteArrayInputStream(response);
-				OutputStream output = null;
+				long rangeStart = resumable && validator != null && toFile.isFile() ? toFile.length() : 0L;
 				boolean success = false;
 				try {
-					output = IOUtils.openOutputStream(context, toFile);
-					IOUtils.copyStream(input, output);
+					try {
+						readFile(holder, uri, chanName, rangeStart);
+					} catch (HttpException e) {
+						if (rangeStart > 0L && e.getResponseCode() == HTTP_RANGE_NOT_SATISFIABLE) {
+							// Partial file doesn't match remote file, download it from the beginning
+							readFile(holder, uri, chanName, 0L);
+						} else {
+							throw e;
+						}
+					}
 					success = true;
 				} finally {
-					IOUtils.close(output);
+					// Cancelled download is never resumed
+					if (!success && (isCancelled() || !isResumable())) {
+						toFile.delete();
+					}
 					CacheManager.getInstance().handleDownloadedFile(toFile, success);
 				}
 			}
@@ -172,6 +185,123 @@ public class ReadFileTask extends HttpHolderTask<String, Long, Boolean> {
 		}
 	}
 
+	private void readFile(HttpHolder holder, Uri uri, String chanName, long rangeStart) throws ExtensionException,
+			HttpException, InvalidResponseException, IOException {
+		final int connectTimeout = 15000, readTimeout = 15000;
+		HttpValidator rangeValidator = rangeStart > 0L ? validator : null;
+		WriteOutputStream output = new WriteOutputStream(holder, rangeStart);
+		HttpHolder.InputListener listener = (progress, progressMax) -> {
+			// Content length of partial response doesn't include already downloaded bytes
+			long offset = output.getAppendOffset();
+			progressHandler.onInputProgressChange(progress + offset, progressMax > 0 ? progressMax + offset
+					: progressMax);
+		};
+		try {
+			// Response is written directly to output stream, HttpResponse will be null in this case
+			HttpResponse response;
+			if (chanName != null) {
+				ChanPerformer.ReadContentResult result = ChanPerformer.get(chanName).safe()
+						.onReadContent(new ChanPerformer.ReadContentData(uri, connectTimeout, readTimeout,
+						holder, listener, output, rangeStart, rangeValidator));
+				response = result != null ? result.response : null;
+			} else {
+				response = new HttpRequest(uri, holder).setTimeouts(connectTimeout, readTimeout)
+						.setInputListener(listener).setOutputStream(output).setRange(rangeStart, rangeValidator)
+						.read();
+			}
+			if (response != null) {
+				// Extension has read the response by itself
+				byte[] data = response.getBytes();
+				if (data == null) {
+					throw new InvalidResponseException();
+				}
+				output.write(data);
+			}
+			output.finish();
+		} catch (HttpException e) {
+			IOException writeException = output.writeException;
+			if (writeException != null) {
+				throw writeException;
+			}
+			throw e;
+		} finally {
+			IOUtils.close(output);
+		}
+	}
+
+	private class WriteOutputStream extends OutputStream {
+		private final HttpHolder holder;
+		private final long rangeStart;
+
+		private boolean resolved = false;
+		private long appendOffset;
+		private OutputStream output;
+
+		public IOException writeException;
+
+		public WriteOutputStream(HttpHolder holder, long rangeStart) {
+			this.holder = holder;
+			this.rangeStart = rangeStart;
+		}
+
+		public long getAppendOffset() {
+			if (!resolved) {
+				resolved = true;
+				boolean append = rangeStart > 0L && holder.getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+				appendOffset = append ? rangeStart : 0L;
+				validator = holder.getValidator();
+			}
+			return appendOffset;
+		}
+
+		private OutputStream getOutput() throws IOException {
+			if (output == null) {
+				try {
+					output = IOUtils.openOutputStream(context, toFile, getAppendOffset() > 0L);
+				} catch (IOException e) {
+					writeException = e;
+					throw e;
+				}
+			}
+			return output;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			OutputStream output = getOutput();
+			try {
+				output.write(b);
+			} catch (IOException e) {
+				writeException = e;
+				throw e;
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			OutputStream output = getOutput();
+			try {
+				output.write(b, off, len);
+			} catch (IOException e) {
+				writeException = e;
+				throw e;
+			}
+		}
+
+		public void finish() throws IOException {
+			// Ensure file is created even if response is empty
+			getOutput();
+			close();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (output != null) {
+				output.close();
+			}
+		}
+	}
+
 	@Override
 	public void onPostExecute(Boolean success) {
 		callback.onFinishDownloading(success, fromUri, toFile, errorItem);
@@ -190,6 +320,14 @@ public class ReadFileTask extends HttpHolderTask<String, Long, Boolean> {
 		return toFile.getName();
 	}
 
+	public HttpValidator getValidator() {
+		return validator;
+	}
+
+	public boolean isResumable() {
+		return resumable && validator != null && toFile.length() > 0L;
+	}
+
 	@Override
 	public void cancel() {
 		super.cancel();
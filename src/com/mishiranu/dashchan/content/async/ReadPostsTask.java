@@ -42,6 +42,7 @@ import chan.util.StringUtils;
 
 import com.mishiranu.dashchan.content.model.ErrorItem;
 import com.mishiranu.dashchan.content.model.PostItem;
+import com.mishiranu.dashchan.content.model.PostItemPreloader;
 import com.mishiranu.dashchan.content.net.YouTubeTitlesReader;
 import com.mishiranu.dashchan.preference.Preferences;
 import com.mishiranu.dashchan.text.HtmlParser;
@@ -226,11 +227,14 @@ public class ReadPostsTask extends HttpHolderTask<Void, Void, Boolean> {
 					for (Patch patch : handleResult.patches) {
 						handlePosts.add(patch.newPost);
 					}
-					YouTubeTitlesReader.getInstance().readAndApplyIfNecessary(handlePosts, holder);
+					YouTubeTitlesReader.getInstance().applyCachedIfNecessary(handlePosts);
 				}
+				ArrayList<PostItem> postItems = new ArrayList<>(handleResult.patches.size());
 				for (Patch patch : handleResult.patches) {
 					patch.postItem = new PostItem(patch.newPost, chanName, boardName);
+					postItems.add(patch.postItem);
 				}
+				PostItemPreloader.preload(postItems);
 				callback.onRequestPreloadPosts(handleResult.patches, cachedPosts != null ? cachedPosts.length() : 0);
 				if (validator == null) {
 					validator = holder.getValidator();
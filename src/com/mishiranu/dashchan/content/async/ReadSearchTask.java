@@ -34,6 +34,7 @@ import chan.http.HttpHolder;
 
 import com.mishiranu.dashchan.content.model.ErrorItem;
 import com.mishiranu.dashchan.content.model.PostItem;
+import com.mishiranu.dashchan.content.model.PostItemPreloader;
 import com.mishiranu.dashchan.content.net.YouTubeTitlesReader;
 import com.mishiranu.dashchan.text.HtmlParser;
 
@@ -112,14 +113,14 @@ public class ReadSearchTask extends HttpHolderTask<Void, Void, ArrayList<PostIte
 			}
 			if (posts.size() > 0) {
 				Collections.sort(posts, this);
-				YouTubeTitlesReader.getInstance().readAndApplyIfNecessary(posts, holder);
+				YouTubeTitlesReader.getInstance().readAndApplyIfNecessary(posts);
 				ArrayList<PostItem> postItems = new ArrayList<>(posts.size());
 				for (int i = 0; i < posts.size() && !Thread.interrupted(); i++) {
 					PostItem postItem = new PostItem(posts.get(i), chanName, boardName);
 					postItem.setOrdinalIndex(i);
-					postItem.preload();
 					postItems.add(postItem);
 				}
+				PostItemPreloader.preload(postItems);
 				return postItems;
 			}
 			return null;
@@ -60,7 +60,7 @@ public class ReadSinglePostTask extends HttpHolderTask<Void, Void, PostItem> {
 			ChanPerformer.ReadSinglePostResult result = performer.safe().onReadSinglePost(new ChanPerformer
 					.ReadSinglePostData(boardName, postNumber, holder));
 			Post post = result != null ? result.post : null;
-			YouTubeTitlesReader.getInstance().readAndApplyIfNecessary(Collections.singletonList(post), holder);
+			YouTubeTitlesReader.getInstance().readAndApplyIfNecessary(Collections.singletonList(post));
 			startTime = 0L;
 			return new PostItem(post, chanName, boardName);
 		} catch (HttpException e) {
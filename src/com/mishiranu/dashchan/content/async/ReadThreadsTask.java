@@ -35,6 +35,7 @@ import chan.util.StringUtils;
 import com.mishiranu.dashchan.content.model.ErrorItem;
 import com.mishiranu.dashchan.content.model.PostItem;
 import com.mishiranu.dashchan.content.net.YouTubeTitlesReader;
+import com.mishiranu.dashchan.content.storage.HiddenThreadsDatabase;
 import com.mishiranu.dashchan.util.Log;
 
 public class ReadThreadsTask extends HttpHolderTask<Void, Void, Boolean> {
@@ -104,7 +105,7 @@ public class ReadThreadsTask extends HttpHolderTask<Void, Void, Boolean> {
 						Collections.addAll(posts, postsArray);
 					}
 				}
-				YouTubeTitlesReader.getInstance().readAndApplyIfNecessary(posts, holder);
+				YouTubeTitlesReader.getInstance().readAndApplyIfNecessary(posts);
 				for (Posts thread : threadsArray) {
 					Post[] postsArray = thread.getPosts();
 					if (postsArray != null && postsArray.length > 0) {
@@ -114,6 +115,13 @@ public class ReadThreadsTask extends HttpHolderTask<Void, Void, Boolean> {
 						postItems.add(new PostItem(thread, chanName, boardName));
 					}
 				}
+				if (postItems != null) {
+					ArrayList<String> threadNumbers = new ArrayList<>(postItems.size());
+					for (PostItem postItem : postItems) {
+						threadNumbers.add(postItem.getThreadNumber());
+					}
+					HiddenThreadsDatabase.getInstance().preload(chanName, boardName, threadNumbers);
+				}
 			}
 			if (validator == null) {
 				validator = holder.getValidator();
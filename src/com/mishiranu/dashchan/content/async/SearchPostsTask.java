@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014-2016 Fukurou Mishiranu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mishiranu.dashchan.content.async;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+import com.mishiranu.dashchan.content.model.PostItem;
+import com.mishiranu.dashchan.content.model.PostsSearchIndex;
+
+public class SearchPostsTask extends CancellableTask<Void, String, Void> {
+	private static final int PUBLISH_COUNT = 20;
+
+	private final Callback callback;
+	private final PostsSearchIndex index;
+	private final List<PostItem> postItems;
+	private final int[] positions;
+	private final List<String> included;
+	private final List<String> excluded;
+	private final Locale locale;
+
+	public interface Callback {
+		public void onSearchPostsFound(String[] postNumbers);
+		public void onSearchPostsComplete();
+	}
+
+	// Index is not thread safe, so all tasks with the same index must be executed on the same single thread executor.
+	// Only items at positions are checked, other items are used to keep the index up to date.
+	// Found posts are published as post numbers, because adapter positions can change during search.
+	public SearchPostsTask(Callback callback, PostsSearchIndex index, List<PostItem> postItems, int[] positions,
+			List<String> included, List<String> excluded, Locale locale) {
+		this.callback = callback;
+		this.index = index;
+		this.postItems = postItems;
+		this.positions = positions;
+		this.included = included;
+		this.excluded = excluded;
+		this.locale = locale;
+	}
+
+	@Override
+	protected Void doInBackground(Void... params) {
+		index.update(postItems, locale);
+		BitSet found = included != null ? index.find(included) : null;
+		ArrayList<String> result = new ArrayList<>();
+		OUTER: for (int position : positions) {
+			if (isCancelled()) {
+				return null;
+			}
+			PostItem postItem = postItems.get(position);
+			PostsSearchIndex.Entry entry = index.get(postItem);
+			if (found != null && !PostsSearchIndex.isFound(found, entry)) {
+				continue;
+			}
+			for (String lowQuery : excluded) {
+				if (entry.containsInComment(lowQuery)) {
+					continue OUTER;
+				}
+			}
+			result.add(postItem.getPostNumber());
+			if (result.size() >= PUBLISH_COUNT) {
+				publishProgress(result.toArray(new String[result.size()]));
+				result.clear();
+			}
+		}
+		if (!result.isEmpty()) {
+			publishProgress(result.toArray(new String[result.size()]));
+		}
+		return null;
+	}
+
+	@Override
+	protected void onProgressUpdate(String... values) {
+		// Progress may be delivered after cancellation
+		if (!isCancelled()) {
+			callback.onSearchPostsFound(values);
+		}
+	}
+
+	@Override
+	protected void onPostExecute(Void result) {
+		callback.onSearchPostsComplete();
+	}
+
+	@Override
+	public void cancel() {
+		cancel(false);
+	}
+}
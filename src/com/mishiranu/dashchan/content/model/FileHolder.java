@@ -16,6 +16,7 @@
 
 package com.mishiranu.dashchan.content.model;
 
+import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileDescriptor;
@@ -23,6 +24,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -91,108 +93,216 @@ public abstract class FileHolder implements Serializable {
 	private static final int[] SIGNATURE_WEBP = {'R', 'I', 'F', 'F', -1, -1, -1, -1, 'W', 'E', 'B', 'P'};
 	private static final int[] SIGNATURE_BMP = {'B', 'M'};
 
+	private static final int[] CHUNK_WEBP_VP8 = {'V', 'P', '8', ' '};
+	private static final int[] CHUNK_WEBP_VP8L = {'V', 'P', '8', 'L'};
+	private static final int[] CHUNK_WEBP_VP8X = {'V', 'P', '8', 'X'};
+
 	private static boolean startsWith(byte[] where, int[] what) {
+		return startsWith(where, 0, what);
+	}
+
+	private static boolean startsWith(byte[] where, int offset, int[] what) {
 		if (where == null || what == null) {
 			return false;
 		}
-		if (what.length > where.length) {
+		if (offset + what.length > where.length) {
 			return false;
 		}
 		for (int i = 0; i < what.length; i++) {
-			if (what[i] >= 0 && what[i] != (where[i] & 0xff)) {
+			if (what[i] >= 0 && what[i] != (where[offset + i] & 0xff)) {
 				return false;
 			}
 		}
 		return true;
 	}
 
+	public static ImageType getImageType(byte[] signature) {
+		if (startsWith(signature, SIGNATURE_PNG)) {
+			return ImageType.IMAGE_PNG;
+		} else if (startsWith(signature, SIGNATURE_JPEG)) {
+			return ImageType.IMAGE_JPEG;
+		} else if (startsWith(signature, SIGNATURE_GIF)) {
+			return ImageType.IMAGE_GIF;
+		} else if (startsWith(signature, SIGNATURE_WEBP)) {
+			return ImageType.IMAGE_WEBP;
+		} else if (startsWith(signature, SIGNATURE_BMP)) {
+			return ImageType.IMAGE_BMP;
+		}
+		return null;
+	}
+
+	private static final int PROBE_BUFFER_SIZE = 65536;
+
+	// Stream is buffered and marked, so probing and decoding can share it
+	private InputStream openProbeInputStream() throws IOException {
+		InputStream input = new BufferedInputStream(openInputStream(), PROBE_BUFFER_SIZE);
+		input.mark(PROBE_BUFFER_SIZE);
+		return input;
+	}
+
+	private static boolean resetProbeInputStream(InputStream input) {
+		try {
+			input.reset();
+			return true;
+		} catch (IOException e) {
+			// Mark was invalidated
+			return false;
+		}
+	}
+
 	private ImageData getImageData() {
+		return getImageData(null);
+	}
+
+	private ImageData getImageData(InputStream sharedInput) {
 		synchronized (this) {
 			if (imageData == null) {
-				imageData = new ImageData();
-				BitmapFactory.Options options = new BitmapFactory.Options();
-				options.inJustDecodeBounds = true;
-				readBitmapSimple(options);
-				if (options.outWidth > 0 && options.outHeight > 0) {
-					InputStream input = null;
-					byte[] signature = null;
-					boolean success = false;
-					try {
-						input = openInputStream();
-						signature = new byte[12];
-						success = IOUtils.readExactlyCheck(input, signature, 0, signature.length);
-					} catch (IOException e) {
-						// Ignore exception
-					} finally {
+				InputStream input = sharedInput;
+				try {
+					if (input == null) {
+						input = openProbeInputStream();
+					}
+					imageData = probeImageData(input);
+				} catch (IOException e) {
+					imageData = new ImageData();
+				} finally {
+					if (input != sharedInput) {
 						IOUtils.close(input);
 					}
-					if (success) {
-						ImageType type = null;
-						if (startsWith(signature, SIGNATURE_PNG)) {
-							type = ImageType.IMAGE_PNG;
-						} else if (startsWith(signature, SIGNATURE_JPEG)) {
-							type = ImageType.IMAGE_JPEG;
-						} else if (startsWith(signature, SIGNATURE_GIF)) {
-							type = ImageType.IMAGE_GIF;
-						} else if (startsWith(signature, SIGNATURE_WEBP)) {
-							type = ImageType.IMAGE_WEBP;
-						} else if (startsWith(signature, SIGNATURE_BMP)) {
-							type = ImageType.IMAGE_BMP;
+				}
+			}
+			return imageData;
+		}
+	}
+
+	private ImageData probeImageData(InputStream input) throws IOException {
+		ImageData imageData = new ImageData();
+		byte[] header = new byte[32];
+		int count = IOUtils.readExactly(input, header, 0, header.length);
+		ImageType type = getImageType(count < header.length ? Arrays.copyOf(header, count) : header);
+		if (type != null) {
+			int width = -1;
+			int height = -1;
+			switch (type) {
+				case IMAGE_JPEG: {
+					if (resetProbeInputStream(input)) {
+						imageData.jpegData = JpegData.extract(input);
+					} else {
+						InputStream jpegInput = null;
+						try {
+							jpegInput = openProbeInputStream();
+							imageData.jpegData = JpegData.extract(jpegInput);
+						} finally {
+							IOUtils.close(jpegInput);
 						}
-						if (type != null) {
-							imageData.type = type;
-							boolean rotate = false;
-							if (type == ImageType.IMAGE_JPEG) {
-								imageData.jpegData = JpegData.extract(this);
-								int rotation = imageData.jpegData.getRotation();
-								rotate = rotation == 90 || rotation == 270;
-							}
-							if (rotate) {
-								imageData.width = options.outHeight;
-								imageData.height = options.outWidth;
-							} else {
-								imageData.width = options.outWidth;
-								imageData.height = options.outHeight;
-							}
+					}
+					width = imageData.jpegData.width;
+					height = imageData.jpegData.height;
+					break;
+				}
+				case IMAGE_PNG: {
+					if (count >= 24) {
+						width = IOUtils.bytesToInt(false, 16, 4, header);
+						height = IOUtils.bytesToInt(false, 20, 4, header);
+					}
+					break;
+				}
+				case IMAGE_GIF: {
+					if (count >= 10) {
+						width = IOUtils.bytesToInt(true, 6, 2, header);
+						height = IOUtils.bytesToInt(true, 8, 2, header);
+					}
+					break;
+				}
+				case IMAGE_WEBP: {
+					if (count >= 30 && startsWith(header, 12, CHUNK_WEBP_VP8)) {
+						width = IOUtils.bytesToInt(true, 26, 2, header) & 0x3fff;
+						height = IOUtils.bytesToInt(true, 28, 2, header) & 0x3fff;
+					} else if (count >= 25 && startsWith(header, 12, CHUNK_WEBP_VP8L)) {
+						int bits = IOUtils.bytesToInt(true, 21, 4, header);
+						width = (bits & 0x3fff) + 1;
+						height = (bits >> 14 & 0x3fff) + 1;
+					} else if (count >= 30 && startsWith(header, 12, CHUNK_WEBP_VP8X)) {
+						width = IOUtils.bytesToInt(true, 24, 3, header) + 1;
+						height = IOUtils.bytesToInt(true, 27, 3, header) + 1;
+					}
+					break;
+				}
+				case IMAGE_BMP: {
+					if (count >= 26) {
+						int headerSize = IOUtils.bytesToInt(true, 14, 4, header);
+						if (headerSize == 12) {
+							width = IOUtils.bytesToInt(true, 18, 2, header);
+							height = IOUtils.bytesToInt(true, 20, 2, header);
+						} else if (headerSize >= 40) {
+							width = IOUtils.bytesToInt(true, 18, 4, header);
+							// Negative height means top-down bitmap
+							height = Math.abs(IOUtils.bytesToInt(true, 22, 4, header));
 						}
 					}
-				} else {
-					InputStream input = null;
-					try {
-						input = openInputStream();
-						XmlPullParser parser = PARSER_FACTORY.newPullParser();
-						parser.setInput(input, null);
-						int type;
-						OUTER: while ((type = parser.getEventType()) != XmlPullParser.END_DOCUMENT) {
-							switch (type) {
-								case XmlPullParser.START_TAG: {
-									if ("svg".equals(parser.getName())) {
-										int width, height;
-										try {
-											width = Integer.parseInt(parser.getAttributeValue(null, "width"));
-											height = Integer.parseInt(parser.getAttributeValue(null, "height"));
-										} catch (NumberFormatException | NullPointerException e) {
-											width = -1;
-											height = -1;
-										}
-										imageData.type = ImageType.IMAGE_SVG;
-										imageData.width = width;
-										imageData.height = height;
-										break OUTER;
-									}
-									break;
-								}
+					break;
+				}
+			}
+			if (width <= 0 || height <= 0) {
+				// Unknown header layout, let decoder read the size
+				BitmapFactory.Options options = new BitmapFactory.Options();
+				options.inJustDecodeBounds = true;
+				readBitmapSimple(resetProbeInputStream(input) ? input : null, options);
+				width = options.outWidth;
+				height = options.outHeight;
+			}
+			if (width > 0 && height > 0) {
+				imageData.type = type;
+				int rotation = imageData.jpegData != null ? imageData.jpegData.getRotation() : 0;
+				boolean rotate = rotation == 90 || rotation == 270;
+				imageData.width = rotate ? height : width;
+				imageData.height = rotate ? width : height;
+			} else {
+				imageData.jpegData = null;
+			}
+		} else if (resetProbeInputStream(input)) {
+			probeSvgImageData(imageData, input);
+		} else {
+			InputStream svgInput = null;
+			try {
+				svgInput = openInputStream();
+				probeSvgImageData(imageData, svgInput);
+			} finally {
+				IOUtils.close(svgInput);
+			}
+		}
+		return imageData;
+	}
+
+	private static void probeSvgImageData(ImageData imageData, InputStream input) throws IOException {
+		try {
+			XmlPullParser parser = PARSER_FACTORY.newPullParser();
+			parser.setInput(input, null);
+			int type;
+			OUTER: while ((type = parser.getEventType()) != XmlPullParser.END_DOCUMENT) {
+				switch (type) {
+					case XmlPullParser.START_TAG: {
+						if ("svg".equals(parser.getName())) {
+							int width, height;
+							try {
+								width = Integer.parseInt(parser.getAttributeValue(null, "width"));
+								height = Integer.parseInt(parser.getAttributeValue(null, "height"));
+							} catch (NumberFormatException | NullPointerException e) {
+								width = -1;
+								height = -1;
 							}
-							parser.next();
+							imageData.type = ImageType.IMAGE_SVG;
+							imageData.width = width;
+							imageData.height = height;
+							break OUTER;
 						}
-					} catch (IOException | XmlPullParserException e) {
-						// Ignore exception
-					} finally {
-						IOUtils.close(input);
+						break;
 					}
 				}
+				parser.next();
 			}
-			return imageData;
+		} catch (XmlPullParserException e) {
+			// Ignore exception
 		}
 	}
 
@@ -231,11 +341,30 @@ public abstract class FileHolder implements Serializable {
 	}
 
 	public Bitmap readImageBitmap(int maxSize, boolean mayUseRegionDecoder, boolean mayUseWebViewDecoder) {
-		ImageData imageData = getImageData();
+		InputStream input = null;
+		try {
+			input = openProbeInputStream();
+		} catch (IOException e) {
+			Log.persistent().stack(e);
+		}
+		try {
+			return readImageBitmap(input, maxSize, mayUseRegionDecoder, mayUseWebViewDecoder);
+		} finally {
+			IOUtils.close(input);
+		}
+	}
+
+	private Bitmap readImageBitmap(InputStream input, int maxSize, boolean mayUseRegionDecoder,
+			boolean mayUseWebViewDecoder) {
+		ImageData imageData = getImageData(input);
 		if (imageData.type != ImageType.NOT_IMAGE) {
 			BitmapFactory.Options options = new BitmapFactory.Options();
 			options.inSampleSize = calculateInSampleSize(maxSize, imageData.width, imageData.height);
-			Bitmap bitmap = readBitmapInternal(options, mayUseRegionDecoder, mayUseWebViewDecoder);
+			// Probed header is still in buffer, decoder can read the same stream
+			if (input != null && !resetProbeInputStream(input)) {
+				input = null;
+			}
+			Bitmap bitmap = readBitmapInternal(input, options, mayUseRegionDecoder, mayUseWebViewDecoder);
 			if (bitmap != null && imageData.jpegData != null) {
 				int rotation = imageData.jpegData.getRotation();
 				if (rotation != 0) {
@@ -252,28 +381,28 @@ public abstract class FileHolder implements Serializable {
 		return null;
 	}
 
-	private Bitmap readBitmapInternal(BitmapFactory.Options options, boolean mayUseRegionDecoder,
-			boolean mayUseWebViewDecoder) {
+	private Bitmap readBitmapInternal(InputStream input, BitmapFactory.Options options,
+			boolean mayUseRegionDecoder, boolean mayUseWebViewDecoder) {
 		ImageData imageData = getImageData();
 		if (imageData.type == ImageType.NOT_IMAGE) {
 			return null;
 		}
 		if (imageData.type != ImageType.IMAGE_SVG) {
-			Bitmap bitmap = readBitmapSimple(options);
+			Bitmap bitmap = readBitmapSimple(input, options);
 			if (bitmap != null) {
 				return bitmap;
 			}
 			if (mayUseRegionDecoder && isRegionDecoderSupported()) {
-				InputStream input = null;
+				InputStream regionInput = null;
 				BitmapRegionDecoder decoder = null;
 				try {
-					input = openInputStream();
-					decoder = BitmapRegionDecoder.newInstance(input, false);
+					regionInput = openInputStream();
+					decoder = BitmapRegionDecoder.newInstance(regionInput, false);
 					return decoder.decodeRegion(new Rect(0, 0, decoder.getWidth(), decoder.getHeight()), options);
 				} catch (IOException e) {
 					Log.persistent().stack(e);
 				} finally {
-					IOUtils.close(input);
+					IOUtils.close(regionInput);
 					if (decoder != null) {
 						decoder.recycle();
 					}
@@ -286,7 +415,10 @@ public abstract class FileHolder implements Serializable {
 		return null;
 	}
 
-	private Bitmap readBitmapSimple(BitmapFactory.Options options) {
+	private Bitmap readBitmapSimple(InputStream sharedInput, BitmapFactory.Options options) {
+		if (sharedInput != null) {
+			return BitmapFactory.decodeStream(sharedInput, null, options);
+		}
 		InputStream input = null;
 		try {
 			input = openInputStream();
@@ -44,6 +44,7 @@ import com.mishiranu.dashchan.content.storage.HiddenThreadsDatabase;
 import com.mishiranu.dashchan.graphics.ColorScheme;
 import com.mishiranu.dashchan.preference.Preferences;
 import com.mishiranu.dashchan.text.HtmlParser;
+import com.mishiranu.dashchan.text.SimilarTextEstimator;
 import com.mishiranu.dashchan.text.style.LinkSpan;
 import com.mishiranu.dashchan.text.style.LinkSuffixSpan;
 import com.mishiranu.dashchan.text.style.NameColorSpan;
@@ -70,6 +71,8 @@ public class PostItem implements AttachmentItem.Binder, ChanMarkup.MarkupExtra,
 	private LinkSuffixSpan[] linkSuffixSpans;
 	private PostDateFormatter.Holder dateTimeHolder;
 	private boolean useDefaultName;
+	private SimilarTextEstimator similarEstimator;
+	private SimilarTextEstimator.WordsData similarWordsData;
 
 	private HashSet<String> referencesTo;
 	private LinkedHashSet<String> referencesFrom;
@@ -222,6 +225,7 @@ public class PostItem implements AttachmentItem.Binder, ChanMarkup.MarkupExtra,
 
 	public void preload() {
 		getComment();
+		getFullName();
 	}
 
 	public int getOrdinalIndex() {
@@ -527,6 +531,17 @@ public class PostItem implements AttachmentItem.Binder, ChanMarkup.MarkupExtra,
 		return comment;
 	}
 
+	// Words data is cached for the last used estimator.
+	public SimilarTextEstimator.WordsData getCommentWords(SimilarTextEstimator estimator) {
+		synchronized (this) {
+			if (similarEstimator != estimator) {
+				similarWordsData = estimator.getWords(getComment().toString());
+				similarEstimator = estimator;
+			}
+			return similarWordsData;
+		}
+	}
+
 	public ColorScheme.Span[] getCommentSpans() {
 		return commentSpans;
 	}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014-2016 Fukurou Mishiranu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mishiranu.dashchan.content.model;
+
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.mishiranu.dashchan.util.ConcurrentUtils;
+
+public class PostItemPreloader {
+	private static final int CHUNK_SIZE = 16;
+	private static final int FIRST_BATCH_SIZE = 4 * CHUNK_SIZE;
+	private static final int THREADS_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+	private static final Handler HANDLER = new Handler(Looper.getMainLooper());
+	private static final ThreadPoolExecutor EXECUTOR = ConcurrentUtils.newThreadPool(THREADS_COUNT, THREADS_COUNT,
+			5000, "PostItemPreloader", null, Process.THREAD_PRIORITY_BACKGROUND);
+
+	static {
+		EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+
+	public interface Callback {
+		public void onPrepared(List<PostItem> postItems);
+	}
+
+	public static class Job implements Runnable {
+		private final List<PostItem> postItems;
+		private final Callback callback;
+		private final int chunksCount;
+		private final AtomicInteger nextChunk = new AtomicInteger();
+		private int finishedChunksCount;
+		private volatile boolean cancelled = false;
+
+		private Job(List<PostItem> postItems, Callback callback) {
+			this.postItems = postItems;
+			this.callback = callback;
+			chunksCount = (postItems.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		}
+
+		@Override
+		public void run() {
+			while (!cancelled) {
+				// Chunks are taken in order, so first posts are prepared first
+				int chunk = nextChunk.getAndIncrement();
+				if (chunk >= chunksCount) {
+					break;
+				}
+				int start = chunk * CHUNK_SIZE;
+				int end = Math.min(postItems.size(), start + CHUNK_SIZE);
+				try {
+					for (int i = start; i < end && !cancelled; i++) {
+						postItems.get(i).preload();
+					}
+				} finally {
+					synchronized (this) {
+						finishedChunksCount++;
+						notifyAll();
+					}
+				}
+				if (callback != null && !cancelled) {
+					List<PostItem> postItems = this.postItems.subList(start, end);
+					HANDLER.post(() -> {
+						if (!cancelled) {
+							callback.onPrepared(postItems);
+						}
+					});
+				}
+				if (Thread.currentThread().isInterrupted()) {
+					cancelled = true;
+				}
+			}
+		}
+
+		private void start(int workersCount) {
+			workersCount = Math.min(workersCount, chunksCount);
+			for (int i = 0; i < workersCount; i++) {
+				EXECUTOR.execute(this);
+			}
+		}
+
+		// Waits only for chunks which were taken by other threads
+		private void await() throws InterruptedException {
+			synchronized (this) {
+				while (finishedChunksCount < chunksCount && !cancelled) {
+					wait();
+				}
+			}
+		}
+
+		public void cancel() {
+			cancelled = true;
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	// Prepares first items using worker pool and calling thread, so the first screen can be displayed without
+	// delays. Blocks until these items are prepared, preparation stops when calling thread is interrupted.
+	public static void preload(List<PostItem> postItems) {
+		if (postItems == null || postItems.isEmpty()) {
+			return;
+		}
+		Job job = new Job(postItems.subList(0, Math.min(postItems.size(), FIRST_BATCH_SIZE)), null);
+		job.start(THREADS_COUNT - 1);
+		job.run();
+		try {
+			job.await();
+		} catch (InterruptedException e) {
+			job.cancel();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Prepares items in background, callback is called in main thread for every prepared batch.
+	public static Job preloadAsync(List<PostItem> postItems, Callback callback) {
+		Job job = new Job(postItems, callback);
+		job.start(THREADS_COUNT);
+		return job;
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2014-2016 Fukurou Mishiranu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mishiranu.dashchan.content.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+// Not thread safe, all calls must be made from single thread
+public class PostsSearchIndex {
+	private static final int GRAM_LENGTH = 3;
+
+	private final IdentityHashMap<PostItem, Entry> entries = new IdentityHashMap<>();
+	private final ArrayList<Entry> entriesById = new ArrayList<>();
+	private final HashMap<Long, Postings> postings = new HashMap<>();
+	private int removedCount;
+	private Locale locale;
+
+	public static class Entry {
+		private final int id;
+		private final String comment;
+		private final String text;
+		private boolean removed;
+
+		private Entry(int id, String comment, String text) {
+			this.id = id;
+			this.comment = comment;
+			this.text = text;
+		}
+
+		public boolean containsInComment(String lowQuery) {
+			return comment.contains(lowQuery);
+		}
+	}
+
+	private static class Postings {
+		public int[] ids = new int[4];
+		public int size;
+
+		public void add(int id) {
+			// Ids are added in ascending order, so duplicate is always the last one
+			if (size > 0 && ids[size - 1] == id) {
+				return;
+			}
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			ids[size++] = id;
+		}
+	}
+
+	// Adds new items and drops items which are no longer presented in list.
+	// Existing items are not handled again, so every update costs only the new items.
+	public void update(List<PostItem> postItems, Locale locale) {
+		if (!locale.equals(this.locale)) {
+			this.locale = locale;
+			clear();
+		}
+		IdentityHashMap<PostItem, Boolean> actual = new IdentityHashMap<>(postItems.size());
+		for (PostItem postItem : postItems) {
+			if (postItem != null) {
+				actual.put(postItem, true);
+				if (!entries.containsKey(postItem)) {
+					entries.put(postItem, addEntry(postItem));
+				}
+			}
+		}
+		if (entries.size() > actual.size()) {
+			for (Iterator<IdentityHashMap.Entry<PostItem, Entry>> iterator = entries.entrySet().iterator();
+					iterator.hasNext();) {
+				IdentityHashMap.Entry<PostItem, Entry> mapEntry = iterator.next();
+				if (!actual.containsKey(mapEntry.getKey())) {
+					mapEntry.getValue().removed = true;
+					removedCount++;
+					iterator.remove();
+				}
+			}
+		}
+		if (removedCount > entries.size()) {
+			rebuild();
+		}
+	}
+
+	public Entry get(PostItem postItem) {
+		return entries.get(postItem);
+	}
+
+	// Returns entry ids containing at least one of queries in any field
+	public BitSet find(Iterable<String> lowQueries) {
+		BitSet result = new BitSet(entriesById.size());
+		for (String lowQuery : lowQueries) {
+			if (lowQuery.length() >= GRAM_LENGTH) {
+				Postings candidates = findCandidates(lowQuery);
+				if (candidates != null) {
+					for (int i = 0; i < candidates.size; i++) {
+						checkEntry(result, entriesById.get(candidates.ids[i]), lowQuery);
+					}
+				}
+			} else {
+				for (Entry entry : entriesById) {
+					checkEntry(result, entry, lowQuery);
+				}
+			}
+		}
+		return result;
+	}
+
+	public static boolean isFound(BitSet found, Entry entry) {
+		return found.get(entry.id);
+	}
+
+	private static void checkEntry(BitSet result, Entry entry, String lowQuery) {
+		if (!entry.removed && !result.get(entry.id) && entry.text.contains(lowQuery)) {
+			result.set(entry.id);
+		}
+	}
+
+	private Postings findCandidates(String lowQuery) {
+		int count = lowQuery.length() - GRAM_LENGTH + 1;
+		Postings[] grams = new Postings[count];
+		for (int i = 0; i < count; i++) {
+			Postings gram = postings.get(getGram(lowQuery, i));
+			if (gram == null) {
+				return null;
+			}
+			grams[i] = gram;
+		}
+		// Intersect starting from the rarest gram to keep intermediate results small
+		Arrays.sort(grams, (lhs, rhs) -> Integer.compare(lhs.size, rhs.size));
+		Postings result = new Postings();
+		result.ids = Arrays.copyOf(grams[0].ids, grams[0].size);
+		result.size = grams[0].size;
+		for (int i = 1; i < grams.length && result.size > 0; i++) {
+			result.size = intersect(result.ids, result.size, grams[i].ids, grams[i].size);
+		}
+		return result;
+	}
+
+	// Both arrays are sorted, result is written to the first array
+	private static int intersect(int[] ids, int size, int[] otherIds, int otherSize) {
+		int count = 0;
+		for (int i = 0, j = 0; i < size && j < otherSize;) {
+			int id = ids[i], otherId = otherIds[j];
+			if (id == otherId) {
+				ids[count++] = id;
+				i++;
+				j++;
+			} else if (id < otherId) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return count;
+	}
+
+	private static long getGram(String text, int index) {
+		return (long) text.charAt(index) << 32 | (long) text.charAt(index + 1) << 16 | text.charAt(index + 2);
+	}
+
+	private Entry addEntry(PostItem postItem) {
+		String comment = postItem.getComment().toString().toLowerCase(locale);
+		StringBuilder builder = new StringBuilder(comment);
+		// Null character can't be the part of query, so fields are never matched across the border
+		builder.append('\0').append(postItem.getSubject().toLowerCase(locale));
+		builder.append('\0').append(postItem.getFullName().toString().toLowerCase(locale));
+		ArrayList<AttachmentItem> attachmentItems = postItem.getAttachmentItems();
+		if (attachmentItems != null) {
+			for (AttachmentItem attachmentItem : attachmentItems) {
+				String fileName = attachmentItem.getFileName();
+				if (fileName != null) {
+					builder.append('\0').append(fileName.toLowerCase(locale));
+					String originalName = attachmentItem.getOriginalName();
+					if (originalName != null) {
+						builder.append('\0').append(originalName.toLowerCase(locale));
+					}
+				}
+			}
+		}
+		return addEntry(comment, builder.toString());
+	}
+
+	private Entry addEntry(String comment, String text) {
+		Entry entry = new Entry(entriesById.size(), comment, text);
+		entriesById.add(entry);
+		for (int i = 0, count = text.length() - GRAM_LENGTH + 1; i < count; i++) {
+			long gram = getGram(text, i);
+			Postings gramPostings = postings.get(gram);
+			if (gramPostings == null) {
+				gramPostings = new Postings();
+				postings.put(gram, gramPostings);
+			}
+			gramPostings.add(entry.id);
+		}
+		return entry;
+	}
+
+	private void rebuild() {
+		ArrayList<PostItem> postItems = new ArrayList<>(entries.keySet());
+		ArrayList<Entry> oldEntries = new ArrayList<>(postItems.size());
+		for (PostItem postItem : postItems) {
+			oldEntries.add(entries.get(postItem));
+		}
+		clear();
+		for (int i = 0; i < postItems.size(); i++) {
+			Entry entry = oldEntries.get(i);
+			entries.put(postItems.get(i), addEntry(entry.comment, entry.text));
+		}
+	}
+
+	private void clear() {
+		entries.clear();
+		entriesById.clear();
+		postings.clear();
+		removedCount = 0;
+	}
+}
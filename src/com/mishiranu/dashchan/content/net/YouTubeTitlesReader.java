@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2016 Fukurou Mishiranu
+ * Copyright 2014-2018 Fukurou Mishiranu
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -18,12 +18,20 @@ package com.mishiranu.dashchan.content.net;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 
 import chan.content.ChanLocator;
 import chan.content.InvalidResponseException;
@@ -36,10 +44,17 @@ import chan.http.HttpRequest;
 import chan.util.StringUtils;
 
 import com.mishiranu.dashchan.C;
+import com.mishiranu.dashchan.content.storage.YouTubeTitlesStorage;
 import com.mishiranu.dashchan.preference.Preferences;
 import com.mishiranu.dashchan.text.HtmlParser;
+import com.mishiranu.dashchan.util.ConcurrentUtils;
+import com.mishiranu.dashchan.util.WeakObservable;
 
 public class YouTubeTitlesReader {
+	private static final int MAX_BATCH_SIZE = 50; // Max allowed count per request.
+	private static final int MAX_RETRY_ATTEMPTS = 3;
+	private static final int RETRY_DELAY = 30000;
+
 	private static final YouTubeTitlesReader INSTANCE = new YouTubeTitlesReader();
 
 	private YouTubeTitlesReader() {}
@@ -48,14 +63,39 @@ public class YouTubeTitlesReader {
 		return INSTANCE;
 	}
 
+	private final YouTubeTitlesStorage storage = YouTubeTitlesStorage.getInstance();
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final ThreadPoolExecutor executor = ConcurrentUtils.newSingleThreadPool(60000,
+			"YouTubeTitlesReader", null, 0);
+	private final WeakObservable<Observer> observable = new WeakObservable<>();
+
+	// Guarded by pendingCodes
+	private final LinkedHashSet<String> pendingCodes = new LinkedHashSet<>();
+	private final HashSet<String> loadingCodes = new HashSet<>();
+	private final ArrayList<Request> requests = new ArrayList<>();
+	private final HashMap<String, Integer> failedAttempts = new HashMap<>();
+	private boolean workerRunning = false;
+
+	public interface Observer {
+		public void onYouTubeTitlesApplied(Map<Post, Post> posts);
+	}
+
+	public WeakObservable<Observer> getObservable() {
+		return observable;
+	}
+
+	private static boolean isEnabled() {
+		return Preferences.isDownloadYouTubeTitles() && !StringUtils.isEmpty(C.API_KEY_GOOGLE);
+	}
+
 	private void readYouTubeTitles(HashMap<String, String> writeTo, ArrayList<String> embeddedCodes,
-			int from, int count, HttpHolder holder) throws HttpException, InvalidResponseException {
+			HttpHolder holder) throws HttpException, InvalidResponseException {
 		StringBuilder builder = new StringBuilder();
-		for (int i = from, size = Math.min(embeddedCodes.size(), from + count); i < size; i++) {
+		for (String embeddedCode : embeddedCodes) {
 			if (builder.length() > 0) {
 				builder.append(',');
 			}
-			builder.append(embeddedCodes.get(i));
+			builder.append(embeddedCode);
 		}
 		// This api is HTTPS-only
 		Uri uri = ChanLocator.getDefault().buildQueryWithSchemeHost(true, "www.googleapis.com", "youtube/v3/videos",
@@ -81,47 +121,189 @@ public class YouTubeTitlesReader {
 		}
 	}
 
-	private final HashMap<String, String> cachedYouTubeTitles = new HashMap<>();
-
-	public final HashMap<String, String> readYouTubeTitles(ArrayList<String> embeddedCodes, HttpHolder holder)
-			throws HttpException, InvalidResponseException {
-		HashMap<String, String> result = new HashMap<>();
-		for (int i = embeddedCodes.size() - 1; i >= 0; i--) {
-			String id = embeddedCodes.get(i);
-			String title = cachedYouTubeTitles.get(embeddedCodes.get(i));
-			if (title != null) {
-				result.put(id, title);
-				embeddedCodes.remove(i);
+	private static class Request {
+		public final HashSet<String> embeddedCodes;
+		public final ArrayList<EmbeddedApplyHolder> applyHolders;
+		public final CountDownLatch latch;
+		public final HashMap<String, String> titles = new HashMap<>();
+
+		public Request(HashSet<String> embeddedCodes, ArrayList<EmbeddedApplyHolder> applyHolders, boolean await) {
+			this.embeddedCodes = embeddedCodes;
+			this.applyHolders = applyHolders;
+			latch = await ? new CountDownLatch(1) : null;
+		}
+	}
+
+	private void enqueue(Request request) {
+		synchronized (pendingCodes) {
+			// Codes requested by another loading are not requested again
+			for (String embeddedCode : request.embeddedCodes) {
+				if (!loadingCodes.contains(embeddedCode)) {
+					pendingCodes.add(embeddedCode);
+				}
+			}
+			requests.add(request);
+			startWorker();
+		}
+	}
+
+	private void startWorker() {
+		if (!workerRunning) {
+			workerRunning = true;
+			executor.execute(this::runWorker);
+		}
+	}
+
+	private void retry(ArrayList<String> embeddedCodes) {
+		synchronized (pendingCodes) {
+			for (String embeddedCode : embeddedCodes) {
+				if (!loadingCodes.contains(embeddedCode)) {
+					pendingCodes.add(embeddedCode);
+				}
+			}
+			startWorker();
+		}
+	}
+
+	private void runWorker() {
+		while (true) {
+			ArrayList<String> embeddedCodes = new ArrayList<>();
+			synchronized (pendingCodes) {
+				Iterator<String> iterator = pendingCodes.iterator();
+				while (iterator.hasNext() && embeddedCodes.size() < MAX_BATCH_SIZE) {
+					embeddedCodes.add(iterator.next());
+					iterator.remove();
+				}
+				if (embeddedCodes.isEmpty()) {
+					workerRunning = false;
+					return;
+				}
+				loadingCodes.addAll(embeddedCodes);
+			}
+			HashMap<String, String> titles = new HashMap<>();
+			boolean success = false;
+			try {
+				readYouTubeTitles(titles, embeddedCodes, new HttpHolder());
+				success = true;
+			} catch (HttpException | InvalidResponseException e) {
+				// Ignore exception
+			}
+			storage.put(titles);
+			ArrayList<Request> completedRequests = null;
+			synchronized (pendingCodes) {
+				loadingCodes.removeAll(embeddedCodes);
+				// Failed batch is requested again later, only loadings which don't wait for titles will get them
+				boolean retry = false;
+				if (success) {
+					for (String embeddedCode : embeddedCodes) {
+						failedAttempts.remove(embeddedCode);
+					}
+				} else {
+					int attempts = 1;
+					for (String embeddedCode : embeddedCodes) {
+						Integer codeAttempts = failedAttempts.get(embeddedCode);
+						if (codeAttempts != null) {
+							attempts = Math.max(attempts, codeAttempts + 1);
+						}
+					}
+					retry = attempts < MAX_RETRY_ATTEMPTS;
+					for (String embeddedCode : embeddedCodes) {
+						if (retry) {
+							failedAttempts.put(embeddedCode, attempts);
+						} else {
+							failedAttempts.remove(embeddedCode);
+						}
+					}
+				}
+				Iterator<Request> iterator = requests.iterator();
+				while (iterator.hasNext()) {
+					Request request = iterator.next();
+					if (retry && request.latch == null) {
+						continue;
+					}
+					for (String embeddedCode : embeddedCodes) {
+						if (request.embeddedCodes.remove(embeddedCode)) {
+							String title = titles.get(embeddedCode);
+							if (title != null) {
+								request.titles.put(embeddedCode, title);
+							}
+						}
+					}
+					if (request.embeddedCodes.isEmpty()) {
+						iterator.remove();
+						if (completedRequests == null) {
+							completedRequests = new ArrayList<>();
+						}
+						completedRequests.add(request);
+					}
+				}
+				if (retry) {
+					ArrayList<String> retryCodes = new ArrayList<>();
+					for (String embeddedCode : embeddedCodes) {
+						boolean required = false;
+						for (Request request : requests) {
+							if (request.embeddedCodes.contains(embeddedCode)) {
+								required = true;
+								break;
+							}
+						}
+						if (required) {
+							retryCodes.add(embeddedCode);
+						} else {
+							failedAttempts.remove(embeddedCode);
+						}
+					}
+					if (!retryCodes.isEmpty()) {
+						handler.postDelayed(() -> retry(retryCodes), RETRY_DELAY);
+					}
+				}
+			}
+			if (completedRequests != null) {
+				for (Request request : completedRequests) {
+					if (request.latch != null) {
+						request.latch.countDown();
+					} else if (!request.titles.isEmpty()) {
+						for (EmbeddedApplyHolder applyHolder : request.applyHolders) {
+							applyHolder.setTitles(request.titles);
+						}
+						handler.post(() -> applyAndNotify(request.applyHolders));
+					}
+				}
 			}
 		}
-		final int maxCount = 50; // Max allowed count per request.
-		for (int i = 0; i < embeddedCodes.size(); i += maxCount) {
-			readYouTubeTitles(result, embeddedCodes, i, maxCount, holder);
+	}
+
+	// Titles are applied to copies, because displayed posts can be serialized at the same time
+	private void applyAndNotify(ArrayList<EmbeddedApplyHolder> applyHolders) {
+		HashMap<Post, Post> posts = new HashMap<>(applyHolders.size());
+		for (EmbeddedApplyHolder applyHolder : applyHolders) {
+			Post post = applyHolder.applyCopy();
+			if (post != null) {
+				posts.put(applyHolder.post, post);
+			}
 		}
-		if (result.size() > 0) {
-			for (String id : result.keySet()) {
-				cachedYouTubeTitles.put(id, result.get(id));
+		if (!posts.isEmpty()) {
+			for (Observer observer : observable) {
+				observer.onYouTubeTitlesApplied(posts);
 			}
-			return result;
 		}
-		return null;
 	}
 
 	private static abstract class EmbeddedCodeData {
 		public final EmbeddedApplyHolder applyHolder;
 		public final String embeddedCode;
+		public String title;
 
 		public EmbeddedCodeData(EmbeddedApplyHolder applyHolder, String embeddedCode) {
 			this.applyHolder = applyHolder;
 			this.embeddedCode = embeddedCode;
 		}
 
-		public abstract int applyTitle(String title);
-		public abstract void fixPositions(int shift);
+		public abstract int applyTitle(Post post, int shift);
 	}
 
 	private static class LinkCodeData extends EmbeddedCodeData {
-		public int start, end;
+		public final int start, end;
 
 		public LinkCodeData(EmbeddedApplyHolder applyHolder, String embeddedCode, int start, int end) {
 			super(applyHolder, embeddedCode);
@@ -130,41 +312,29 @@ public class YouTubeTitlesReader {
 		}
 
 		@Override
-		public int applyTitle(String title) {
-			title = "YouTube: " + title;
+		public int applyTitle(Post post, int shift) {
+			String title = "YouTube: " + this.title;
 			if (applyHolder.commentBuilder == null) {
-				applyHolder.commentBuilder = new StringBuilder(applyHolder.post.getComment());
-			}
-			int shift = title.length() - (end - start);
-			applyHolder.commentBuilder.replace(start, end, title);
-			return shift;
-		}
-
-		@Override
-		public void fixPositions(int shift) {
-			if (shift != 0) {
-				start += shift;
-				end += shift;
+				applyHolder.commentBuilder = new StringBuilder(post.getComment());
 			}
+			applyHolder.commentBuilder.replace(start + shift, end + shift, title);
+			return shift + title.length() - (end - start);
 		}
 	}
 
 	private static class FileCodeData extends EmbeddedCodeData {
-		public final EmbeddedAttachment attachment;
+		public final int attachmentIndex;
 
-		public FileCodeData(EmbeddedApplyHolder applyHolder, String embeddedCode, EmbeddedAttachment attachment) {
+		public FileCodeData(EmbeddedApplyHolder applyHolder, String embeddedCode, int attachmentIndex) {
 			super(applyHolder, embeddedCode);
-			this.attachment = attachment;
+			this.attachmentIndex = attachmentIndex;
 		}
 
 		@Override
-		public int applyTitle(String title) {
-			attachment.setTitle(title);
-			return 0;
+		public int applyTitle(Post post, int shift) {
+			((EmbeddedAttachment) post.getAttachmentAt(attachmentIndex)).setTitle(title);
+			return shift;
 		}
-
-		@Override
-		public void fixPositions(int shift) {}
 	}
 
 	private static class EmbeddedApplyHolder {
@@ -176,6 +346,55 @@ public class YouTubeTitlesReader {
 		public EmbeddedApplyHolder(Post post) {
 			this.post = post;
 		}
+
+		public void setTitles(Map<String, String> titles) {
+			for (EmbeddedCodeData embeddedCodeData : embeddedCodeDatas) {
+				String title = titles.get(embeddedCodeData.embeddedCode);
+				if (title != null) {
+					embeddedCodeData.title = title;
+				}
+			}
+		}
+
+		// Comment is always built from the original one, so all known titles must be set before.
+		public boolean apply() {
+			return apply(post);
+		}
+
+		public Post applyCopy() {
+			for (EmbeddedCodeData embeddedCodeData : embeddedCodeDatas) {
+				if (embeddedCodeData.title != null) {
+					Post post = this.post.copyWithState();
+					Attachment[] attachments = new Attachment[post.getAttachmentsCount()];
+					for (int i = 0; i < attachments.length; i++) {
+						Attachment attachment = post.getAttachmentAt(i);
+						attachments[i] = attachment instanceof EmbeddedAttachment
+								? ((EmbeddedAttachment) attachment).copy() : attachment;
+					}
+					post.setAttachments(attachments);
+					apply(post);
+					return post;
+				}
+			}
+			return null;
+		}
+
+		private boolean apply(Post post) {
+			boolean applied = false;
+			int shift = 0;
+			commentBuilder = null;
+			for (EmbeddedCodeData embeddedCodeData : embeddedCodeDatas) {
+				if (embeddedCodeData.title != null) {
+					shift = embeddedCodeData.applyTitle(post, shift);
+					applied = true;
+				}
+			}
+			if (commentBuilder != null) {
+				post.setEditedComment(commentBuilder.toString());
+				commentBuilder = null;
+			}
+			return applied;
+		}
 	}
 
 	private EmbeddedApplyHolder getYouTubeApplyHolder(ChanLocator locator, Post post) {
@@ -237,62 +456,99 @@ public class YouTubeTitlesReader {
 					if (applyHolder == null) {
 						applyHolder = new EmbeddedApplyHolder(post);
 					}
-					applyHolder.embeddedCodeDatas.add(new FileCodeData(applyHolder, embeddedCode, embeddedAttachment));
+					applyHolder.embeddedCodeDatas.add(new FileCodeData(applyHolder, embeddedCode, i));
 				}
 			}
 		}
 		return applyHolder;
 	}
 
-	private void readYouTubeTitlesAndApplyChecked(List<Post> posts, HttpHolder holder)
-			throws HttpException, InvalidResponseException {
+	private ArrayList<EmbeddedApplyHolder> obtainApplyHolders(List<Post> posts) {
 		ChanLocator locator = ChanLocator.getDefault();
 		ArrayList<EmbeddedApplyHolder> applyHolders = null;
-		ArrayList<String> embeddedCodes = null;
 		for (Post post : posts) {
 			EmbeddedApplyHolder applyHolder = getYouTubeApplyHolder(locator, post);
 			if (applyHolder != null) {
 				if (applyHolders == null) {
 					applyHolders = new ArrayList<>();
-					embeddedCodes = new ArrayList<>();
 				}
 				applyHolders.add(applyHolder);
-				for (EmbeddedCodeData embeddedCodeData : applyHolder.embeddedCodeDatas) {
+			}
+		}
+		return applyHolders;
+	}
+
+	// Sets titles from cache and returns codes without known title.
+	private HashSet<String> setCachedTitles(ArrayList<EmbeddedApplyHolder> applyHolders) {
+		HashSet<String> embeddedCodes = new HashSet<>();
+		for (EmbeddedApplyHolder applyHolder : applyHolders) {
+			for (EmbeddedCodeData embeddedCodeData : applyHolder.embeddedCodeDatas) {
+				String title = storage.get(embeddedCodeData.embeddedCode);
+				if (title != null) {
+					embeddedCodeData.title = title;
+				} else {
 					embeddedCodes.add(embeddedCodeData.embeddedCode);
 				}
 			}
 		}
-		if (embeddedCodes != null) {
-			HashMap<String, String> titles = readYouTubeTitles(embeddedCodes, holder);
-			if (titles != null) {
-				for (String embeddedCode : titles.keySet()) {
+		return embeddedCodes;
+	}
+
+	// Reads missing titles together with other loadings and applies all titles, blocks until titles are read.
+	public final void readAndApplyIfNecessary(List<Post> posts) {
+		if (isEnabled()) {
+			ArrayList<EmbeddedApplyHolder> applyHolders = obtainApplyHolders(posts);
+			if (applyHolders != null) {
+				HashSet<String> embeddedCodes = setCachedTitles(applyHolders);
+				if (!embeddedCodes.isEmpty()) {
+					Request request = new Request(embeddedCodes, applyHolders, true);
+					enqueue(request);
+					try {
+						request.latch.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					HashMap<String, String> titles;
+					synchronized (pendingCodes) {
+						titles = new HashMap<>(request.titles);
+					}
 					for (EmbeddedApplyHolder applyHolder : applyHolders) {
-						int shift = 0;
-						for (EmbeddedCodeData embeddedCodeData : applyHolder.embeddedCodeDatas) {
-							embeddedCodeData.fixPositions(shift);
-							if (embeddedCodeData.embeddedCode.equals(embeddedCode)) {
-								shift += embeddedCodeData.applyTitle(titles.get(embeddedCode));
-							}
-						}
+						applyHolder.setTitles(titles);
 					}
 				}
-			}
-			for (EmbeddedApplyHolder applyHolder : applyHolders) {
-				if (applyHolder.commentBuilder != null) {
-					Post post = applyHolder.post;
-					post.setEditedComment(applyHolder.commentBuilder.toString());
+				for (EmbeddedApplyHolder applyHolder : applyHolders) {
+					applyHolder.apply();
 				}
 			}
 		}
 	}
 
-	public final void readAndApplyIfNecessary(List<Post> posts, HttpHolder holder) {
-		if (Preferences.isDownloadYouTubeTitles() && !StringUtils.isEmpty(C.API_KEY_GOOGLE)) {
-			try {
-				readYouTubeTitlesAndApplyChecked(posts, holder);
-			} catch (HttpException | InvalidResponseException e) {
-				// Ignore exception
+	// Applies cached titles only, missing titles can be requested later with resolveIfNecessary.
+	public final void applyCachedIfNecessary(List<Post> posts) {
+		if (isEnabled()) {
+			ArrayList<EmbeddedApplyHolder> applyHolders = obtainApplyHolders(posts);
+			if (applyHolders != null) {
+				setCachedTitles(applyHolders);
+				for (EmbeddedApplyHolder applyHolder : applyHolders) {
+					applyHolder.apply();
+				}
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	// Reads missing titles in background, titles are applied in UI thread and observers are notified.
+	public final void resolveIfNecessary(List<Post> posts) {
+		if (isEnabled() && !posts.isEmpty()) {
+			ArrayList<Post> workPosts = new ArrayList<>(posts);
+			executor.execute(() -> {
+				ArrayList<EmbeddedApplyHolder> applyHolders = obtainApplyHolders(workPosts);
+				if (applyHolders != null) {
+					HashSet<String> embeddedCodes = setCachedTitles(applyHolders);
+					if (!embeddedCodes.isEmpty()) {
+						enqueue(new Request(embeddedCodes, applyHolders, false));
+					}
+				}
+			});
+		}
+	}
+}
@@ -18,9 +18,8 @@ package com.mishiranu.dashchan.content.service;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import android.annotation.TargetApi;
 import android.app.Notification;
@@ -39,12 +38,14 @@ import android.os.IBinder;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.text.SpannableStringBuilder;
 import android.text.style.StyleSpan;
 import android.text.style.TypefaceSpan;
 import android.util.DisplayMetrics;
 import android.view.ContextThemeWrapper;
 
+import chan.http.HttpValidator;
 import chan.util.StringUtils;
 
 import com.mishiranu.dashchan.C;
@@ -52,17 +53,26 @@ import com.mishiranu.dashchan.R;
 import com.mishiranu.dashchan.content.DownloadManager;
 import com.mishiranu.dashchan.content.FileProvider;
 import com.mishiranu.dashchan.content.async.ReadFileTask;
+import com.mishiranu.dashchan.content.model.AttachmentItem;
 import com.mishiranu.dashchan.content.model.ErrorItem;
 import com.mishiranu.dashchan.content.model.FileHolder;
+import com.mishiranu.dashchan.content.storage.DownloadsStorage;
+import com.mishiranu.dashchan.preference.AdvancedPreferences;
 import com.mishiranu.dashchan.preference.Preferences;
+import com.mishiranu.dashchan.util.ConcurrentUtils;
 import com.mishiranu.dashchan.util.MimeTypes;
 import com.mishiranu.dashchan.util.ResourceUtils;
 import com.mishiranu.dashchan.util.ToastUtils;
 import com.mishiranu.dashchan.util.ViewUtils;
 
-public class DownloadService extends Service implements ReadFileTask.Callback, ReadFileTask.AsyncFinishCallback,
-		Runnable, MediaScannerConnection.MediaScannerConnectionClient {
-	private static final Executor SINGLE_THREAD_EXECUTOR = Executors.newSingleThreadExecutor();
+public class DownloadService extends Service implements Runnable, MediaScannerConnection.MediaScannerConnectionClient {
+	private static final ThreadPoolExecutor EXECUTOR;
+
+	static {
+		int parallelism = AdvancedPreferences.getDownloadParallelism();
+		EXECUTOR = ConcurrentUtils.newThreadPool(parallelism, parallelism, 60000, "DownloadService", null, 0);
+		EXECUTOR.allowCoreThreadTimeOut(true);
+	}
 
 	private static final String ACTION_START = "com.mishiranu.dashchan.action.START";
 	private static final String ACTION_SHOW_FAKE = "com.mishiranu.dashchan.action.SHOW_FAKE";
@@ -108,6 +118,14 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 		PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
 		wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "DownloadServiceWakeLock");
 		wakeLock.setReferenceCounted(false);
+		ArrayList<DownloadsStorage.DownloadItem> downloadItems = DownloadsStorage.getInstance().getItems();
+		for (int i = 0; i < downloadItems.size(); i++) {
+			// Restore queue after service restart, partially downloaded files will be resumed
+			DownloadsStorage.DownloadItem downloadItem = downloadItems.get(i);
+			TaskData taskData = new TaskData(downloadItem.chanName, downloadItem.uri, downloadItem.file);
+			taskData.validator = downloadItem.validator;
+			enqueue(taskData, i == downloadItems.size() - 1);
+		}
 	}
 
 	@Override
@@ -116,9 +134,13 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 		notificationsWorker.interrupt();
 		wakeLock.release();
 		DownloadManager.getInstance().notifyServiceDestroy();
-		if (readFileTask != null) {
-			readFileTask.cancel();
-		}
+		cancelActiveTasks();
+		// Delete partially downloaded files which will never be resumed,
+		// active tasks delete their files when cancelled
+		deletePartialFiles(queuedTasks);
+		deletePartialFiles(errorTasks);
+		DownloadsStorage.getInstance().setItems(new ArrayList<>());
+		DownloadsStorage.getInstance().await(true);
 		try {
 			notificationsWorker.join();
 		} catch (InterruptedException e) {
@@ -128,6 +150,14 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 		notificationManager.cancel(C.NOTIFICATION_ID_DOWNLOAD);
 	}
 
+	private static void deletePartialFiles(ArrayList<TaskData> tasks) {
+		for (TaskData taskData : tasks) {
+			if (taskData.validator != null) {
+				taskData.to.delete();
+			}
+		}
+	}
+
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId) {
 		boolean firstStart = this.firstStart;
@@ -139,8 +169,8 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 				ArrayList<DownloadItem> downloadItems = intent.getParcelableArrayListExtra(EXTRA_DOWNLOAD_ITEMS);
 				for (int i = 0; i < downloadItems.size(); i++) {
 					DownloadItem downloadItem = downloadItems.get(i);
-					enqueue(downloadItem.chanName, downloadItem.uri, new File(directory, downloadItem.name),
-							i == downloadItems.size() - 1);
+					enqueue(new TaskData(downloadItem.chanName, downloadItem.uri,
+							new File(directory, downloadItem.name)), i == downloadItems.size() - 1);
 				}
 			} else if (ACTION_SHOW_FAKE.equals(action)) {
 				File file = new File(intent.getStringExtra(EXTRA_FILE));
@@ -158,7 +188,7 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 				}
 				notificationsQueue.add(new NotificationData(getLastSuccessTaskData()));
 				refreshNotification(true);
-			} else if (firstStart) {
+			} else if (firstStart && queuedTasks.isEmpty()) {
 				// Start caused by clicking on notification when application was closed
 				stopSelf();
 			} else if (ACTION_OPEN_FILE.equals(action)) {
@@ -189,9 +219,7 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 			} else if (ACTION_CANCEL_DOWNLOADING.equals(action)) {
 				stopSelf();
 			} else if (ACTION_RETRY_DOWNLOADING.equals(action)) {
-				if (readFileTask != null) {
-					readFileTask.cancel();
-				}
+				// Active tasks keep running, cancelled task could still delete or write its file
 				successTasks.clear();
 				for (TaskData taskData : errorTasks) {
 					if (taskData.retryable) {
@@ -199,13 +227,12 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 					}
 				}
 				errorTasks.clear();
-				if (queuedTasks.size() > 0) {
-					TaskData taskData = queuedTasks.get(0);
-					start(taskData.chanName, taskData.from, taskData.to);
-				}
+				startTasks();
+				writeQueue();
 			}
 		}
-		return START_NOT_STICKY;
+		// Service will be restarted after process death to continue downloading
+		return queuedTasks.size() > 0 ? START_STICKY : START_NOT_STICKY;
 	}
 
 	@Override
@@ -224,11 +251,12 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 		public final String currentTaskFileName;
 		public final int progress;
 		public final int progressMax;
+		public final long speed;
 		public final boolean forceSetImage;
 
 		private NotificationData(boolean allowHeadsUp, boolean hasTask, int queudTasksSize, int successTasksSize,
 				ArrayList<TaskData> errorTasks, boolean hasExternal, TaskData lastSuccessTaskData,
-				String currentTaskFileName, int progress, int progressMax, boolean forceSetImage) {
+				String currentTaskFileName, int progress, int progressMax, long speed, boolean forceSetImage) {
 			this.allowHeadsUp = allowHeadsUp;
 			this.hasTask = hasTask;
 			this.queudTasksSize = queudTasksSize;
@@ -239,18 +267,19 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 			this.currentTaskFileName = currentTaskFileName;
 			this.progress = progress;
 			this.progressMax = progressMax;
+			this.speed = speed;
 			this.forceSetImage = forceSetImage;
 		}
 
 		public NotificationData(boolean allowHeadsUp, boolean hasTask, int queudTasksSize, int successTasksSize,
 				ArrayList<TaskData> errorTasks, boolean hasExternal, TaskData lastSuccessTaskData,
-				String currentTaskFileName, int progress, int progressMax) {
+				String currentTaskFileName, int progress, int progressMax, long speed) {
 			this(allowHeadsUp, hasTask, queudTasksSize, successTasksSize, errorTasks, hasExternal, lastSuccessTaskData,
-					currentTaskFileName, progress, progressMax, false);
+					currentTaskFileName, progress, progressMax, speed, false);
 		}
 
 		public NotificationData(TaskData lastSuccessTaskData) {
-			this(false, false, 0, 0, null, false, lastSuccessTaskData, null, 0, 0, true);
+			this(false, false, 0, 0, null, false, lastSuccessTaskData, null, 0, 0, 0L, true);
 		}
 	}
 
@@ -290,10 +319,13 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 	private Notification.BigTextStyle notificationStyle;
 	private CharSequence notificationBigText;
 
-	private volatile int progress, progressMax;
-	private volatile long lastUpdate;
+	private final ArrayList<TaskData> activeTasks = new ArrayList<>();
 
-	private ReadFileTask readFileTask;
+	private long lastUpdate;
+	private long downloadedBytes;
+	private long speedBytes;
+	private long speedTime;
+	private long speed;
 
 	private File scannedMediaFile;
 	private Uri scannedMediaUri;
@@ -305,6 +337,12 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 		public boolean retryable = true;
 		public boolean local = false;
 		public String errorInfo;
+		public HttpValidator validator;
+
+		public ReadFileTask task;
+		public long progress;
+		public long progressMax;
+		public boolean progressStarted;
 
 		public TaskData(String chanName, Uri from, File to) {
 			this.chanName = chanName;
@@ -329,8 +367,7 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 		}
 	}
 
-	private void enqueue(String chanName, Uri from, File to, boolean refreshNotification) {
-		TaskData taskData = new TaskData(chanName, from, to);
+	private void enqueue(TaskData taskData, boolean refreshNotification) {
 		boolean success = successTasks.contains(taskData);
 		if (!success && !queuedTasks.contains(taskData)) {
 			if (errorTasks.contains(taskData)) {
@@ -338,25 +375,119 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 			}
 			queuedTasks.add(taskData);
 			DownloadManager.getInstance().notifyFileAddedToDownloadQueue(taskData.to);
-			boolean started = start(chanName, from, to);
+			boolean started = startTasks();
 			if (!started && refreshNotification) {
 				refreshNotification(false);
 			}
-		} else if (success && readFileTask == null) {
+			if (refreshNotification) {
+				writeQueue();
+			}
+		} else if (success && activeTasks.isEmpty()) {
 			refreshNotification(true);
 		}
 	}
 
-	private boolean start(String chanName, Uri from, File to) {
-		if (readFileTask == null) {
-			progressMax = 0;
-			progress = 0;
-			lastUpdate = 0L;
-			readFileTask = new ReadFileTask(this, chanName, from, to, true, this);
-			readFileTask.executeOnExecutor(SINGLE_THREAD_EXECUTOR);
-			return true;
+	private static String getHostKey(TaskData taskData) {
+		// Single connection mode is applied to the whole chan in HttpClient
+		return AdvancedPreferences.isSingleConnection(taskData.chanName) ? taskData.chanName
+				: taskData.from.getAuthority();
+	}
+
+	private boolean canStart(TaskData taskData) {
+		String hostKey = getHostKey(taskData);
+		int limit = AdvancedPreferences.isSingleConnection(taskData.chanName) ? 1
+				: AdvancedPreferences.getDownloadHostConnections();
+		int count = 0;
+		for (TaskData activeTaskData : activeTasks) {
+			if (StringUtils.equals(hostKey, getHostKey(activeTaskData))) {
+				count++;
+			}
+		}
+		return count < limit;
+	}
+
+	private boolean startTasks() {
+		boolean started = false;
+		int parallelism = AdvancedPreferences.getDownloadParallelism();
+		for (TaskData taskData : queuedTasks) {
+			if (activeTasks.size() >= parallelism) {
+				break;
+			}
+			if (taskData.task == null && canStart(taskData)) {
+				start(taskData);
+				started = true;
+			}
+		}
+		return started;
+	}
+
+	private void start(TaskData taskData) {
+		taskData.progress = 0L;
+		taskData.progressMax = 0L;
+		taskData.progressStarted = false;
+		activeTasks.add(taskData);
+		TaskCallback callback = new TaskCallback(taskData);
+		taskData.task = new ReadFileTask(this, taskData.chanName, taskData.from, taskData.to, true, true,
+				taskData.validator, callback);
+		callback.task = taskData.task;
+		taskData.task.executeOnExecutor(EXECUTOR);
+	}
+
+	private void cancelActiveTasks() {
+		for (TaskData taskData : activeTasks) {
+			taskData.task.cancel();
+			taskData.task = null;
+		}
+		activeTasks.clear();
+	}
+
+	private class TaskCallback implements ReadFileTask.Callback, ReadFileTask.AsyncFinishCallback {
+		private final TaskData taskData;
+		public ReadFileTask task;
+
+		public TaskCallback(TaskData taskData) {
+			this.taskData = taskData;
+		}
+
+		@Override
+		public void onFileExists(Uri uri, File file) {
+			onFinishDownloading(true, uri, file, null);
+		}
+
+		@Override
+		public void onStartDownloading(Uri uri, File file) {
+			if (taskData.task == task) {
+				refreshNotification(false);
+			}
+		}
+
+		@Override
+		public void onFinishDownloading(boolean success, Uri uri, File file, ErrorItem errorItem) {
+			if (taskData.task == task) {
+				DownloadService.this.onFinishDownloading(taskData, success, errorItem);
+			}
+		}
+
+		@Override
+		public void onUpdateProgress(long progress, long progressMax) {
+			if (taskData.task == task) {
+				DownloadService.this.onUpdateProgress(taskData, progress, progressMax);
+			}
+		}
+
+		@Override
+		public void onFinishDownloadingInThread() {
+			DownloadManager.getInstance().notifyFinishDownloadingInThread();
+		}
+	}
+
+	private void writeQueue() {
+		ArrayList<DownloadsStorage.DownloadItem> downloadItems = new ArrayList<>(queuedTasks.size());
+		for (TaskData taskData : queuedTasks) {
+			downloadItems.add(new DownloadsStorage.DownloadItem(taskData.chanName, taskData.from, taskData.to,
+					taskData.validator));
 		}
-		return false;
+		DownloadsStorage.getInstance().setItems(downloadItems);
 	}
 
 	private boolean oldStateWithTask = false;
@@ -438,8 +569,14 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 			int total = ready + notificationData.queudTasksSize;
 			ready++;
 			contentTitle = context.getString(R.string.message_download_count_format, ready, total);
-			contentText = context.getString(R.string.message_download_name_format,
-					notificationData.currentTaskFileName);
+			if (notificationData.speed > 0L) {
+				contentText = context.getString(R.string.message_download_name_speed_format,
+						notificationData.currentTaskFileName, AttachmentItem.formatSize((int)
+						Math.min(notificationData.speed, Integer.MAX_VALUE)));
+			} else {
+				contentText = context.getString(R.string.message_download_name_format,
+						notificationData.currentTaskFileName);
+			}
 			headsUp = false;
 			builder.setProgress(notificationData.progressMax, notificationData.progress,
 					notificationData.progressMax == 0 || notificationData.progress > notificationData.progressMax
@@ -491,7 +628,7 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 	}
 
 	private void refreshNotification(boolean allowHeadsUp) {
-		boolean hasTask = readFileTask != null;
+		boolean hasTask = !activeTasks.isEmpty();
 		boolean hasExternal = false;
 		for (TaskData taskData : successTasks) {
 			if (!taskData.local) {
@@ -505,9 +642,46 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 				break;
 			}
 		}
+		String currentTaskFileName = null;
+		int progress = 0;
+		int progressMax = 0;
+		if (hasTask) {
+			currentTaskFileName = activeTasks.get(0).to.getName();
+			if (activeTasks.size() > 1) {
+				currentTaskFileName += " +" + (activeTasks.size() - 1);
+			}
+			long totalProgress = 0L;
+			long totalProgressMax = 0L;
+			for (TaskData taskData : activeTasks) {
+				if (taskData.progressMax <= 0L) {
+					totalProgressMax = 0L;
+					break;
+				}
+				totalProgress += taskData.progress;
+				totalProgressMax += taskData.progressMax;
+			}
+			if (totalProgressMax > 0L) {
+				// Total size may exceed integer range
+				progress = (int) (1000L * totalProgress / totalProgressMax);
+				progressMax = 1000;
+			}
+			long time = SystemClock.elapsedRealtime();
+			if (speedTime == 0L) {
+				speedTime = time;
+				speedBytes = downloadedBytes;
+			} else if (time - speedTime >= 1000L) {
+				long currentSpeed = 1000L * (downloadedBytes - speedBytes) / (time - speedTime);
+				speed = speed > 0L ? (speed + currentSpeed) / 2 : currentSpeed;
+				speedTime = time;
+				speedBytes = downloadedBytes;
+			}
+		} else {
+			speedTime = 0L;
+			speed = 0L;
+		}
 		notificationsQueue.add(new NotificationData(allowHeadsUp, hasTask, queuedTasks.size(), successTasks.size(),
-				errorTasks, hasExternal, getLastSuccessTaskData(), hasTask ? readFileTask.getFileName() : null,
-				progress, progressMax));
+				errorTasks, hasExternal, getLastSuccessTaskData(), currentTaskFileName, progress, progressMax,
+				hasTask ? speed : 0L));
 		if (hasTask) {
 			wakeLock.acquire();
 		} else {
@@ -519,28 +693,18 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 		return successTasks.size() > 0 ? successTasks.get(successTasks.size() - 1) : null;
 	}
 
-	@Override
-	public void onFileExists(Uri uri, File file) {
-		onFinishDownloading(true, uri, file, null);
-	}
-
-	@Override
-	public void onStartDownloading(Uri uri, File file) {
-		refreshNotification(false);
-	}
-
-	@Override
-	public void onFinishDownloading(boolean success, Uri uri, File file, ErrorItem errorItem) {
+	private void onFinishDownloading(TaskData taskData, boolean success, ErrorItem errorItem) {
 		if (success) {
-			scanFile(file);
+			scanFile(taskData.to);
 		}
-		boolean local = readFileTask.isDownloadingFromCache();
-		readFileTask = null;
-		TaskData taskData = new TaskData(null, uri, file);
-		taskData.local = local;
+		ReadFileTask task = taskData.task;
+		taskData.task = null;
+		activeTasks.remove(taskData);
+		taskData.local = task.isDownloadingFromCache();
+		taskData.validator = task.isResumable() ? task.getValidator() : null;
 		queuedTasks.remove(taskData);
 		if (success) {
-			DownloadManager.getInstance().notifyFileRemovedFromDownloadQueue(file);
+			DownloadManager.getInstance().notifyFileRemovedFromDownloadQueue(taskData.to);
 			successTasks.add(taskData);
 		} else {
 			if (errorItem != null) {
@@ -556,17 +720,30 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 			if (success) {
 				notificationsQueue.add(new NotificationData(taskData));
 			}
-			taskData = queuedTasks.get(0);
-			start(taskData.chanName, taskData.from, taskData.to);
+			if (!startTasks()) {
+				refreshNotification(false);
+			}
 		} else {
 			refreshNotification(true);
 		}
+		writeQueue();
 	}
 
-	@Override
-	public void onUpdateProgress(long progress, long progressMax) {
-		this.progress = (int) progress;
-		this.progressMax = (int) progressMax;
+	private void onUpdateProgress(TaskData taskData, long progress, long progressMax) {
+		if (taskData.progressStarted) {
+			downloadedBytes += Math.max(progress - taskData.progress, 0L);
+		} else {
+			// First progress value may include resumed part of file
+			taskData.progressStarted = true;
+		}
+		taskData.progress = progress;
+		taskData.progressMax = progressMax;
+		HttpValidator validator = taskData.task.getValidator();
+		if (taskData.validator != validator) {
+			// Store validator to resume download after process death
+			taskData.validator = validator;
+			writeQueue();
+		}
 		long t = System.currentTimeMillis();
 		if (t - lastUpdate >= 1000L) {
 			lastUpdate = t;
@@ -574,11 +751,6 @@ public class DownloadService extends Service implements ReadFileTask.Callback, R
 		}
 	}
 
-	@Override
-	public void onFinishDownloadingInThread() {
-		DownloadManager.getInstance().notifyFinishDownloadingInThread();
-	}
-
 	private void scanFile(File file) {
 		String[] fileArray = {file.getAbsolutePath()};
 		MediaScannerConnection.scanFile(context, fileArray, null, this);
@@ -50,9 +50,11 @@ import com.mishiranu.dashchan.content.NetworkObserver;
 import com.mishiranu.dashchan.content.storage.FavoritesStorage;
 import com.mishiranu.dashchan.preference.Preferences;
 import com.mishiranu.dashchan.util.ConcurrentUtils;
+import com.mishiranu.dashchan.util.Log;
 
 public class WatcherService extends Service implements FavoritesStorage.Observer, Handler.Callback {
 	private static final HashMap<String, ExecutorService> EXECUTORS = new HashMap<>();
+	private static final HashSet<String> BOARD_POSTS_COUNT_CHAN_NAMES = new HashSet<>();
 
 	static {
 		for (String chanName : ChanManager.getInstance().getAllChanNames()) {
@@ -60,10 +62,21 @@ public class WatcherService extends Service implements FavoritesStorage.Observer
 			if (configuration.getOption(ChanConfiguration.OPTION_READ_POSTS_COUNT)) {
 				EXECUTORS.put(chanName, ConcurrentUtils.newSingleThreadPool(60000, "ThreadsWatcher", chanName,
 						Process.THREAD_PRIORITY_BACKGROUND));
+				if (configuration.getOption(ChanConfiguration.OPTION_READ_BOARD_POSTS_COUNT)) {
+					BOARD_POSTS_COUNT_CHAN_NAMES.add(chanName);
+				}
 			}
 		}
 	}
 
+	// Busy threads are checked up to 2 times more often, quiet threads up to 8 times less often
+	private static final int MIN_INTERVAL_DIVIDER = 2;
+	private static final int MAX_INTERVAL_MULTIPLIER = 8;
+	private static final int MIN_INTERVAL = 15000;
+	private static final float BACKOFF_MULTIPLIER = 1.5f;
+	private static final int MAX_BACKOFF_STEPS = 6;
+	private static final float RATE_SMOOTHING = 0.3f;
+
 	private static final int MESSAGE_STOP = 0;
 	private static final int MESSAGE_UPDATE = 1;
 	private static final int MESSAGE_RESULT = 2;
@@ -71,6 +84,8 @@ public class WatcherService extends Service implements FavoritesStorage.Observer
 	private final Handler handler = new Handler(this);
 	private final LinkedHashMap<String, WatcherItem> watching = new LinkedHashMap<>();
 	private final HashMap<String, WatcherTask> tasks = new HashMap<>();
+	private final HashMap<String, RequestStatistics> statistics = new HashMap<>();
+	private final HashMap<String, BoardState> boardStates = new HashMap<>();
 
 	private boolean mergeChans = false;
 	private final HashMap<Client, String> clients = new HashMap<>();
@@ -102,6 +117,11 @@ public class WatcherService extends Service implements FavoritesStorage.Observer
 		private boolean lastWasAvailable;
 		private State lastState = State.DISABLED;
 
+		private long lastCountTime;
+		private float postsRate; // Posts per millisecond
+		private int quietCount;
+		private int delay;
+
 		public WatcherItem(FavoritesStorage.FavoriteItem favoriteItem) {
 			this(favoriteItem.chanName, favoriteItem.boardName, favoriteItem.threadNumber, favoriteItem.postsCount,
 					favoriteItem.newPostsCount, favoriteItem.hasNewPosts, favoriteItem.watcherValidator);
@@ -141,6 +161,17 @@ public class WatcherService extends Service implements FavoritesStorage.Observer
 		}
 	}
 
+	private static class RequestStatistics {
+		public int requestsCount;
+		public int notModifiedCount;
+		public int errorsCount;
+	}
+
+	private static class BoardState {
+		public HttpValidator validator;
+		public final HashSet<String> threadNumbers = new HashSet<>();
+	}
+
 	private static int calculatePostsCountDifference(int newPostsCount, int postsCount) {
 		if (newPostsCount == NEW_POSTS_COUNT_DELETED) {
 			return POSTS_COUNT_DIFFERENCE_DELETED;
@@ -267,7 +298,7 @@ public class WatcherService extends Service implements FavoritesStorage.Observer
 					WatcherItem watcherItem = new WatcherItem(favoriteItem);
 					watching.put(watcherItem.key, watcherItem);
 					if (isActiveChanName(favoriteItem.chanName)) {
-						enqueue(watcherItem, true);
+						enqueue(watcherItem, true, false);
 					}
 				}
 				break;
@@ -277,7 +308,7 @@ public class WatcherService extends Service implements FavoritesStorage.Observer
 				if (watcherItem != null) {
 					watching.remove(watcherItem.key);
 					WatcherTask task = tasks.remove(watcherItem.key);
-					if (task != null) {
+					if (task != null && !tasks.containsValue(task)) {
 						task.cancel(false);
 					}
 					handler.removeMessages(MESSAGE_UPDATE, watcherItem);
@@ -333,6 +364,7 @@ public class WatcherService extends Service implements FavoritesStorage.Observer
 				started = false;
 				handler.removeMessages(MESSAGE_UPDATE);
 				cancelAll();
+				writeRequestStatistics();
 			} else {
 				handler.sendEmptyMessageDelayed(MESSAGE_STOP, 1000);
 			}
@@ -390,7 +422,7 @@ public class WatcherService extends Service implements FavoritesStorage.Observer
 		handler.removeMessages(MESSAGE_UPDATE);
 		for (WatcherItem watcherItem : watching.values()) {
 			if (isActiveChanName(watcherItem.chanName)) {
-				enqueue(watcherItem, true);
+				enqueue(watcherItem, true, true);
 			}
 		}
 	}
@@ -402,23 +434,42 @@ public class WatcherService extends Service implements FavoritesStorage.Observer
 		for (WatcherItem watcherItem : watching.values()) {
 			if (isActiveChanName(watcherItem.chanName)) {
 				long dt = time - watcherItem.lastUpdateTime;
-				if (dt >= interval) {
-					enqueue(watcherItem, available);
+				int delay = getDelay(watcherItem);
+				if (dt >= delay) {
+					enqueue(watcherItem, available, false);
 				} else {
-					handler.sendMessageDelayed(handler.obtainMessage(MESSAGE_UPDATE, watcherItem), interval - dt);
+					handler.sendMessageDelayed(handler.obtainMessage(MESSAGE_UPDATE, watcherItem), delay - dt);
 				}
 			}
 		}
 	}
 
-	private void enqueue(WatcherItem watcherItem, boolean available) {
+	private void enqueue(WatcherItem watcherItem, boolean available, boolean all) {
 		if (!tasks.containsKey(watcherItem.key)) {
 			if (available) {
-				WatcherTask task = new WatcherTask(watcherItem);
-				tasks.put(watcherItem.key, task);
+				ArrayList<WatcherItem> watcherItems = new ArrayList<>();
+				watcherItems.add(watcherItem);
+				if (BOARD_POSTS_COUNT_CHAN_NAMES.contains(watcherItem.chanName)) {
+					// Check other threads from the same board with one request if they are about to be checked
+					long time = System.currentTimeMillis();
+					for (WatcherItem boardItem : watching.values()) {
+						if (boardItem != watcherItem && boardItem.chanName.equals(watcherItem.chanName) &&
+								StringUtils.equals(boardItem.boardName, watcherItem.boardName) &&
+								!tasks.containsKey(boardItem.key) && (all ||
+								time - boardItem.lastUpdateTime >= getDelay(boardItem) / 2)) {
+							watcherItems.add(boardItem);
+						}
+					}
+				}
+				WatcherTask task = new WatcherTask(watcherItems, watcherItems.size() > 1
+						? boardStates.get(makeBoardKey(watcherItem.chanName, watcherItem.boardName)) : null);
 				EXECUTORS.get(watcherItem.chanName).execute(task);
-				watcherItem.lastWasAvailable = true;
-				notifyUpdate(watcherItem, State.BUSY);
+				for (WatcherItem taskItem : watcherItems) {
+					tasks.put(taskItem.key, task);
+					handler.removeMessages(MESSAGE_UPDATE, taskItem);
+					taskItem.lastWasAvailable = true;
+					notifyUpdate(taskItem, State.BUSY);
+				}
 			} else {
 				enqueueDelayed(watcherItem);
 				if (watcherItem.lastWasAvailable) {
@@ -431,19 +482,64 @@ public class WatcherService extends Service implements FavoritesStorage.Observer
 
 	private void enqueueDelayed(WatcherItem watcherItem) {
 		if (refreshPeriodically) {
-			handler.sendMessageDelayed(handler.obtainMessage(MESSAGE_UPDATE, watcherItem), interval);
+			handler.sendMessageDelayed(handler.obtainMessage(MESSAGE_UPDATE, watcherItem), getDelay(watcherItem));
+		}
+	}
+
+	private int getDelay(WatcherItem watcherItem) {
+		return watcherItem.delay > 0 ? watcherItem.delay : interval;
+	}
+
+	private void updateDelay(WatcherItem watcherItem, int postsCountIncrease, long time) {
+		if (watcherItem.lastCountTime > 0 && time > watcherItem.lastCountTime) {
+			float rate = (float) postsCountIncrease / (time - watcherItem.lastCountTime);
+			watcherItem.postsRate += (rate - watcherItem.postsRate) * RATE_SMOOTHING;
+		}
+		watcherItem.lastCountTime = time;
+		watcherItem.quietCount = postsCountIncrease > 0 ? 0 : watcherItem.quietCount + 1;
+		int minDelay = Math.max(MIN_INTERVAL, interval / MIN_INTERVAL_DIVIDER);
+		int maxDelay = interval * MAX_INTERVAL_MULTIPLIER;
+		// Expect about one new post per check for busy threads
+		float delay = watcherItem.postsRate > 0f ? Math.min(interval, 1f / watcherItem.postsRate) : interval;
+		delay *= Math.pow(BACKOFF_MULTIPLIER, Math.min(watcherItem.quietCount, MAX_BACKOFF_STEPS));
+		watcherItem.delay = (int) Math.max(minDelay, Math.min(maxDelay, delay));
+	}
+
+	private RequestStatistics obtainRequestStatistics(String chanName) {
+		RequestStatistics requestStatistics = statistics.get(chanName);
+		if (requestStatistics == null) {
+			requestStatistics = new RequestStatistics();
+			statistics.put(chanName, requestStatistics);
 		}
+		return requestStatistics;
+	}
+
+	private void writeRequestStatistics() {
+		for (HashMap.Entry<String, RequestStatistics> entry : statistics.entrySet()) {
+			RequestStatistics requestStatistics = entry.getValue();
+			Log.persistent().write(Log.DISABLE_QUOTES, "Watcher statistics for", entry.getKey() + ":",
+					"requests:", requestStatistics.requestsCount, "not modified:", requestStatistics.notModifiedCount,
+					"errors:", requestStatistics.errorsCount);
+		}
+		statistics.clear();
 	}
 
 	private void cancelAll() {
 		boolean available = isAvailable();
-		for (WatcherTask task : tasks.values()) {
-			task.cancel(false);
-			notifyUpdate(task.watcherItem, available ? State.ENABLED : State.UNAVAILABLE);
+		for (HashMap.Entry<String, WatcherTask> entry : tasks.entrySet()) {
+			entry.getValue().cancel(false);
+			WatcherItem watcherItem = watching.get(entry.getKey());
+			if (watcherItem != null) {
+				notifyUpdate(watcherItem, available ? State.ENABLED : State.UNAVAILABLE);
+			}
 		}
 		tasks.clear();
 	}
 
+	private static String makeBoardKey(String chanName, String boardName) {
+		return chanName + "/" + boardName;
+	}
+
 	private static class Result {
 		public final WatcherItem watcherItem;
 		public int newPostsCount = NEW_POSTS_COUNT_DELETED - 1;
@@ -451,38 +547,134 @@ public class WatcherService extends Service implements FavoritesStorage.Observer
 		public boolean error = false;
 		public boolean interrupt = false;
 		public boolean notModified = false;
+		public int requestsCount;
+		public int notModifiedRequestsCount;
+		public int errorRequestsCount;
+
+		public WatcherTask task;
+		public boolean boardResult = false;
+		public HttpValidator boardValidator;
 
 		public Result(WatcherItem watcherItem) {
 			this.watcherItem = watcherItem;
 		}
 	}
 
-	private class WatcherRunnable implements Callable<Result> {
+	private static class WatcherRunnable implements Callable<ArrayList<Result>> {
 		private final HttpHolder holder = new HttpHolder();
-		private final Result result;
+		private final ArrayList<WatcherItem> watcherItems;
+		private final HttpValidator boardValidator;
 
-		public WatcherRunnable(WatcherItem watcherItem) {
-			result = new Result(watcherItem);
+		public WatcherRunnable(ArrayList<WatcherItem> watcherItems, HttpValidator boardValidator) {
+			this.watcherItems = watcherItems;
+			this.boardValidator = boardValidator;
 		}
 
 		@Override
-		public Result call() {
+		public ArrayList<Result> call() {
+			ArrayList<Result> results = new ArrayList<>(watcherItems.size());
+			for (WatcherItem watcherItem : watcherItems) {
+				results.add(new Result(watcherItem));
+			}
+			try {
+				ArrayList<Result> remainingResults = results;
+				if (results.size() > 1) {
+					remainingResults = readBoardPostsCount(results);
+				}
+				boolean interrupt = false;
+				for (Result result : remainingResults) {
+					if (interrupt) {
+						result.error = true;
+					} else {
+						readPostsCount(result);
+						interrupt = result.interrupt;
+					}
+				}
+			} finally {
+				holder.cleanup();
+			}
+			return results;
+		}
+
+		// Returns results which must be read separately
+		private ArrayList<Result> readBoardPostsCount(ArrayList<Result> results) {
+			// Board request is counted once, in the first result
+			Result firstResult = results.get(0);
+			WatcherItem firstItem = firstResult.watcherItem;
+			firstResult.requestsCount++;
+			ArrayList<String> threadNumbers = new ArrayList<>(results.size());
+			for (Result result : results) {
+				threadNumbers.add(result.watcherItem.threadNumber);
+			}
+			try {
+				ChanPerformer performer = ChanPerformer.get(firstItem.chanName);
+				ChanPerformer.ReadBoardPostsCountResult boardResult = performer.safe()
+						.onReadBoardPostsCount(new ChanPerformer.ReadBoardPostsCountData(firstItem.boardName,
+						threadNumbers, 5000, 5000, holder, boardValidator));
+				HttpValidator validator = boardResult != null ? boardResult.validator : null;
+				if (validator == null) {
+					validator = holder.getValidator();
+				}
+				ArrayList<Result> remainingResults = new ArrayList<>();
+				for (Result result : results) {
+					Integer postsCount = boardResult != null ? boardResult.postsCounts
+							.get(result.watcherItem.threadNumber) : null;
+					if (postsCount != null) {
+						result.newPostsCount = postsCount;
+						result.validator = result.watcherItem.validator;
+						result.boardResult = true;
+						result.boardValidator = validator;
+					} else {
+						// Thread is missing on board page, it can be deleted or just not listed
+						remainingResults.add(result);
+					}
+				}
+				return remainingResults;
+			} catch (HttpException e) {
+				int responseCode = e.getResponseCode();
+				if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+					firstResult.notModifiedRequestsCount++;
+					for (Result result : results) {
+						result.notModified = true;
+						result.boardResult = true;
+						result.boardValidator = boardValidator;
+					}
+					return new ArrayList<>();
+				} else if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+					firstResult.errorRequestsCount++;
+					for (Result result : results) {
+						result.interrupt = true;
+						result.error = true;
+					}
+					return new ArrayList<>();
+				}
+				firstResult.errorRequestsCount++;
+			} catch (ExtensionException | InvalidResponseException e) {
+				e.getErrorItemAndHandle();
+				firstResult.errorRequestsCount++;
+			}
+			return results;
+		}
+
+		private void readPostsCount(Result result) {
 			WatcherItem watcherItem = result.watcherItem;
+			result.requestsCount++;
 			try {
 				ChanPerformer performer = ChanPerformer.get(watcherItem.chanName);
-				ChanPerformer.ReadPostsCountResult result = performer.safe()
+				ChanPerformer.ReadPostsCountResult readResult = performer.safe()
 						.onReadPostsCount(new ChanPerformer.ReadPostsCountData(watcherItem.boardName,
 						watcherItem.threadNumber, 5000, 5000, holder, watcherItem.validator));
-				this.result.newPostsCount = result != null ? result.postsCount : 0;
-				HttpValidator validator = result != null ? result.validator : null;
+				result.newPostsCount = readResult != null ? readResult.postsCount : 0;
+				HttpValidator validator = readResult != null ? readResult.validator : null;
 				if (validator == null) {
 					validator = holder.getValidator();
 				}
-				this.result.validator = validator;
+				result.validator = validator;
 			} catch (HttpException e) {
 				int responseCode = e.getResponseCode();
 				if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
 					result.notModified = true;
+					result.notModifiedRequestsCount++;
 				} else if (responseCode == HttpURLConnection.HTTP_NOT_FOUND ||
 						responseCode == HttpURLConnection.HTTP_GONE) {
 					result.newPostsCount = NEW_POSTS_COUNT_DELETED;
@@ -493,33 +685,60 @@ public class WatcherService extends Service implements FavoritesStorage.Observer
 						result.interrupt = true;
 					}
 					result.error = true;
+					result.errorRequestsCount++;
 				}
 			} catch (ExtensionException | InvalidResponseException e) {
 				e.getErrorItemAndHandle();
 				result.error = true;
-			} finally {
-				holder.cleanup();
+				result.errorRequestsCount++;
 			}
-			return result;
 		}
 	}
 
-	private class WatcherTask extends FutureTask<Result> {
-		public final WatcherItem watcherItem;
-
-		public WatcherTask(WatcherItem watcherItem) {
-			super(new WatcherRunnable(watcherItem));
-			this.watcherItem = watcherItem;
+	private class WatcherTask extends FutureTask<ArrayList<Result>> {
+		public WatcherTask(ArrayList<WatcherItem> watcherItems, BoardState boardState) {
+			super(new WatcherRunnable(watcherItems, getBoardValidator(watcherItems, boardState)));
 		}
 
 		@Override
 		protected void done() {
+			ArrayList<Result> results;
 			try {
-				handler.obtainMessage(MESSAGE_RESULT, get()).sendToTarget();
+				results = get();
 			} catch (Exception e) {
 				// Task cancelled
+				return;
+			}
+			for (Result result : results) {
+				result.task = this;
+				handler.obtainMessage(MESSAGE_RESULT, result).sendToTarget();
+			}
+		}
+	}
+
+	// Board validator is valid only if all threads were checked with the previous board request
+	private static HttpValidator getBoardValidator(ArrayList<WatcherItem> watcherItems, BoardState boardState) {
+		if (boardState != null && boardState.validator != null) {
+			for (WatcherItem watcherItem : watcherItems) {
+				if (!boardState.threadNumbers.contains(watcherItem.threadNumber)) {
+					return null;
+				}
 			}
+			return boardState.validator;
+		}
+		return null;
+	}
+
+	private void handleBoardResult(Result result) {
+		WatcherItem watcherItem = result.watcherItem;
+		String boardKey = makeBoardKey(watcherItem.chanName, watcherItem.boardName);
+		BoardState boardState = boardStates.get(boardKey);
+		if (boardState == null || boardState.validator != result.boardValidator) {
+			boardState = new BoardState();
+			boardState.validator = result.boardValidator;
+			boardStates.put(boardKey, boardState);
 		}
+		boardState.threadNumbers.add(watcherItem.threadNumber);
 	}
 
 	@Override
@@ -531,26 +750,39 @@ public class WatcherService extends Service implements FavoritesStorage.Observer
 			}
 			case MESSAGE_UPDATE: {
 				WatcherItem watcherItem = (WatcherItem) msg.obj;
-				enqueue(watcherItem, isAvailable());
+				enqueue(watcherItem, isAvailable(), false);
 				return true;
 			}
 			case MESSAGE_RESULT: {
 				Result result = (Result) msg.obj;
 				WatcherItem watcherItem = result.watcherItem;
+				if (tasks.get(watcherItem.key) != result.task) {
+					// Watcher was disabled or task was cancelled
+					return true;
+				}
 				tasks.remove(watcherItem.key);
+				if (result.boardResult) {
+					handleBoardResult(result);
+				}
 				long time = System.currentTimeMillis();
 				boolean available = isAvailable();
 				watcherItem.lastUpdateTime = time;
 				watcherItem.lastWasAvailable = available;
+				RequestStatistics requestStatistics = obtainRequestStatistics(watcherItem.chanName);
+				requestStatistics.requestsCount += result.requestsCount;
+				requestStatistics.notModifiedCount += result.notModifiedRequestsCount;
+				requestStatistics.errorsCount += result.errorRequestsCount;
 				if (result.interrupt) {
 					String chanName = result.watcherItem.chanName;
 					watcherItem.error = true;
-					Iterator<WatcherTask> iterator = tasks.values().iterator();
+					Iterator<HashMap.Entry<String, WatcherTask>> iterator = tasks.entrySet().iterator();
 					while (iterator.hasNext()) {
-						WatcherTask task = iterator.next();
-						WatcherItem cancelItem = task.watcherItem;
-						if (cancelItem.chanName.equals(chanName)) {
-							task.cancel(false);
+						HashMap.Entry<String, WatcherTask> entry = iterator.next();
+						WatcherItem cancelItem = watching.get(entry.getKey());
+						if (cancelItem == null) {
+							iterator.remove();
+						} else if (cancelItem.chanName.equals(chanName)) {
+							entry.getValue().cancel(false);
 							cancelItem.error = true;
 							cancelItem.lastUpdateTime = time;
 							cancelItem.lastWasAvailable = available;
@@ -561,9 +793,17 @@ public class WatcherService extends Service implements FavoritesStorage.Observer
 					}
 				} else {
 					watcherItem.error = result.error;
-					if (!result.notModified) {
+					if (result.notModified) {
+						updateDelay(watcherItem, 0, time);
+					} else {
 						int newPostsCount = result.newPostsCount;
 						if (newPostsCount >= NEW_POSTS_COUNT_DELETED) {
+							if (newPostsCount == NEW_POSTS_COUNT_DELETED) {
+								watcherItem.delay = interval * MAX_INTERVAL_MULTIPLIER;
+							} else {
+								updateDelay(watcherItem, Math.max(0, newPostsCount - Math.max(watcherItem.newPostsCount,
+										watcherItem.postsCount)), time);
+							}
 							if (newPostsCount > watcherItem.newPostsCount && watcherItem.newPostsCount > 1
 									|| newPostsCount > watcherItem.postsCount) {
 								watcherItem.hasNewPosts = true;
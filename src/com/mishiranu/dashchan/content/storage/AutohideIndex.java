@@ -0,0 +1,382 @@
+/*
+ * Copyright 2014-2016 Fukurou Mishiranu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mishiranu.dashchan.content.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import chan.util.StringUtils;
+
+import com.mishiranu.dashchan.text.AhoCorasickMatcher;
+
+public class AutohideIndex {
+	private static final Pattern COMMENTS_FLAG = Pattern.compile("\\(\\?[^:)]*x");
+	private static final String BREAKING_ESCAPES = "dwsDWSbBAzZGntrfaehHvVRX";
+
+	private final AutohideStorage.AutohideItem[] items;
+	private final boolean[] filtered;
+	private final HashMap<String, HashMap<String, ArrayList<Integer>>> buckets = new HashMap<>();
+	private final HashMap<String, int[]> indicesCache = new HashMap<>();
+
+	private final AhoCorasickMatcher matcher;
+	private final int[][] literalItems;
+
+	AutohideIndex(List<AutohideStorage.AutohideItem> autohideItems) {
+		items = autohideItems.toArray(new AutohideStorage.AutohideItem[autohideItems.size()]);
+		filtered = new boolean[items.length];
+		ArrayList<String> literals = new ArrayList<>();
+		ArrayList<ArrayList<Integer>> literalItems = new ArrayList<>();
+		HashMap<String, Integer> literalIndices = new HashMap<>();
+		for (int i = 0; i < items.length; i++) {
+			AutohideStorage.AutohideItem autohideItem = items[i];
+			if (autohideItem.getPattern() == null) {
+				// Invalid pattern never matches
+				continue;
+			}
+			ArrayList<String> itemLiterals = extractLiterals(autohideItem.value);
+			if (itemLiterals != null) {
+				filtered[i] = true;
+				for (String literal : itemLiterals) {
+					Integer index = literalIndices.get(literal);
+					if (index == null) {
+						index = literals.size();
+						literals.add(literal);
+						literalItems.add(new ArrayList<>());
+						literalIndices.put(literal, index);
+					}
+					literalItems.get(index).add(i);
+				}
+			}
+			if (autohideItem.chanNames == null) {
+				addToBucket(null, autohideItem.boardName, i);
+			} else {
+				for (String chanName : autohideItem.chanNames) {
+					addToBucket(chanName, autohideItem.boardName, i);
+				}
+			}
+		}
+		matcher = literals.isEmpty() ? null : new AhoCorasickMatcher(literals, true);
+		this.literalItems = new int[literalItems.size()][];
+		for (int i = 0; i < this.literalItems.length; i++) {
+			ArrayList<Integer> itemIndices = literalItems.get(i);
+			int[] array = new int[itemIndices.size()];
+			for (int j = 0; j < array.length; j++) {
+				array[j] = itemIndices.get(j);
+			}
+			this.literalItems[i] = array;
+		}
+	}
+
+	private void addToBucket(String chanName, String boardName, int index) {
+		HashMap<String, ArrayList<Integer>> boards = buckets.get(chanName);
+		if (boards == null) {
+			boards = new HashMap<>();
+			buckets.put(chanName, boards);
+		}
+		String boardKey = StringUtils.isEmpty(boardName) ? null : boardName;
+		ArrayList<Integer> indices = boards.get(boardKey);
+		if (indices == null) {
+			indices = new ArrayList<>();
+			boards.put(boardKey, indices);
+		}
+		indices.add(index);
+	}
+
+	public AutohideStorage.AutohideItem getItem(int index) {
+		return items[index];
+	}
+
+	public int[] getItemIndices(String chanName, String boardName) {
+		String key = chanName + "/" + boardName;
+		synchronized (indicesCache) {
+			int[] result = indicesCache.get(key);
+			if (result == null) {
+				ArrayList<Integer> indices = new ArrayList<>();
+				collectIndices(indices, buckets.get(null), boardName);
+				if (chanName != null) {
+					collectIndices(indices, buckets.get(chanName), boardName);
+				}
+				result = new int[indices.size()];
+				for (int i = 0; i < result.length; i++) {
+					result[i] = indices.get(i);
+				}
+				// Rules must be checked in the original order
+				Arrays.sort(result);
+				indicesCache.put(key, result);
+			}
+			return result;
+		}
+	}
+
+	private static void collectIndices(ArrayList<Integer> indices, HashMap<String, ArrayList<Integer>> boards,
+			String boardName) {
+		if (boards != null) {
+			if (boardName == null) {
+				for (ArrayList<Integer> boardIndices : boards.values()) {
+					indices.addAll(boardIndices);
+				}
+			} else {
+				ArrayList<Integer> boardIndices = boards.get(null);
+				if (boardIndices != null) {
+					indices.addAll(boardIndices);
+				}
+				boardIndices = boards.get(boardName);
+				if (boardIndices != null) {
+					indices.addAll(boardIndices);
+				}
+			}
+		}
+	}
+
+	public Candidates findCandidates(String text) {
+		if (matcher == null || hasSpecialFolding(text)) {
+			return Candidates.ALL;
+		}
+		BitSet found = matcher.find(text);
+		BitSet itemIndices = new BitSet(items.length);
+		for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+			for (int index : literalItems[i]) {
+				itemIndices.set(index);
+			}
+		}
+		return new Candidates(filtered, itemIndices);
+	}
+
+	public static class Candidates {
+		private static final Candidates ALL = new Candidates(null, null);
+
+		private final boolean[] filtered;
+		private final BitSet itemIndices;
+
+		private Candidates(boolean[] filtered, BitSet itemIndices) {
+			this.filtered = filtered;
+			this.itemIndices = itemIndices;
+		}
+
+		public boolean contains(int index) {
+			return filtered == null || !filtered[index] || itemIndices.get(index);
+		}
+	}
+
+	private static boolean hasSpecialFolding(char c) {
+		// Characters which are folded to multiple characters in full case folding
+		return c == 0x00df || c == 0x0130 || c == 0x0149 || c == 0x01f0 || c == 0x0390 || c == 0x03b0 ||
+				c == 0x0587 || c >= 0x1e96 && c <= 0x1e9e || c >= 0x1f50 && c <= 0x1fff || c >= 0xfb00 && c <= 0xfb17;
+	}
+
+	private static boolean hasSpecialFolding(String text) {
+		for (int i = 0, length = text.length(); i < length; i++) {
+			char c = text.charAt(i);
+			if (c >= 0x80 && hasSpecialFolding(c)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Returns literals, one of which must be contained in any match, or null if pattern is too complex
+	static ArrayList<String> extractLiterals(String value) {
+		if (COMMENTS_FLAG.matcher(value).find()) {
+			return null;
+		}
+		ArrayList<String> literals = new ArrayList<>();
+		StringBuilder run = new StringBuilder();
+		String best = "";
+		boolean quote = false;
+		int length = value.length();
+		int i = 0;
+		while (i < length) {
+			char c = value.charAt(i++);
+			int literal = -1;
+			if (quote) {
+				if (c == '\\' && i < length && value.charAt(i) == 'E') {
+					quote = false;
+					i++;
+					if (i < length && "*+?{".indexOf(value.charAt(i)) >= 0) {
+						return null;
+					}
+					continue;
+				}
+				literal = c;
+			} else {
+				switch (c) {
+					case '\\': {
+						if (i >= length) {
+							return null;
+						}
+						char e = value.charAt(i++);
+						if (e == 'Q') {
+							quote = true;
+							continue;
+						} else if (!Character.isLetterOrDigit(e)) {
+							literal = e;
+						} else if (BREAKING_ESCAPES.indexOf(e) < 0) {
+							return null;
+						}
+						break;
+					}
+					case '[': {
+						i = skipClass(value, i);
+						if (i < 0) {
+							return null;
+						}
+						break;
+					}
+					case '(': {
+						i = skipGroup(value, i);
+						if (i < 0) {
+							return null;
+						}
+						break;
+					}
+					case '|': {
+						if (run.length() > best.length()) {
+							best = run.toString();
+						}
+						if (best.isEmpty()) {
+							return null;
+						}
+						literals.add(best);
+						best = "";
+						run.setLength(0);
+						continue;
+					}
+					case ')':
+					case '*':
+					case '+':
+					case '?':
+					case '{': {
+						return null;
+					}
+					case '.':
+					case '^':
+					case '$': {
+						break;
+					}
+					default: {
+						literal = c;
+						break;
+					}
+				}
+			}
+			boolean optional = false;
+			boolean repeat = false;
+			if (!quote && i < length) {
+				char q = value.charAt(i);
+				if (q == '*' || q == '?') {
+					optional = true;
+					repeat = true;
+					i++;
+				} else if (q == '+') {
+					repeat = true;
+					i++;
+				} else if (q == '{') {
+					int end = value.indexOf('}', i);
+					int minimum = 0;
+					int digits = 0;
+					for (int j = i + 1; j < end && Character.isDigit(value.charAt(j)); j++) {
+						minimum = Math.min(minimum * 10 + value.charAt(j) - '0', 1000);
+						digits++;
+					}
+					if (end < 0 || digits == 0) {
+						return null;
+					}
+					optional = minimum == 0;
+					repeat = true;
+					i = end + 1;
+				}
+				if (repeat && i < length && (value.charAt(i) == '?' || value.charAt(i) == '+')) {
+					i++;
+				}
+			}
+			if (literal >= 0 && !optional) {
+				run.append((char) literal);
+			}
+			if (literal < 0 || repeat) {
+				if (run.length() > best.length()) {
+					best = run.toString();
+				}
+				run.setLength(0);
+			}
+		}
+		if (run.length() > best.length()) {
+			best = run.toString();
+		}
+		if (best.isEmpty()) {
+			return null;
+		}
+		literals.add(best);
+		for (String literal : literals) {
+			for (int j = 0; j < literal.length(); j++) {
+				if (hasSpecialFolding(literal.charAt(j))) {
+					return null;
+				}
+			}
+		}
+		return literals;
+	}
+
+	private static int skipClass(String value, int i) {
+		int length = value.length();
+		if (i < length && value.charAt(i) == '^') {
+			i++;
+		}
+		if (i < length && value.charAt(i) == ']') {
+			return -1;
+		}
+		int depth = 1;
+		while (i < length) {
+			char c = value.charAt(i++);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				depth++;
+			} else if (c == ']' && --depth == 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int skipGroup(String value, int i) {
+		int length = value.length();
+		int depth = 1;
+		while (i < length) {
+			char c = value.charAt(i++);
+			if (c == '\\') {
+				if (i < length && value.charAt(i) == 'Q') {
+					return -1;
+				}
+				i++;
+			} else if (c == '[') {
+				i = skipClass(value, i);
+				if (i < 0) {
+					return -1;
+				}
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')' && --depth == 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -51,6 +51,7 @@ public class AutohideStorage extends StorageManager.Storage {
 	}
 
 	private final ArrayList<AutohideItem> autohideItems = new ArrayList<>();
+	private AutohideIndex autohideIndex;
 
 	private AutohideStorage() {
 		super("autohide", 1000, 10000);
@@ -94,6 +95,17 @@ public class AutohideStorage extends StorageManager.Storage {
 		return autohideItems;
 	}
 
+	public synchronized AutohideIndex getIndex() {
+		if (autohideIndex == null) {
+			autohideIndex = new AutohideIndex(autohideItems);
+		}
+		return autohideIndex;
+	}
+
+	private synchronized void invalidateIndex() {
+		autohideIndex = null;
+	}
+
 	@Override
 	public Object onClone() {
 		ArrayList<AutohideItem> autohideItems = new ArrayList<>(this.autohideItems.size());
@@ -137,16 +149,19 @@ public class AutohideStorage extends StorageManager.Storage {
 
 	public void add(AutohideItem autohideItem) {
 		autohideItems.add(autohideItem);
+		invalidateIndex();
 		serialize();
 	}
 
 	public void update(int index, AutohideItem autohideItem) {
 		autohideItems.set(index, autohideItem);
+		invalidateIndex();
 		serialize();
 	}
 
 	public void delete(int index) {
 		autohideItems.remove(index);
+		invalidateIndex();
 		serialize();
 	}
 
@@ -201,7 +216,7 @@ public class AutohideStorage extends StorageManager.Storage {
 			this.value = StringUtils.emptyIfNull(value);
 		}
 
-		public String find(String data) {
+		Pattern getPattern() {
 			if (!ready) {
 				synchronized (this) {
 					if (!ready) {
@@ -214,6 +229,11 @@ public class AutohideStorage extends StorageManager.Storage {
 					}
 				}
 			}
+			return pattern;
+		}
+
+		public String find(String data) {
+			Pattern pattern = getPattern();
 			try {
 				Matcher matcher = pattern.matcher(data);
 				if (matcher.find()) {
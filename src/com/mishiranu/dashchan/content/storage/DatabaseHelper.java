@@ -25,6 +25,7 @@ import java.util.concurrent.Executor;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.os.Process;
 
 import chan.http.HttpValidator;
@@ -36,7 +37,7 @@ import com.mishiranu.dashchan.util.FlagUtils;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
 	private static final String DATABASE_NAME = "dashchan.db";
-	private static final int DATABASE_VERSION = 8;
+	private static final int DATABASE_VERSION = 9;
 
 	static final String TABLE_HISTORY = "history";
 	static final String TABLE_HIDDEN_THREADS = "hidden_threads";
@@ -80,6 +81,31 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 				.addColumn(HiddenThreadsDatabase.COLUMN_BOARD_NAME, TYPE_TEXT)
 				.addColumn(HiddenThreadsDatabase.COLUMN_THREAD_NUMBER, TYPE_TEXT)
 				.addColumn(HiddenThreadsDatabase.COLUMN_HIDDEN, TYPE_INTEGER).execute(db);
+		createThreadIndexes(db);
+	}
+
+	private static void createThreadIndexes(SQLiteDatabase db) {
+		new IndexCreator(TABLE_HISTORY).addColumn(HistoryDatabase.COLUMN_CHAN_NAME)
+				.addColumn(HistoryDatabase.COLUMN_BOARD_NAME)
+				.addColumn(HistoryDatabase.COLUMN_THREAD_NUMBER).execute(db);
+		new IndexCreator(TABLE_HIDDEN_THREADS).addColumn(HiddenThreadsDatabase.COLUMN_CHAN_NAME)
+				.addColumn(HiddenThreadsDatabase.COLUMN_BOARD_NAME)
+				.addColumn(HiddenThreadsDatabase.COLUMN_THREAD_NUMBER).execute(db);
+	}
+
+	static String buildThreadWhere(String boardName) {
+		// Rows with null board are handled separately, because "board_name = NULL" is never true
+		return "chan_name = ? AND board_name " + (boardName == null ? "IS NULL" : "= ?") + " AND thread_number = ?";
+	}
+
+	static int bindThreadArgs(SQLiteStatement statement, int index, String chanName, String boardName,
+			String threadNumber) {
+		statement.bindString(index++, chanName);
+		if (boardName != null) {
+			statement.bindString(index++, boardName);
+		}
+		statement.bindString(index++, threadNumber);
+		return index;
 	}
 
 	@Override
@@ -168,6 +194,17 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 				db.execSQL("DROP TABLE favorites");
 				db.execSQL("DROP TABLE autohide");
 			}
+			case 8: {
+				// Version upgrade from 8 to 9
+				// Added unique thread indexes to history and hidden_threads tables
+				// Older versions could store duplicates, only the last row for each thread is kept
+				String keyColumns = "chan_name, board_name, thread_number";
+				db.execSQL("DELETE FROM " + TABLE_HISTORY + " WHERE _id NOT IN (SELECT MAX(_id) FROM " +
+						TABLE_HISTORY + " GROUP BY " + keyColumns + ")");
+				db.execSQL("DELETE FROM " + TABLE_HIDDEN_THREADS + " WHERE _id NOT IN (SELECT MAX(_id) FROM " +
+						TABLE_HIDDEN_THREADS + " GROUP BY " + keyColumns + ")");
+				createThreadIndexes(db);
+			}
 		}
 	}
 
@@ -196,6 +233,36 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		}
 	}
 
+	private static class IndexCreator {
+		private final ArrayList<String> columns = new ArrayList<>();
+		private final String tableName;
+
+		public IndexCreator(String tableName) {
+			this.tableName = tableName;
+		}
+
+		public IndexCreator addColumn(String columnName) {
+			columns.add(columnName);
+			return this;
+		}
+
+		public void execute(SQLiteDatabase db) {
+			StringBuilder builder = new StringBuilder().append("CREATE UNIQUE INDEX ").append(tableName);
+			for (String column : columns) {
+				builder.append('_').append(column);
+			}
+			builder.append(" ON ").append(tableName).append(" (");
+			for (int i = 0; i < columns.size(); i++) {
+				if (i > 0) {
+					builder.append(", ");
+				}
+				builder.append(columns.get(i));
+			}
+			builder.append(')');
+			db.execSQL(builder.toString());
+		}
+	}
+
 	private static class TableModifier {
 		private final TableCreator tableCreator;
 		private final String fromTableName;
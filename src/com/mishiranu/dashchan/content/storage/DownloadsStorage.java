@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014-2016 Fukurou Mishiranu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mishiranu.dashchan.content.storage;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.net.Uri;
+
+import chan.http.HttpValidator;
+import chan.util.StringUtils;
+
+public class DownloadsStorage extends StorageManager.Storage {
+	private static final String KEY_DATA = "data";
+	private static final String KEY_CHAN_NAME = "chanName";
+	private static final String KEY_URI = "uri";
+	private static final String KEY_FILE = "file";
+	private static final String KEY_VALIDATOR = "validator";
+
+	private static final DownloadsStorage INSTANCE = new DownloadsStorage();
+
+	public static DownloadsStorage getInstance() {
+		return INSTANCE;
+	}
+
+	private final ArrayList<DownloadItem> downloadItems = new ArrayList<>();
+
+	private DownloadsStorage() {
+		super("downloads", 1000, 5000);
+		JSONObject jsonObject = read();
+		if (jsonObject != null) {
+			JSONArray jsonArray = jsonObject.optJSONArray(KEY_DATA);
+			if (jsonArray != null) {
+				for (int i = 0; i < jsonArray.length(); i++) {
+					jsonObject = jsonArray.optJSONObject(i);
+					if (jsonObject != null) {
+						String chanName = jsonObject.optString(KEY_CHAN_NAME, null);
+						String uriString = jsonObject.optString(KEY_URI, null);
+						String path = jsonObject.optString(KEY_FILE, null);
+						if (!StringUtils.isEmpty(uriString) && !StringUtils.isEmpty(path)) {
+							HttpValidator validator = HttpValidator.fromString(jsonObject
+									.optString(KEY_VALIDATOR, null));
+							downloadItems.add(new DownloadItem(chanName, Uri.parse(uriString), new File(path),
+									validator));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	public ArrayList<DownloadItem> getItems() {
+		return new ArrayList<>(downloadItems);
+	}
+
+	public void setItems(ArrayList<DownloadItem> downloadItems) {
+		this.downloadItems.clear();
+		this.downloadItems.addAll(downloadItems);
+		serialize();
+	}
+
+	@Override
+	public Object onClone() {
+		return new ArrayList<>(downloadItems);
+	}
+
+	@Override
+	public JSONObject onSerialize(Object data) throws JSONException {
+		@SuppressWarnings("unchecked")
+		ArrayList<DownloadItem> downloadItems = (ArrayList<DownloadItem>) data;
+		if (downloadItems.size() > 0) {
+			JSONArray jsonArray = new JSONArray();
+			for (DownloadItem downloadItem : downloadItems) {
+				JSONObject jsonObject = new JSONObject();
+				putJson(jsonObject, KEY_CHAN_NAME, downloadItem.chanName);
+				putJson(jsonObject, KEY_URI, downloadItem.uri.toString());
+				putJson(jsonObject, KEY_FILE, downloadItem.file.getAbsolutePath());
+				if (downloadItem.validator != null) {
+					putJson(jsonObject, KEY_VALIDATOR, downloadItem.validator.toString());
+				}
+				jsonArray.put(jsonObject);
+			}
+			JSONObject jsonObject = new JSONObject();
+			jsonObject.put(KEY_DATA, jsonArray);
+			return jsonObject;
+		}
+		return null;
+	}
+
+	public static class DownloadItem {
+		public final String chanName;
+		public final Uri uri;
+		public final File file;
+		public final HttpValidator validator;
+
+		public DownloadItem(String chanName, Uri uri, File file, HttpValidator validator) {
+			this.chanName = chanName;
+			this.uri = uri;
+			this.file = file;
+			this.validator = validator;
+		}
+	}
+}
@@ -87,6 +87,17 @@ public class FavoritesStorage extends StorageManager.Storage {
 				}
 			}
 		}
+		for (JSONObject record : readJournal()) {
+			FavoriteItem favoriteItem = favoriteItemsMap.get(makeKey(record.optString(KEY_CHAN_NAME, null),
+					record.optString(KEY_BOARD_NAME, null), record.optString(KEY_THREAD_NUMBER, null)));
+			if (favoriteItem != null) {
+				favoriteItem.postsCount = record.optInt(KEY_POSTS_COUNT);
+				favoriteItem.newPostsCount = record.optInt(KEY_NEW_POSTS_COUNT);
+				favoriteItem.hasNewPosts = record.optBoolean(KEY_HAS_NEW_POSTS);
+				favoriteItem.watcherValidator = HttpValidator.fromString(record
+						.optString(KEY_WATCHER_VALIDATOR, null));
+			}
+		}
 	}
 
 	@Override
@@ -295,7 +306,7 @@ public class FavoritesStorage extends StorageManager.Storage {
 			favoriteItem.newPostsCount = postsCount;
 			favoriteItem.hasNewPosts = false;
 			notifyFavoritesUpdate(favoriteItem, ACTION_WATCHER_SYNCHRONIZE);
-			serialize();
+			journalWatcherData(favoriteItem);
 		}
 	}
 
@@ -306,8 +317,27 @@ public class FavoritesStorage extends StorageManager.Storage {
 			favoriteItem.newPostsCount = newPostsCount;
 			favoriteItem.hasNewPosts = hasNewPosts;
 			favoriteItem.watcherValidator = watcherValidator;
-			serialize();
+			journalWatcherData(favoriteItem);
+		}
+	}
+
+	// Watcher updates all favorites often, so only changed counters are written to journal
+	private void journalWatcherData(FavoriteItem favoriteItem) {
+		JSONObject jsonObject = new JSONObject();
+		try {
+			jsonObject.put(KEY_CHAN_NAME, favoriteItem.chanName);
+			putJson(jsonObject, KEY_BOARD_NAME, favoriteItem.boardName);
+			putJson(jsonObject, KEY_THREAD_NUMBER, favoriteItem.threadNumber);
+			putJson(jsonObject, KEY_POSTS_COUNT, favoriteItem.postsCount);
+			putJson(jsonObject, KEY_NEW_POSTS_COUNT, favoriteItem.newPostsCount);
+			putJson(jsonObject, KEY_HAS_NEW_POSTS, favoriteItem.hasNewPosts);
+			if (favoriteItem.watcherValidator != null) {
+				putJson(jsonObject, KEY_WATCHER_VALIDATOR, favoriteItem.watcherValidator.toString());
+			}
+		} catch (JSONException e) {
+			throw new RuntimeException(e);
 		}
+		journal(makeKey(favoriteItem), jsonObject);
 	}
 
 	public void toggleWatcher(String chanName, String boardName, String threadNumber) {
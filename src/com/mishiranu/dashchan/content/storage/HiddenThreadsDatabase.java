@@ -16,12 +16,17 @@
 
 package com.mishiranu.dashchan.content.storage;
 
-import android.content.ContentValues;
+import java.util.ArrayList;
+import java.util.Collection;
+
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
 
 import com.mishiranu.dashchan.C;
+import com.mishiranu.dashchan.util.LruCache;
 
 public class HiddenThreadsDatabase implements BaseColumns {
 	static final String COLUMN_CHAN_NAME = "chan_name";
@@ -29,7 +34,9 @@ public class HiddenThreadsDatabase implements BaseColumns {
 	static final String COLUMN_THREAD_NUMBER = "thread_number";
 	static final String COLUMN_HIDDEN = "hidden";
 
-	private static final String[] STATE_COLUMNS = {_ID, COLUMN_HIDDEN};
+	private static final int CACHE_SIZE = 5000;
+	// SQLite limits the number of bound arguments to 999
+	private static final int MAX_BATCH_SIZE = 500;
 
 	private static final HiddenThreadsDatabase INSTANCE = new HiddenThreadsDatabase();
 
@@ -39,37 +46,121 @@ public class HiddenThreadsDatabase implements BaseColumns {
 
 	private final SQLiteDatabase database;
 
+	// Contains negative results too, so threads without state don't make queries again
+	private final LruCache<String, Integer> cache = new LruCache<>(CACHE_SIZE);
+
+	// Indexed by board null state, see DatabaseHelper.buildThreadWhere
+	private final SQLiteStatement[] checkStatements = new SQLiteStatement[2];
+	private final SQLiteStatement[] deleteStatements = new SQLiteStatement[2];
+	private SQLiteStatement insertStatement;
+
 	private HiddenThreadsDatabase() {
 		database = DatabaseHelper.getInstance().getWritableDatabase();
 	}
 
-	private String buildWhere(String chanName, String boardName, String threadNumber) {
-		return COLUMN_CHAN_NAME + " = \"" + chanName + "\" AND " +
-				COLUMN_BOARD_NAME + (boardName == null ? " IS NULL" : " = \"" + boardName + "\"") + " AND " +
-				COLUMN_THREAD_NUMBER + " = \"" + threadNumber + "\"";
+	private static String makeKey(String chanName, String boardName, String threadNumber) {
+		return chanName + "/" + boardName + "/" + threadNumber;
 	}
 
-	public void set(String chanName, String boardName, String threadNumber, boolean hidden) {
-		database.delete(DatabaseHelper.TABLE_HIDDEN_THREADS, buildWhere(chanName, boardName, threadNumber), null);
-		ContentValues values = new ContentValues();
-		values.put(COLUMN_CHAN_NAME, chanName);
-		values.put(COLUMN_BOARD_NAME, boardName);
-		values.put(COLUMN_THREAD_NUMBER, threadNumber);
-		values.put(COLUMN_HIDDEN, hidden);
-		database.insert(DatabaseHelper.TABLE_HIDDEN_THREADS, null, values);
+	private SQLiteStatement getStatement(SQLiteStatement[] statements, String boardName, String sqlStart) {
+		int index = boardName == null ? 1 : 0;
+		SQLiteStatement statement = statements[index];
+		if (statement == null) {
+			statement = database.compileStatement(sqlStart + " WHERE " +
+					DatabaseHelper.buildThreadWhere(boardName));
+			statements[index] = statement;
+		}
+		return statement;
 	}
 
-	public int check(String chanName, String boardName, String threadNumber) {
-		Cursor cursor = database.query(DatabaseHelper.TABLE_HIDDEN_THREADS, STATE_COLUMNS,
-				buildWhere(chanName, boardName, threadNumber), null, null, null, null);
+	public synchronized void set(String chanName, String boardName, String threadNumber, boolean hidden) {
+		SQLiteStatement deleteStatement = getStatement(deleteStatements, boardName,
+				"DELETE FROM " + DatabaseHelper.TABLE_HIDDEN_THREADS);
+		if (insertStatement == null) {
+			insertStatement = database.compileStatement("INSERT INTO " + DatabaseHelper.TABLE_HIDDEN_THREADS +
+					" (" + COLUMN_CHAN_NAME + ", " + COLUMN_BOARD_NAME + ", " + COLUMN_THREAD_NUMBER + ", " +
+					COLUMN_HIDDEN + ") VALUES (?, ?, ?, ?)");
+		}
+		database.beginTransaction();
 		try {
-			if (cursor.moveToFirst()) {
-				boolean hidden = cursor.getInt(1) != 0;
-				return hidden ? C.HIDDEN_TRUE : C.HIDDEN_FALSE;
+			deleteStatement.clearBindings();
+			DatabaseHelper.bindThreadArgs(deleteStatement, 1, chanName, boardName, threadNumber);
+			deleteStatement.executeUpdateDelete();
+			insertStatement.clearBindings();
+			insertStatement.bindString(1, chanName);
+			if (boardName != null) {
+				insertStatement.bindString(2, boardName);
+			} else {
+				insertStatement.bindNull(2);
 			}
+			insertStatement.bindString(3, threadNumber);
+			insertStatement.bindLong(4, hidden ? 1 : 0);
+			insertStatement.executeInsert();
+			database.setTransactionSuccessful();
 		} finally {
-			cursor.close();
+			database.endTransaction();
+		}
+		cache.put(makeKey(chanName, boardName, threadNumber), hidden ? C.HIDDEN_TRUE : C.HIDDEN_FALSE);
+	}
+
+	public synchronized int check(String chanName, String boardName, String threadNumber) {
+		String key = makeKey(chanName, boardName, threadNumber);
+		Integer cachedHidden = cache.get(key);
+		if (cachedHidden != null) {
+			return cachedHidden;
+		}
+		SQLiteStatement statement = getStatement(checkStatements, boardName,
+				"SELECT " + COLUMN_HIDDEN + " FROM " + DatabaseHelper.TABLE_HIDDEN_THREADS);
+		statement.clearBindings();
+		DatabaseHelper.bindThreadArgs(statement, 1, chanName, boardName, threadNumber);
+		int hidden;
+		try {
+			hidden = statement.simpleQueryForLong() != 0 ? C.HIDDEN_TRUE : C.HIDDEN_FALSE;
+		} catch (SQLiteDoneException e) {
+			hidden = C.HIDDEN_UNKNOWN;
+		}
+		cache.put(key, hidden);
+		return hidden;
+	}
+
+	// Loads states for a page of threads with one query per batch, so following check calls use cache only.
+	public synchronized void preload(String chanName, String boardName, Collection<String> threadNumbers) {
+		ArrayList<String> requestThreadNumbers = new ArrayList<>();
+		for (String threadNumber : threadNumbers) {
+			String key = makeKey(chanName, boardName, threadNumber);
+			if (!cache.containsKey(key)) {
+				cache.put(key, C.HIDDEN_UNKNOWN);
+				requestThreadNumbers.add(threadNumber);
+			}
+		}
+		for (int start = 0; start < requestThreadNumbers.size(); start += MAX_BATCH_SIZE) {
+			int end = Math.min(requestThreadNumbers.size(), start + MAX_BATCH_SIZE);
+			ArrayList<String> args = new ArrayList<>(end - start + 2);
+			args.add(chanName);
+			StringBuilder builder = new StringBuilder().append("SELECT ").append(COLUMN_THREAD_NUMBER).append(", ")
+					.append(COLUMN_HIDDEN).append(" FROM ").append(DatabaseHelper.TABLE_HIDDEN_THREADS)
+					.append(" WHERE ").append(COLUMN_CHAN_NAME).append(" = ? AND ").append(COLUMN_BOARD_NAME);
+			if (boardName != null) {
+				builder.append(" = ?");
+				args.add(boardName);
+			} else {
+				builder.append(" IS NULL");
+			}
+			builder.append(" AND ").append(COLUMN_THREAD_NUMBER).append(" IN (");
+			for (int i = start; i < end; i++) {
+				builder.append(i > start ? ", ?" : "?");
+				args.add(requestThreadNumbers.get(i));
+			}
+			builder.append(')');
+			Cursor cursor = database.rawQuery(builder.toString(), args.toArray(new String[args.size()]));
+			try {
+				while (cursor.moveToNext()) {
+					String key = makeKey(chanName, boardName, cursor.getString(0));
+					cache.put(key, cursor.getInt(1) != 0 ? C.HIDDEN_TRUE : C.HIDDEN_FALSE);
+				}
+			} finally {
+				cursor.close();
+			}
 		}
-		return C.HIDDEN_UNKNOWN;
 	}
-}
\ No newline at end of file
+}
@@ -18,9 +18,10 @@ package com.mishiranu.dashchan.content.storage;
 
 import java.util.ArrayList;
 
-import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
 
 import com.mishiranu.dashchan.preference.Preferences;
@@ -48,25 +49,52 @@ public class HistoryDatabase implements BaseColumns {
 
 	private final SQLiteDatabase database;
 
+	// Indexed by board null state, see DatabaseHelper.buildThreadWhere
+	private final SQLiteStatement[] deleteStatements = new SQLiteStatement[2];
+	private final SQLiteStatement[] updateTitleStatements = new SQLiteStatement[2];
+	private SQLiteStatement insertStatement;
+	private SQLiteStatement countStatement;
+
 	private HistoryDatabase() {
 		database = DatabaseHelper.getInstance().getWritableDatabase();
 	}
 
+	private SQLiteStatement getStatement(SQLiteStatement[] statements, String boardName, String sqlStart) {
+		int index = boardName == null ? 1 : 0;
+		SQLiteStatement statement = statements[index];
+		if (statement == null) {
+			statement = database.compileStatement(sqlStart + " WHERE " +
+					DatabaseHelper.buildThreadWhere(boardName));
+			statements[index] = statement;
+		}
+		return statement;
+	}
+
 	public void addHistory(final String chanName, final String boardName, final String threadNumber,
 			final String threadTitle) {
 		if (Preferences.isRememberHistory()) {
 			DatabaseHelper.getInstance().getExecutor().execute(() -> {
 				synchronized (HistoryDatabase.this) {
-					clearOldHistory(chanName);
-					database.delete(DatabaseHelper.TABLE_HISTORY, buildWhere(chanName, boardName, threadNumber), null);
-					long currentTime = System.currentTimeMillis();
-					ContentValues values = new ContentValues();
-					values.put(COLUMN_CHAN_NAME, chanName);
-					values.put(COLUMN_BOARD_NAME, boardName);
-					values.put(COLUMN_THREAD_NUMBER, threadNumber);
-					values.put(COLUMN_TITLE, threadTitle);
-					values.put(COLUMN_CREATED, currentTime);
-					database.insert(DatabaseHelper.TABLE_HISTORY, null, values);
+					if (insertStatement == null) {
+						insertStatement = database.compileStatement("INSERT INTO " + DatabaseHelper.TABLE_HISTORY +
+								" (" + COLUMN_CHAN_NAME + ", " + COLUMN_BOARD_NAME + ", " + COLUMN_THREAD_NUMBER +
+								", " + COLUMN_TITLE + ", " + COLUMN_CREATED + ") VALUES (?, ?, ?, ?, ?)");
+					}
+					database.beginTransaction();
+					try {
+						clearOldHistory(chanName);
+						delete(chanName, boardName, threadNumber);
+						insertStatement.clearBindings();
+						insertStatement.bindString(1, chanName);
+						bindNullable(insertStatement, 2, boardName);
+						insertStatement.bindString(3, threadNumber);
+						bindNullable(insertStatement, 4, threadTitle);
+						insertStatement.bindLong(5, System.currentTimeMillis());
+						insertStatement.executeInsert();
+						database.setTransactionSuccessful();
+					} finally {
+						database.endTransaction();
+					}
 				}
 			});
 		}
@@ -77,23 +105,35 @@ public class HistoryDatabase implements BaseColumns {
 		if (!StringUtils.isEmpty(threadTitle)) {
 			DatabaseHelper.getInstance().getExecutor().execute(() -> {
 				synchronized (HistoryDatabase.this) {
-					ContentValues values = new ContentValues();
-					values.put(COLUMN_TITLE, threadTitle);
-					database.update(DatabaseHelper.TABLE_HISTORY, values,
-							buildWhere(chanName, boardName, threadNumber), null);
+					SQLiteStatement statement = getStatement(updateTitleStatements, boardName,
+							"UPDATE " + DatabaseHelper.TABLE_HISTORY + " SET " + COLUMN_TITLE + " = ?");
+					statement.clearBindings();
+					statement.bindString(1, threadTitle);
+					DatabaseHelper.bindThreadArgs(statement, 2, chanName, boardName, threadNumber);
+					statement.executeUpdateDelete();
 				}
 			});
 		}
 	}
 
-	private String buildWhere(String chanName, String boardName, String threadNumber) {
-		return COLUMN_CHAN_NAME + " = \"" + chanName + "\" AND " +
-				COLUMN_BOARD_NAME + (boardName == null ? " IS NULL" : " = \"" + boardName + "\"") + " AND " +
-				COLUMN_THREAD_NUMBER + " = \"" + threadNumber + "\"";
+	private static void bindNullable(SQLiteStatement statement, int index, String value) {
+		if (value != null) {
+			statement.bindString(index, value);
+		} else {
+			statement.bindNull(index);
+		}
+	}
+
+	private int delete(String chanName, String boardName, String threadNumber) {
+		SQLiteStatement statement = getStatement(deleteStatements, boardName,
+				"DELETE FROM " + DatabaseHelper.TABLE_HISTORY);
+		statement.clearBindings();
+		DatabaseHelper.bindThreadArgs(statement, 1, chanName, boardName, threadNumber);
+		return statement.executeUpdateDelete();
 	}
 
 	private String buildWhere(String chanName) {
-		return COLUMN_CHAN_NAME + " = \"" + chanName + "\"";
+		return COLUMN_CHAN_NAME + " = " + DatabaseUtils.sqlEscapeString(chanName);
 	}
 
 	public ArrayList<HistoryItem> getAllHistory(String chanName) {
@@ -123,21 +163,21 @@ public class HistoryDatabase implements BaseColumns {
 
 	public boolean remove(String chanName, String boardName, String threadNumber) {
 		synchronized (this) {
-			return database.delete(DatabaseHelper.TABLE_HISTORY, buildWhere(chanName, boardName,
-					threadNumber), null) > 0;
+			return delete(chanName, boardName, threadNumber) > 0;
 		}
 	}
 
 	private void clearOldHistory(String chanName) {
 		synchronized (this) {
 			String where = buildWhere(chanName);
-			Cursor cursor = database.rawQuery("SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_HISTORY + " WHERE " +
-					where, null);
-			cursor.moveToFirst();
-			long count = cursor.getLong(0);
-			cursor.close();
+			if (countStatement == null) {
+				countStatement = database.compileStatement("SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_HISTORY +
+						" WHERE " + COLUMN_CHAN_NAME + " = ?");
+			}
+			countStatement.bindString(1, chanName);
+			long count = countStatement.simpleQueryForLong();
 			if (count >= HISTORY_THRESHOLD) {
-				cursor = database.query(DatabaseHelper.TABLE_HISTORY, ALL_COLUMNS, where, null, null, null,
+				Cursor cursor = database.query(DatabaseHelper.TABLE_HISTORY, ALL_COLUMNS, where, null, null, null,
 						COLUMN_CREATED + " desc", HISTORY_SIZE + ", " + (HISTORY_SIZE + 1));
 				long id = -1;
 				if (cursor.moveToFirst()) {
@@ -16,21 +16,27 @@
 
 package com.mishiranu.dashchan.content.storage;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
-import android.util.Pair;
+import android.util.JsonWriter;
 import android.util.SparseArray;
 
 import chan.util.StringUtils;
@@ -43,6 +49,13 @@ public class StorageManager implements Handler.Callback, Runnable {
 	private static final StorageManager INSTANCE = new StorageManager();
 	private static final Charset CHARSET = Charset.forName("UTF-8");
 
+	// Journal is compacted into snapshot when it grows larger than this value
+	private static final int MAX_JOURNAL_RECORDS = 200;
+
+	// Snapshot and journal records are stamped with generation, so records written before the last snapshot
+	// are not replayed if journal was not deleted after the snapshot was written
+	private static final String KEY_JOURNAL_GENERATION = "journalGeneration";
+
 	public static StorageManager getInstance() {
 		return INSTANCE;
 	}
@@ -52,20 +65,46 @@ public class StorageManager implements Handler.Callback, Runnable {
 	}
 
 	private final Handler handler = new Handler(Looper.getMainLooper(), this);
-	private final LinkedBlockingQueue<Pair<Storage, Object>> queue = new LinkedBlockingQueue<>();
+	private final LinkedBlockingQueue<WriteTask> queue = new LinkedBlockingQueue<>();
 
 	private int nextIdentifier = 1;
 
+	private static class WriteTask {
+		public final Storage storage;
+		public final Object data;
+		public final ArrayList<JSONObject> records;
+		public final int generation;
+
+		public WriteTask(Storage storage, Object data, ArrayList<JSONObject> records) {
+			this.storage = storage;
+			this.data = data;
+			this.records = records;
+			synchronized (storage.lock) {
+				generation = storage.generation;
+			}
+		}
+	}
+
 	@Override
 	public void run() {
 		while (true) {
-			Pair<Storage, Object> pair;
+			WriteTask task;
 			try {
-				pair = queue.take();
+				task = queue.take();
 			} catch (InterruptedException e) {
 				return;
 			}
-			performSerialize(pair.first, pair.second);
+			synchronized (task.storage.lock) {
+				// Task was superseded by synchronous snapshot
+				if (task.generation != task.storage.generation) {
+					continue;
+				}
+				if (task.records != null) {
+					performAppendJournal(task.storage, task.records);
+				} else {
+					performSerialize(task.storage, task.data);
+				}
+			}
 		}
 	}
 
@@ -80,6 +119,12 @@ public class StorageManager implements Handler.Callback, Runnable {
 			File file = getFile(storage);
 			File backupFile = getBackupFile(storage);
 			if (jsonObject != null) {
+				int journalGeneration = storage.journalGeneration + 1;
+				try {
+					jsonObject.put(KEY_JOURNAL_GENERATION, journalGeneration);
+				} catch (JSONException e) {
+					throw new RuntimeException(e);
+				}
 				if (file.exists()) {
 					if (!backupFile.exists()) {
 						if (!file.renameTo(backupFile)) {
@@ -94,11 +139,13 @@ public class StorageManager implements Handler.Callback, Runnable {
 				FileOutputStream output = null;
 				try {
 					output = new FileOutputStream(file);
-					output.write(jsonObject.toString().getBytes(CHARSET));
-					output.flush();
+					// Write directly to file instead of building the whole string in memory
+					JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(output, CHARSET)));
+					writeJson(writer, jsonObject);
+					writer.flush();
 					output.getFD().sync();
 					success = true;
-				} catch (IOException e) {
+				} catch (IOException | JSONException e) {
 					Log.persistent().write(e);
 				} finally {
 					success &= IOUtils.close(output);
@@ -109,13 +156,74 @@ public class StorageManager implements Handler.Callback, Runnable {
 								"Can't delete partially written", file);
 					}
 				}
+				if (success) {
+					// All journal records are included in snapshot now
+					storage.journalGeneration = journalGeneration;
+					getJournalFile(storage).delete();
+				}
 			} else {
 				file.delete();
 				backupFile.delete();
+				getJournalFile(storage).delete();
 			}
 		}
 	}
 
+	private void performAppendJournal(Storage storage, ArrayList<JSONObject> records) {
+		synchronized (storage.lock) {
+			StringBuilder builder = new StringBuilder();
+			for (JSONObject record : records) {
+				try {
+					record.put(KEY_JOURNAL_GENERATION, storage.journalGeneration);
+				} catch (JSONException e) {
+					throw new RuntimeException(e);
+				}
+				// JSONObject.toString never contains line breaks
+				builder.append(record.toString()).append('\n');
+			}
+			FileOutputStream output = null;
+			try {
+				output = new FileOutputStream(getJournalFile(storage), true);
+				output.write(builder.toString().getBytes(CHARSET));
+				output.flush();
+				output.getFD().sync();
+			} catch (IOException e) {
+				Log.persistent().write(e);
+			} finally {
+				IOUtils.close(output);
+			}
+		}
+	}
+
+	private static void writeJson(JsonWriter writer, Object value) throws IOException, JSONException {
+		if (value instanceof JSONObject) {
+			JSONObject jsonObject = (JSONObject) value;
+			writer.beginObject();
+			Iterator<String> keys = jsonObject.keys();
+			while (keys.hasNext()) {
+				String key = keys.next();
+				writer.name(key);
+				writeJson(writer, jsonObject.get(key));
+			}
+			writer.endObject();
+		} else if (value instanceof JSONArray) {
+			JSONArray jsonArray = (JSONArray) value;
+			writer.beginArray();
+			for (int i = 0; i < jsonArray.length(); i++) {
+				writeJson(writer, jsonArray.get(i));
+			}
+			writer.endArray();
+		} else if (value instanceof Boolean) {
+			writer.value((boolean) value);
+		} else if (value instanceof Number) {
+			writer.value((Number) value);
+		} else if (value == null || value == JSONObject.NULL) {
+			writer.nullValue();
+		} else {
+			writer.value(value.toString());
+		}
+	}
+
 	public static abstract class Storage {
 		private final String name;
 		private final int timeout;
@@ -123,6 +231,11 @@ public class StorageManager implements Handler.Callback, Runnable {
 
 		private int identifier = 0;
 		private final Object lock = new Object();
+		private int generation = 0;
+		private int journalGeneration = 0;
+
+		private final LinkedHashMap<String, JSONObject> pendingRecords = new LinkedHashMap<>();
+		private int journalRecordsCount;
 
 		public Storage(String name, int timeout, int maxTimeout) {
 			this.name = name;
@@ -134,14 +247,31 @@ public class StorageManager implements Handler.Callback, Runnable {
 			return INSTANCE.getFile(this);
 		}
 
+		public final File getJournalFile() {
+			return INSTANCE.getJournalFile(this);
+		}
+
 		public final JSONObject read() {
 			return INSTANCE.read(this);
 		}
 
+		public final ArrayList<JSONObject> readJournal() {
+			ArrayList<JSONObject> records = INSTANCE.readJournal(this);
+			journalRecordsCount = records.size();
+			return records;
+		}
+
 		public final void serialize() {
 			INSTANCE.serialize(this);
 		}
 
+		// Appends a small record to journal instead of serializing the whole storage.
+		// Records with the same key are coalesced until written. Records must be idempotent,
+		// because they can be applied again on top of the snapshot which already includes them.
+		public final void journal(String key, JSONObject record) {
+			INSTANCE.journal(this, key, record);
+		}
+
 		public final void await(boolean async) {
 			INSTANCE.await(this, async);
 		}
@@ -192,6 +322,10 @@ public class StorageManager implements Handler.Callback, Runnable {
 		return getFile(storage.name);
 	}
 
+	private File getJournalFile(Storage storage) {
+		return new File(getDirectory(), storage.name + ".journal");
+	}
+
 	private JSONObject read(Storage storage) {
 		File file = getFile(storage);
 		File backupFile = getBackupFile(storage);
@@ -199,34 +333,78 @@ public class StorageManager implements Handler.Callback, Runnable {
 			file.delete();
 			backupFile.renameTo(file);
 		}
+		byte[] bytes = readFile(file);
+		if (bytes != null) {
+			try {
+				JSONObject jsonObject = new JSONObject(new String(bytes, CHARSET));
+				synchronized (storage.lock) {
+					storage.journalGeneration = jsonObject.optInt(KEY_JOURNAL_GENERATION);
+				}
+				jsonObject.remove(KEY_JOURNAL_GENERATION);
+				return jsonObject;
+			} catch (JSONException e) {
+				// Invalid JSON object, ignore exception
+			}
+		}
+		return null;
+	}
+
+	private ArrayList<JSONObject> readJournal(Storage storage) {
+		ArrayList<JSONObject> records = new ArrayList<>();
+		byte[] bytes = readFile(getJournalFile(storage));
+		if (bytes != null) {
+			int journalGeneration;
+			synchronized (storage.lock) {
+				journalGeneration = storage.journalGeneration;
+			}
+			for (String line : new String(bytes, CHARSET).split("\n")) {
+				if (!line.isEmpty()) {
+					JSONObject record;
+					try {
+						record = new JSONObject(line);
+					} catch (JSONException e) {
+						// Partially written record, ignore exception
+						continue;
+					}
+					// Record was written before the snapshot and is already included in it
+					if (record.optInt(KEY_JOURNAL_GENERATION) >= journalGeneration) {
+						record.remove(KEY_JOURNAL_GENERATION);
+						records.add(record);
+					}
+				}
+			}
+		}
+		return records;
+	}
+
+	private static byte[] readFile(File file) {
 		FileInputStream input = null;
-		byte[] bytes = null;
 		try {
 			input = new FileInputStream(file);
 			ByteArrayOutputStream output = new ByteArrayOutputStream();
 			IOUtils.copyStream(input, output);
-			bytes = output.toByteArray();
+			return output.toByteArray();
 		} catch (IOException e) {
 			// Ignore exception
+			return null;
 		} finally {
 			IOUtils.close(input);
 		}
-		if (bytes != null) {
-			try {
-				return new JSONObject(new String(bytes, CHARSET));
-			} catch (JSONException e) {
-				// Invalid JSON object, ignore exception
-			}
+	}
+
+	private void ensureIdentifier(Storage storage) {
+		if (storage.identifier == 0) {
+			storage.identifier = nextIdentifier++;
 		}
-		return null;
 	}
 
 	private final SparseArray<Long> serializeTimes = new SparseArray<>();
 
 	private void serialize(Storage storage) {
-		if (storage.identifier == 0) {
-			storage.identifier = nextIdentifier++;
-		}
+		ensureIdentifier(storage);
+		// Snapshot will include all changes from pending records
+		storage.pendingRecords.clear();
+		handler.removeMessages(-storage.identifier);
 		Long timeObject = serializeTimes.get(storage.identifier);
 		long timeout;
 		if (timeObject == null) {
@@ -244,6 +422,24 @@ public class StorageManager implements Handler.Callback, Runnable {
 		}
 	}
 
+	private void journal(Storage storage, String key, JSONObject record) {
+		ensureIdentifier(storage);
+		if (handler.hasMessages(storage.identifier)) {
+			// Snapshot is already scheduled and will include this change
+			return;
+		}
+		if (storage.journalRecordsCount + storage.pendingRecords.size() >= MAX_JOURNAL_RECORDS) {
+			serialize(storage);
+			return;
+		}
+		// Move record to the end, so records are written in order of the last change
+		storage.pendingRecords.remove(key);
+		storage.pendingRecords.put(key, record);
+		if (!handler.hasMessages(-storage.identifier)) {
+			handler.sendMessageDelayed(handler.obtainMessage(-storage.identifier, storage), storage.timeout);
+		}
+	}
+
 	public void await(Storage storage, boolean async) {
 		if (handler.hasMessages(storage.identifier)) {
 			serializeTimes.remove(storage.identifier);
@@ -251,20 +447,67 @@ public class StorageManager implements Handler.Callback, Runnable {
 			if (async) {
 				enqueueSerialize(storage);
 			} else {
-				performSerialize(storage, storage.onClone());
+				performSerializeNow(storage);
+			}
+		} else if (handler.hasMessages(-storage.identifier)) {
+			handler.removeMessages(-storage.identifier);
+			if (async) {
+				enqueueJournal(storage);
+			} else {
+				// Synchronous writes are rare, so the whole snapshot is written instead of journal
+				storage.pendingRecords.clear();
+				storage.journalRecordsCount = 0;
+				performSerializeNow(storage);
 			}
 		}
 	}
 
+	private void performSerializeNow(Storage storage) {
+		Object data = storage.onClone();
+		synchronized (storage.lock) {
+			// Queued tasks contain older data, so they must not be written after this snapshot
+			storage.generation++;
+			Iterator<WriteTask> iterator = queue.iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().storage == storage) {
+					iterator.remove();
+				}
+			}
+			performSerialize(storage, data);
+		}
+	}
+
 	private void enqueueSerialize(Storage storage) {
-		queue.add(new Pair<>(storage, storage.onClone()));
+		storage.journalRecordsCount = 0;
+		queue.add(new WriteTask(storage, storage.onClone(), null));
+	}
+
+	private ArrayList<JSONObject> takePendingRecords(Storage storage) {
+		if (storage.pendingRecords.isEmpty()) {
+			return null;
+		}
+		ArrayList<JSONObject> records = new ArrayList<>(storage.pendingRecords.values());
+		storage.pendingRecords.clear();
+		storage.journalRecordsCount += records.size();
+		return records;
+	}
+
+	private void enqueueJournal(Storage storage) {
+		ArrayList<JSONObject> records = takePendingRecords(storage);
+		if (records != null) {
+			queue.add(new WriteTask(storage, null, records));
+		}
 	}
 
 	@Override
 	public boolean handleMessage(Message msg) {
 		Storage storage = (Storage) msg.obj;
-		serializeTimes.remove(storage.identifier);
-		enqueueSerialize(storage);
+		if (msg.what < 0) {
+			enqueueJournal(storage);
+		} else {
+			serializeTimes.remove(storage.identifier);
+			enqueueSerialize(storage);
+		}
 		return true;
 	}
-}
\ No newline at end of file
+}
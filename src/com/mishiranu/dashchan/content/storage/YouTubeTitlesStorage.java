@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014-2016 Fukurou Mishiranu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mishiranu.dashchan.content.storage;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Pair;
+
+import chan.util.StringUtils;
+
+import com.mishiranu.dashchan.util.LruCache;
+
+public class YouTubeTitlesStorage extends StorageManager.Storage {
+	private static final String KEY_DATA = "data";
+	private static final String KEY_ID = "id";
+	private static final String KEY_TITLE = "title";
+	private static final String KEY_TIME = "time";
+
+	private static final int MAX_COUNT = 2000;
+	private static final long MAX_AGE = 14 * 24 * 60 * 60 * 1000L;
+
+	private static final YouTubeTitlesStorage INSTANCE = new YouTubeTitlesStorage();
+
+	public static YouTubeTitlesStorage getInstance() {
+		return INSTANCE;
+	}
+
+	private final LruCache<String, TitleItem> titleItems = new LruCache<>(MAX_COUNT);
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private YouTubeTitlesStorage() {
+		super("youtube_titles", 2000, 10000);
+		JSONObject jsonObject = read();
+		if (jsonObject != null) {
+			JSONArray jsonArray = jsonObject.optJSONArray(KEY_DATA);
+			if (jsonArray != null) {
+				long time = System.currentTimeMillis();
+				// Items are stored from the least recently used
+				for (int i = 0; i < jsonArray.length(); i++) {
+					jsonObject = jsonArray.optJSONObject(i);
+					if (jsonObject != null) {
+						String id = jsonObject.optString(KEY_ID, null);
+						String title = jsonObject.optString(KEY_TITLE, null);
+						long itemTime = jsonObject.optLong(KEY_TIME);
+						if (!StringUtils.isEmpty(id) && title != null && time - itemTime < MAX_AGE) {
+							titleItems.put(id, new TitleItem(title, itemTime));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	public String get(String id) {
+		synchronized (titleItems) {
+			TitleItem titleItem = titleItems.get(id);
+			if (titleItem != null) {
+				if (System.currentTimeMillis() - titleItem.time < MAX_AGE) {
+					return titleItem.title;
+				}
+				titleItems.remove(id);
+			}
+			return null;
+		}
+	}
+
+	public void put(Map<String, String> titles) {
+		if (!titles.isEmpty()) {
+			long time = System.currentTimeMillis();
+			synchronized (titleItems) {
+				for (Map.Entry<String, String> entry : titles.entrySet()) {
+					titleItems.put(entry.getKey(), new TitleItem(entry.getValue(), time));
+				}
+			}
+			handler.post(this::serialize);
+		}
+	}
+
+	@Override
+	public Object onClone() {
+		synchronized (titleItems) {
+			ArrayList<Pair<String, TitleItem>> data = new ArrayList<>(titleItems.size());
+			for (Map.Entry<String, TitleItem> entry : titleItems.entrySet()) {
+				data.add(new Pair<>(entry.getKey(), entry.getValue()));
+			}
+			return data;
+		}
+	}
+
+	@Override
+	public JSONObject onSerialize(Object data) throws JSONException {
+		@SuppressWarnings("unchecked")
+		ArrayList<Pair<String, TitleItem>> titleItems = (ArrayList<Pair<String, TitleItem>>) data;
+		if (titleItems.size() > 0) {
+			JSONArray jsonArray = new JSONArray();
+			for (Pair<String, TitleItem> pair : titleItems) {
+				JSONObject jsonObject = new JSONObject();
+				putJson(jsonObject, KEY_ID, pair.first);
+				putJson(jsonObject, KEY_TITLE, pair.second.title);
+				putJson(jsonObject, KEY_TIME, pair.second.time);
+				jsonArray.put(jsonObject);
+			}
+			JSONObject jsonObject = new JSONObject();
+			jsonObject.put(KEY_DATA, jsonArray);
+			return jsonObject;
+		}
+		return null;
+	}
+
+	private static class TitleItem {
+		public final String title;
+		public final long time;
+
+		public TitleItem(String title, long time) {
+			this.title = title;
+			this.time = time;
+		}
+	}
+}
@@ -17,9 +17,11 @@
 package com.mishiranu.dashchan.graphics;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -32,45 +34,84 @@ import android.graphics.PixelFormat;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.View;
 
 import com.mishiranu.dashchan.C;
 import com.mishiranu.dashchan.content.model.FileHolder;
+import com.mishiranu.dashchan.util.BitmapLruCache;
 import com.mishiranu.dashchan.util.ConcurrentUtils;
+import com.mishiranu.dashchan.util.IOUtils;
 import com.mishiranu.dashchan.util.Log;
-import com.mishiranu.dashchan.util.LruCache;
 
 public class DecoderDrawable extends Drawable {
-	private static final Executor EXECUTOR = ConcurrentUtils.newSingleThreadPool(20000, "DecoderDrawable", null, 0);
+	private static final int WORKERS_COUNT = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 3));
+	private static final ThreadPoolExecutor EXECUTOR = ConcurrentUtils.newThreadPool(WORKERS_COUNT, WORKERS_COUNT,
+			20000, "DecoderDrawable", null, 0);
+	private static final Handler HANDLER = new Handler(Looper.getMainLooper());
 	private static final Bitmap NULL_BITMAP = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
 
+	static {
+		EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+
 	private static final int FRAGMENT_SIZE = 512;
-	private static final int MIN_MAX_ENTRIES = 16;
+	private static final int FRAGMENT_BYTE_COUNT = FRAGMENT_SIZE * FRAGMENT_SIZE * 4;
+	private static final long MIN_FRAGMENTS_SIZE = 16L * FRAGMENT_BYTE_COUNT;
+	private static final int MAX_REUSABLE_FRAGMENTS = 4;
 
 	private final Bitmap scaledBitmap;
-	private final BitmapRegionDecoder decoder;
+	private final FileHolder fileHolder;
+
+	// Each worker thread uses its own decoder, decoders are returned to this list when idle
+	private final ArrayList<BitmapRegionDecoder> decoders = new ArrayList<>();
+	private final ArrayList<FileHolder.Descriptor> descriptors = new ArrayList<>();
+	private int decodersCount;
 
-	private final LinkedHashMap<Integer, DecodeTask> tasks = new LinkedHashMap<>();
-	private final LruCache<Integer, Bitmap> fragments = new LruCache<>(MIN_MAX_ENTRIES, (k, v) -> v.recycle());
+	private final HashMap<Integer, DecodeTask> tasks = new HashMap<>();
+	private final ArrayList<DecodeTask> pendingTasks = new ArrayList<>();
+	private final LinkedHashMap<Integer, Fragment> fragments = new LinkedHashMap<>(0, 0.75f, true);
+	private final ArrayList<Bitmap> reusableBitmaps = new ArrayList<>();
+	private long fragmentsSize;
+	private int drawIndex;
 
 	private final int rotation;
 	private final int width;
 	private final int height;
 
 	private final Rect rect = new Rect();
+	private final Rect srcRect = new Rect();
 	private final Rect dstRect = new Rect();
 	private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
 
 	private boolean enabled = true;
 	private boolean recycled = false;
 
+	private static class Fragment {
+		public final Bitmap bitmap;
+		public final int width;
+		public final int height;
+
+		public Fragment(Bitmap bitmap, int width, int height) {
+			this.bitmap = bitmap;
+			this.width = width;
+			this.height = height;
+		}
+
+		public int getByteCount() {
+			return bitmap != NULL_BITMAP ? BitmapLruCache.getByteCount(bitmap) : 0;
+		}
+	}
+
 	public DecoderDrawable(Bitmap scaledBitmap, FileHolder fileHolder) throws IOException {
 		this.scaledBitmap = scaledBitmap;
 		if (!fileHolder.isRegionDecoderSupported()) {
 			throw new IOException("Decoder drawable is not supported");
 		}
-		decoder = BitmapRegionDecoder.newInstance(fileHolder.openInputStream(), false);
+		this.fileHolder = fileHolder;
+		decoders.add(BitmapRegionDecoder.newInstance(fileHolder.openInputStream(), false));
+		decodersCount = 1;
 		rotation = fileHolder.getRotation();
 		width = fileHolder.getImageWidth();
 		height = fileHolder.getImageHeight();
@@ -84,7 +125,7 @@ public class DecoderDrawable extends Drawable {
 		if (!(canvas.getClipBounds(rect) && rect.intersect(bounds))) {
 			rect.set(bounds);
 		}
-		int maxEntries = 0;
+		int fragmentsCount = 0;
 		int scale = 1;
 		boolean drawScaled = false;
 		if (!recycled) {
@@ -117,27 +158,43 @@ public class DecoderDrawable extends Drawable {
 			drawScaled = true;
 		}
 		int size = FRAGMENT_SIZE * scale;
+		int drawIndex = ++this.drawIndex;
 		if (enabled && !drawScaled) {
+			int centerX = rect.centerX();
+			int centerY = rect.centerY();
 			for (int y = 0; y < height; y += size) {
 				for (int x = 0; x < width; x += size) {
 					if (rect.intersects(x, y, x + size, y + size)) {
 						int key = calculateKey(x, y, scale);
-						Bitmap fragment = fragments.get(key);
+						Fragment fragment = fragments.get(key);
 						boolean drawScaledFragment = false;
 						if (fragment != null) {
-							if (fragment != NULL_BITMAP) {
-								dstRect.set(x, y, x + scale * fragment.getWidth(), y + scale * fragment.getHeight());
-								canvas.drawBitmap(fragment, null, dstRect, paint);
+							if (fragment.bitmap != NULL_BITMAP) {
+								srcRect.set(0, 0, fragment.width, fragment.height);
+								dstRect.set(x, y, x + scale * fragment.width, y + scale * fragment.height);
+								canvas.drawBitmap(fragment.bitmap, srcRect, dstRect, paint);
 							} else {
 								drawScaledFragment = true;
 							}
 						} else {
+							long dx = x + size / 2 - centerX;
+							long dy = y + size / 2 - centerY;
+							long distance = dx * dx + dy * dy;
 							DecodeTask task = tasks.get(key);
 							if (task == null) {
 								task = new DecodeTask(key, x, y, scale);
-								task.executeOnExecutor(EXECUTOR);
 								tasks.put(key, task);
+								synchronized (pendingTasks) {
+									task.distance = distance;
+									pendingTasks.add(task);
+								}
+								EXECUTOR.execute(decodeRunnable);
+							} else {
+								synchronized (pendingTasks) {
+									task.distance = distance;
+								}
 							}
+							task.drawIndex = drawIndex;
 							drawScaledFragment = true;
 						}
 						if (drawScaledFragment) {
@@ -147,7 +204,7 @@ public class DecoderDrawable extends Drawable {
 							canvas.drawBitmap(scaledBitmap, null, dstRect, paint);
 							canvas.restore();
 						}
-						maxEntries++;
+						fragmentsCount++;
 					}
 				}
 			}
@@ -155,16 +212,58 @@ public class DecoderDrawable extends Drawable {
 			dstRect.set(0, 0, width, height);
 			canvas.drawBitmap(scaledBitmap, null, dstRect, paint);
 		}
-		maxEntries = Math.max(MIN_MAX_ENTRIES, maxEntries);
-		fragments.setMaxEntries(maxEntries);
-		int cancel = tasks.size() - maxEntries;
-		if (cancel > 0) {
-			Iterator<DecodeTask> iterator = tasks.values().iterator();
-			while (iterator.hasNext() && cancel-- > 0) {
-				iterator.next().cancel();
+		// Fragments out of view are not needed anymore
+		Iterator<DecodeTask> iterator = tasks.values().iterator();
+		while (iterator.hasNext()) {
+			DecodeTask task = iterator.next();
+			if (task.drawIndex != drawIndex) {
+				cancelTask(task);
 				iterator.remove();
 			}
 		}
+		trimFragments(Math.max(MIN_FRAGMENTS_SIZE, (long) fragmentsCount * FRAGMENT_BYTE_COUNT));
+	}
+
+	private void trimFragments(long maxSize) {
+		Iterator<Fragment> iterator = fragments.values().iterator();
+		while (fragmentsSize > maxSize && iterator.hasNext()) {
+			Fragment fragment = iterator.next();
+			iterator.remove();
+			fragmentsSize -= fragment.getByteCount();
+			releaseBitmap(fragment.bitmap);
+		}
+	}
+
+	private void releaseBitmap(Bitmap bitmap) {
+		if (bitmap != null && bitmap != NULL_BITMAP) {
+			boolean reuse = !recycled && rotation == 0 && bitmap.isMutable() && !bitmap.isRecycled()
+					&& bitmap.getWidth() == FRAGMENT_SIZE && bitmap.getHeight() == FRAGMENT_SIZE;
+			if (reuse) {
+				synchronized (reusableBitmaps) {
+					reuse = reusableBitmaps.size() < MAX_REUSABLE_FRAGMENTS;
+					if (reuse) {
+						reusableBitmaps.add(bitmap);
+					}
+				}
+			}
+			if (!reuse) {
+				bitmap.recycle();
+			}
+		}
+	}
+
+	private Bitmap obtainReusableBitmap() {
+		synchronized (reusableBitmaps) {
+			return reusableBitmaps.isEmpty() ? null : reusableBitmaps.remove(reusableBitmaps.size() - 1);
+		}
+	}
+
+	private void cancelTask(DecodeTask task) {
+		synchronized (pendingTasks) {
+			task.cancelled = true;
+			pendingTasks.remove(task);
+		}
+		task.cancel();
 	}
 
 	@Override
@@ -194,13 +293,22 @@ public class DecoderDrawable extends Drawable {
 
 	private void clear() {
 		for (DecodeTask task : tasks.values()) {
-			task.cancel();
+			cancelTask(task);
 		}
 		tasks.clear();
-		for (Bitmap fragment : fragments.values()) {
-			fragment.recycle();
+		for (Fragment fragment : fragments.values()) {
+			if (fragment.bitmap != NULL_BITMAP) {
+				fragment.bitmap.recycle();
+			}
 		}
 		fragments.clear();
+		fragmentsSize = 0;
+		synchronized (reusableBitmaps) {
+			for (Bitmap bitmap : reusableBitmaps) {
+				bitmap.recycle();
+			}
+			reusableBitmaps.clear();
+		}
 	}
 
 	public void setEnabled(boolean enabled) {
@@ -220,8 +328,16 @@ public class DecoderDrawable extends Drawable {
 		if (!recycled) {
 			recycled = true;
 			clear();
-			synchronized (this) {
-				decoder.recycle();
+			synchronized (decoders) {
+				// Decoders which are in use will be recycled when released
+				for (BitmapRegionDecoder decoder : decoders) {
+					decoder.recycle();
+				}
+				decoders.clear();
+				for (FileHolder.Descriptor descriptor : descriptors) {
+					IOUtils.close(descriptor);
+				}
+				descriptors.clear();
 			}
 		}
 		if (recycleScaled) {
@@ -229,21 +345,88 @@ public class DecoderDrawable extends Drawable {
 		}
 	}
 
+	private BitmapRegionDecoder obtainDecoder() throws IOException {
+		synchronized (decoders) {
+			if (recycled) {
+				return null;
+			}
+			if (!decoders.isEmpty()) {
+				return decoders.remove(decoders.size() - 1);
+			}
+			decodersCount++;
+		}
+		// Descriptor allows decoder to read the file directly instead of copying it to memory
+		FileHolder.Descriptor descriptor = null;
+		BitmapRegionDecoder decoder = null;
+		try {
+			descriptor = fileHolder.openDescriptor();
+			decoder = BitmapRegionDecoder.newInstance(descriptor.getFileDescriptor(), false);
+		} finally {
+			synchronized (decoders) {
+				if (decoder == null) {
+					decodersCount--;
+					IOUtils.close(descriptor);
+				} else if (recycled) {
+					decoder.recycle();
+					decoder = null;
+					IOUtils.close(descriptor);
+				} else {
+					descriptors.add(descriptor);
+				}
+			}
+		}
+		return decoder;
+	}
+
+	private void releaseDecoder(BitmapRegionDecoder decoder) {
+		synchronized (decoders) {
+			if (recycled) {
+				decoder.recycle();
+			} else {
+				decoders.add(decoder);
+			}
+		}
+	}
+
 	private int calculateKey(int x, int y, int scale) {
 		return x << 18 | y << 4 | scale;
 	}
 
-	private class DecodeTask extends AsyncTask<Void, Void, Bitmap> {
+	// Runnable is executed once per task and decodes the nearest to the viewport center pending fragment
+	private final Runnable decodeRunnable = () -> {
+		DecodeTask task = null;
+		synchronized (pendingTasks) {
+			for (DecodeTask pendingTask : pendingTasks) {
+				if (task == null || pendingTask.distance < task.distance) {
+					task = pendingTask;
+				}
+			}
+			if (task != null) {
+				pendingTasks.remove(task);
+			}
+		}
+		if (task != null) {
+			task.run();
+		}
+	};
+
+	private class DecodeTask implements Runnable {
 		private final int key;
 		private final Rect rect;
+		private final int fragmentWidth;
+		private final int fragmentHeight;
 		private final BitmapFactory.Options options = new BitmapFactory.Options();
 
-		private boolean error = false;
+		public long distance;
+		public int drawIndex;
+		public boolean cancelled = false;
 
 		public DecodeTask(int key, int x, int y, int scale) {
 			this.key = key;
 			rect = new Rect(x, y, Math.min(x + FRAGMENT_SIZE * scale, width),
 					Math.min(y + FRAGMENT_SIZE * scale, height));
+			fragmentWidth = Math.max(rect.width() / scale, 1);
+			fragmentHeight = Math.max(rect.height() / scale, 1);
 			if (rotation != 0) {
 				Matrix matrix = new Matrix();
 				matrix.setRotate(rotation);
@@ -259,13 +442,31 @@ public class DecoderDrawable extends Drawable {
 				rect.set((int) rectF.left, (int) rectF.top, (int) rectF.right, (int) rectF.bottom);
 			}
 			options.inSampleSize = scale;
+			options.inMutable = true;
 		}
 
 		@Override
-		protected Bitmap doInBackground(Void... params) {
+		public void run() {
+			Bitmap bitmap = null;
+			boolean error = false;
+			BitmapRegionDecoder decoder = null;
 			try {
-				synchronized (DecoderDrawable.this) {
-					Bitmap bitmap = decoder.decodeRegion(rect, options);
+				decoder = obtainDecoder();
+				if (decoder != null && !cancelled) {
+					if (rotation == 0) {
+						options.inBitmap = obtainReusableBitmap();
+					}
+					try {
+						bitmap = decoder.decodeRegion(rect, options);
+					} catch (IllegalArgumentException e) {
+						if (options.inBitmap == null) {
+							throw e;
+						}
+						// Reusable bitmap doesn't fit, decode without it
+						options.inBitmap.recycle();
+						options.inBitmap = null;
+						bitmap = decoder.decodeRegion(rect, options);
+					}
 					if (bitmap != null && rotation != 0) {
 						Matrix matrix = new Matrix();
 						matrix.setRotate(-rotation);
@@ -274,42 +475,51 @@ public class DecoderDrawable extends Drawable {
 						bitmap.recycle();
 						bitmap = newBitmap;
 					}
-					return bitmap;
 				}
 			} catch (Throwable t) {
 				error = true;
 				Log.persistent().stack(t);
-				return null;
+			} finally {
+				if (decoder != null) {
+					releaseDecoder(decoder);
+				}
 			}
+			Bitmap result = bitmap;
+			boolean resultError = error;
+			HANDLER.post(() -> onDecodeComplete(result, resultError));
 		}
 
 		@SuppressWarnings("deprecation")
 		public void cancel() {
-			cancel(false);
 			if (!C.API_NOUGAT) {
 				options.mCancel = true;
 			}
 		}
 
-		@Override
-		protected void onCancelled(Bitmap result) {
-			if (result != null) {
-				result.recycle();
+		private void onDecodeComplete(Bitmap bitmap, boolean error) {
+			if (tasks.get(key) == this) {
+				tasks.remove(key);
 			}
-		}
-
-		@Override
-		protected void onPostExecute(Bitmap result) {
-			tasks.remove(key);
-			if (error) {
+			if (cancelled || recycled) {
+				releaseBitmap(bitmap);
+			} else if (error) {
 				recycle(false);
 			} else {
-				if (result == null) {
-					result = NULL_BITMAP;
+				Fragment fragment;
+				if (bitmap == null) {
+					fragment = new Fragment(NULL_BITMAP, 0, 0);
+				} else {
+					fragment = new Fragment(bitmap, Math.min(bitmap.getWidth(), fragmentWidth),
+							Math.min(bitmap.getHeight(), fragmentHeight));
+				}
+				Fragment oldFragment = fragments.put(key, fragment);
+				fragmentsSize += fragment.getByteCount();
+				if (oldFragment != null) {
+					fragmentsSize -= oldFragment.getByteCount();
+					releaseBitmap(oldFragment.bitmap);
 				}
-				fragments.put(key, result);
 				invalidateSelf();
 			}
 		}
 	}
-}
\ No newline at end of file
+}
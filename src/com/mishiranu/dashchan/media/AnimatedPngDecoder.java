@@ -25,22 +25,15 @@ import java.util.zip.CRC32;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.ColorFilter;
 import android.graphics.Paint;
-import android.graphics.PixelFormat;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
-import android.graphics.Rect;
-import android.graphics.drawable.Drawable;
-import android.os.Handler;
-import android.os.Looper;
 
 import com.mishiranu.dashchan.content.model.FileHolder;
 import com.mishiranu.dashchan.util.GraphicsUtils;
 import com.mishiranu.dashchan.util.IOUtils;
 
-public class AnimatedPngDecoder implements Runnable {
-	private static final Handler HANDLER = new Handler(Looper.getMainLooper());
+public class AnimatedPngDecoder extends FrameAnimator {
 	private static final byte[] IEND_CHUNK = {0, 0, 0, 0, 'I', 'E', 'N', 'D', (byte) 0xae, 0x42, 0x60, (byte) 0x82};
 
 	private final Bitmap bitmap;
@@ -48,8 +41,6 @@ public class AnimatedPngDecoder implements Runnable {
 	private final Frame[] frames;
 	private final int duration;
 
-	private long startTime;
-
 	private static class Frame {
 		public byte[] bytes;
 		public Bitmap bitmap;
@@ -248,7 +239,6 @@ public class AnimatedPngDecoder implements Runnable {
 		}
 		this.frames = frames;
 		duration = totalTime;
-		startTime = System.currentTimeMillis();
 	}
 
 	private static void recycleFrames(Frame[] frames) {
@@ -343,8 +333,35 @@ public class AnimatedPngDecoder implements Runnable {
 		}
 	}
 
-	public void recycle() {
+	@Override
+	protected int getWidth() {
+		return frames[0].width;
+	}
+
+	@Override
+	protected int getHeight() {
+		return frames[0].height;
+	}
+
+	@Override
+	protected int getFramesCount() {
+		return frames.length;
+	}
+
+	@Override
+	protected int getFrameStartTime(int index) {
+		return frames[index].startTime;
+	}
+
+	@Override
+	protected int getDuration() {
+		return duration;
+	}
+
+	@Override
+	protected void onRecycle() {
 		recycleFrames(frames);
+		bitmap.recycle();
 	}
 
 	private int lastIndex = -1;
@@ -386,28 +403,8 @@ public class AnimatedPngDecoder implements Runnable {
 		canvas.drawBitmap(frame.bitmap, frame.x, frame.y, drawPaint);
 	}
 
-	private int draw() {
-		int position = 0;
-		if (duration > 0) {
-			long time = System.currentTimeMillis();
-			if (startTime == 0) {
-				startTime = time;
-			}
-			position = (int) ((time - startTime) % duration);
-		}
-		int index = 0;
-		int delay = -1;
-		int count = frames.length;
-		for (int i = 0; i < count; i++) {
-			if (position >= frames[i].startTime) {
-				index = i;
-			} else {
-				break;
-			}
-		}
-		if (count > 1) {
-			delay = (index + 1 < count ? frames[index + 1].startTime : duration) - position;
-		}
+	@Override
+	protected Bitmap drawFrame(int index) {
 		if (lastIndex != index) {
 			if (index > lastIndex) {
 				for (int i = lastIndex + 1; i <= index; i++) {
@@ -422,67 +419,6 @@ public class AnimatedPngDecoder implements Runnable {
 			}
 			lastIndex = index;
 		}
-		return delay;
-	}
-
-	private Drawable drawable;
-
-	public Drawable getDrawable() {
-		if (drawable == null) {
-			drawable = new Drawable() {
-				private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
-
-				@Override
-				public int getIntrinsicWidth() {
-					return frames[0].width;
-				}
-
-				@Override
-				public int getIntrinsicHeight() {
-					return frames[0].height;
-				}
-
-				@Override
-				public void setColorFilter(ColorFilter colorFilter) {
-					paint.setColorFilter(colorFilter);
-				}
-
-				@Override
-				public void setAlpha(int alpha) {
-					paint.setAlpha(alpha);
-				}
-
-				@Override
-				public int getOpacity() {
-					return PixelFormat.TRANSPARENT;
-				}
-
-				@Override
-				public void draw(Canvas canvas) {
-					Rect bounds = getBounds();
-					canvas.save();
-					canvas.scale((float) bounds.width() / getIntrinsicWidth(),
-							(float) bounds.height() / getIntrinsicHeight());
-					int delay = AnimatedPngDecoder.this.draw();
-					canvas.drawBitmap(bitmap, 0, 0, paint);
-					canvas.restore();
-					if (delay >= 0) {
-						delay -= 20;
-						if (delay > 0) {
-							delay = Math.min(delay, 500);
-							HANDLER.postDelayed(AnimatedPngDecoder.this, delay);
-						} else {
-							invalidateSelf();
-						}
-					}
-				}
-			};
-		}
-		return drawable;
-	}
-
-	@Override
-	public void run() {
-		drawable.invalidateSelf();
+		return bitmap;
 	}
-}
\ No newline at end of file
+}
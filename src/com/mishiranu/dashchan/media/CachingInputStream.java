@@ -16,29 +16,46 @@
 
 package com.mishiranu.dashchan.media;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.Arrays;
 
+import com.mishiranu.dashchan.util.IOUtils;
+
 public class CachingInputStream extends InputStream {
 	enum Whence {START, RELATIVE, END}
 
 	private final Object dataBufferLock = new Object();
-	private byte[] dataBuffer = new byte[1024];
 	private boolean dataBufferEnd = false;
 	private int dataBufferCount = 0;
 	private int dataBufferIndex = 0;
 
+	// Guards file and memory buffer, must be obtained before dataBufferLock
+	private final Object dataLock = new Object();
+	private File file;
+	private RandomAccessFile dataFile;
+	private byte[] dataBuffer;
+
 	private boolean allowReadBeyondBuffer = true;
 	private boolean closed = false;
+	private boolean moved = false;
 
 	private final byte[] oneByteBuffer = new byte[1];
 
+	// Data is written to file, so file can be moved to cache when complete.
+	// Data is kept in memory instead when file can't be written.
+	public CachingInputStream(File file) {
+		this.file = file;
+	}
+
 	@Override
 	public int read() throws IOException {
-		synchronized (dataBufferLock) {
+		synchronized (oneByteBuffer) {
 			int count = read(oneByteBuffer, 0, 1);
 			return count == 1 ? oneByteBuffer[0] : -1;
 		}
@@ -51,6 +68,7 @@ public class CachingInputStream extends InputStream {
 
 	@Override
 	public int read(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+		int position;
 		synchronized (dataBufferLock) {
 			while (dataBufferCount - dataBufferIndex < byteCount && !dataBufferEnd && !closed) {
 				if (!allowReadBeyondBuffer) {
@@ -67,24 +85,44 @@ public class CachingInputStream extends InputStream {
 				return -1;
 			}
 			byteCount = Math.min(dataBufferCount - dataBufferIndex, byteCount);
-			if (byteCount < 0) {
-				byteCount = 0;
-			} else if (byteCount > 0) {
-				System.arraycopy(dataBuffer, dataBufferIndex, buffer, byteOffset, byteCount);
-				dataBufferIndex += byteCount;
+			if (byteCount <= 0) {
+				return 0;
 			}
-			return byteCount;
+			position = dataBufferIndex;
+			dataBufferIndex += byteCount;
 		}
+		// Read outside of dataBufferLock, so waiting for data and seeking are not blocked by IO
+		synchronized (dataLock) {
+			if (dataBuffer != null) {
+				System.arraycopy(dataBuffer, position, buffer, byteOffset, byteCount);
+			} else if (dataFile != null) {
+				dataFile.seek(position);
+				dataFile.readFully(buffer, byteOffset, byteCount);
+			} else {
+				// Stream is closed
+				return -1;
+			}
+		}
+		return byteCount;
 	}
 
 	@Override
 	public void close() throws IOException {
-		synchronized (dataBufferLock) {
-			if (!dataBufferEnd) {
+		synchronized (dataLock) {
+			synchronized (dataBufferLock) {
+				if (closed) {
+					return;
+				}
 				closed = true;
 				dataBufferEnd = true;
 				dataBufferLock.notifyAll();
 			}
+			IOUtils.close(dataFile);
+			dataFile = null;
+			dataBuffer = null;
+			if (!moved && file != null) {
+				file.delete();
+			}
 		}
 	}
 
@@ -136,13 +174,52 @@ public class CachingInputStream extends InputStream {
 		}
 	}
 
+	// Called under dataLock
+	private void writeData(byte[] buffer, int offset, int count, int position) throws IOException {
+		if (dataBuffer == null && file != null) {
+			try {
+				if (dataFile == null) {
+					dataFile = new RandomAccessFile(file, "rw");
+					dataFile.setLength(0);
+				}
+				dataFile.seek(position);
+				dataFile.write(buffer, offset, count);
+				return;
+			} catch (IOException e) {
+				// Not enough space or file is not available, continue in memory
+			}
+		}
+		if (dataBuffer == null) {
+			moveToMemory(position);
+		}
+		int newCount = position + count;
+		if (newCount > dataBuffer.length) {
+			dataBuffer = Arrays.copyOf(dataBuffer, Math.max(dataBuffer.length * 2, newCount));
+		}
+		System.arraycopy(buffer, offset, dataBuffer, position, count);
+	}
+
+	// Called under dataLock
+	private void moveToMemory(int count) throws IOException {
+		byte[] dataBuffer = new byte[Math.max(count, 1024)];
+		RandomAccessFile dataFile = this.dataFile;
+		if (dataFile != null) {
+			this.dataFile = null;
+			try {
+				dataFile.seek(0);
+				dataFile.readFully(dataBuffer, 0, count);
+			} finally {
+				IOUtils.close(dataFile);
+				file.delete();
+			}
+		}
+		this.dataBuffer = dataBuffer;
+	}
+
 	private final OutputStream outputStream = new OutputStream() {
 		@Override
 		public void write(int oneByte) throws IOException {
-			synchronized (dataBufferLock) {
-				oneByteBuffer[0] = (byte) oneByte;
-				write(oneByteBuffer, 0, 1);
-			}
+			write(new byte[] {(byte) oneByte}, 0, 1);
 		}
 
 		@Override
@@ -152,18 +229,20 @@ public class CachingInputStream extends InputStream {
 
 		@Override
 		public void write(byte[] buffer, int offset, int count) throws IOException {
-			synchronized (dataBufferLock) {
-				if (dataBufferEnd || closed) {
-					throw new IOException("Stream is closed");
-				}
-				if (count > 0) {
-					int newCount = dataBufferCount + count;
-					if (newCount > dataBuffer.length) {
-						dataBuffer = Arrays.copyOf(dataBuffer, Math.max(dataBuffer.length * 2, newCount));
+			if (count > 0) {
+				synchronized (dataLock) {
+					int position;
+					synchronized (dataBufferLock) {
+						if (dataBufferEnd || closed) {
+							throw new IOException("Stream is closed");
+						}
+						position = dataBufferCount;
+					}
+					writeData(buffer, offset, count, position);
+					synchronized (dataBufferLock) {
+						dataBufferCount = position + count;
+						dataBufferLock.notifyAll();
 					}
-					System.arraycopy(buffer, offset, dataBuffer, dataBufferCount, count);
-					dataBufferCount = newCount;
-					dataBufferLock.notifyAll();
 				}
 			}
 		}
@@ -183,7 +262,48 @@ public class CachingInputStream extends InputStream {
 		return outputStream;
 	}
 
-	public void writeTo(OutputStream output) throws IOException {
-		output.write(dataBuffer, 0, dataBufferCount);
+	public boolean moveTo(File file) {
+		synchronized (dataLock) {
+			int count;
+			synchronized (dataBufferLock) {
+				if (closed || !dataBufferEnd || moved) {
+					return false;
+				}
+				count = dataBufferCount;
+			}
+			if (dataFile != null) {
+				try {
+					dataFile.getFD().sync();
+				} catch (IOException e) {
+					return false;
+				}
+				// Opened file remains valid after rename, so reading continues from the moved file
+				if (this.file.renameTo(file)) {
+					this.file = file;
+					moved = true;
+					return true;
+				}
+				return false;
+			} else {
+				// Data is in memory, so it is written to the file
+				boolean success = false;
+				FileOutputStream output = null;
+				try {
+					output = new FileOutputStream(file);
+					if (dataBuffer != null) {
+						output.write(dataBuffer, 0, count);
+					}
+					success = true;
+				} catch (IOException e) {
+					// Ignore exception
+				} finally {
+					success &= IOUtils.close(output);
+				}
+				if (!success) {
+					file.delete();
+				}
+				return success;
+			}
+		}
 	}
-}
\ No newline at end of file
+}
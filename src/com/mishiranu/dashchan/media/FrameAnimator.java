@@ -0,0 +1,310 @@
+/*
+ * Copyright 2014-2016 Fukurou Mishiranu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mishiranu.dashchan.media;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.mishiranu.dashchan.util.ConcurrentUtils;
+import com.mishiranu.dashchan.util.Log;
+
+public abstract class FrameAnimator {
+	private static final Handler HANDLER = new Handler(Looper.getMainLooper());
+	private static final Executor EXECUTOR = ConcurrentUtils.newSingleThreadPool(20000, "FrameAnimator", null,
+			Process.THREAD_PRIORITY_DISPLAY);
+
+	private static final int MAX_BUFFERS_COUNT = 3;
+	private static final long MAX_BUFFERS_SIZE = Runtime.getRuntime().maxMemory() / 8;
+
+	private final ArrayList<Bitmap> freeBuffers = new ArrayList<>();
+	private final ArrayDeque<Frame> readyFrames = new ArrayDeque<>();
+	private int buffersCount = -1;
+	private int createdBuffersCount;
+
+	private final Canvas copyCanvas = new Canvas();
+	private final Paint copyPaint = new Paint();
+
+	private Drawable drawable;
+	private Frame currentFrame;
+	private long startTime;
+	private int nextIndex;
+	private long nextTime;
+	private boolean decoded = false;
+	private boolean decoding = false;
+	private boolean failed = false;
+	private boolean waiting = false;
+	private boolean recycled = false;
+	private boolean released = false;
+
+	private static class Frame {
+		public final Bitmap bitmap;
+		public final long time;
+
+		public Frame(Bitmap bitmap, long time) {
+			this.bitmap = bitmap;
+			this.time = time;
+		}
+	}
+
+	public FrameAnimator() {
+		copyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+	}
+
+	protected abstract int getWidth();
+	protected abstract int getHeight();
+	protected abstract int getFramesCount();
+	protected abstract int getFrameStartTime(int index);
+	protected abstract int getDuration();
+
+	// Called sequentially from decoding thread, returns bitmap with composed frame
+	protected abstract Bitmap drawFrame(int index);
+
+	protected abstract void onRecycle();
+
+	private boolean isAnimated() {
+		return getFramesCount() > 1 && getDuration() > 0;
+	}
+
+	private int getFrameDuration(int index) {
+		return (index + 1 < getFramesCount() ? getFrameStartTime(index + 1) : getDuration())
+				- getFrameStartTime(index);
+	}
+
+	public void recycle() {
+		boolean release;
+		synchronized (this) {
+			if (recycled) {
+				return;
+			}
+			recycled = true;
+			HANDLER.removeCallbacks(invalidateRunnable);
+			for (Bitmap bitmap : freeBuffers) {
+				bitmap.recycle();
+			}
+			freeBuffers.clear();
+			for (Frame frame : readyFrames) {
+				frame.bitmap.recycle();
+			}
+			readyFrames.clear();
+			if (currentFrame != null) {
+				currentFrame.bitmap.recycle();
+				currentFrame = null;
+			}
+			// Decoding thread will release resources by itself
+			release = !decoding;
+			released |= release;
+		}
+		if (release) {
+			onRecycle();
+		}
+	}
+
+	private boolean canDecode() {
+		return !recycled && !failed && (!freeBuffers.isEmpty() || createdBuffersCount < buffersCount)
+				&& (isAnimated() || !decoded);
+	}
+
+	private void startDecoding() {
+		if (buffersCount == -1) {
+			long size = 4L * getWidth() * getHeight();
+			buffersCount = size * MAX_BUFFERS_COUNT > MAX_BUFFERS_SIZE ? 2 : MAX_BUFFERS_COUNT;
+			if (!isAnimated()) {
+				buffersCount = 1;
+			}
+		}
+		if (!decoding && canDecode()) {
+			decoding = true;
+			EXECUTOR.execute(decodeRunnable);
+		}
+	}
+
+	private final Runnable invalidateRunnable = () -> {
+		if (drawable != null) {
+			drawable.invalidateSelf();
+		}
+	};
+
+	private final Runnable decodeRunnable = () -> {
+		boolean release = false;
+		try {
+			while (true) {
+				Bitmap buffer = null;
+				int index;
+				long time;
+				synchronized (this) {
+					if (!canDecode()) {
+						decoding = false;
+						release = recycled && !released;
+						released |= release;
+						break;
+					}
+					if (!freeBuffers.isEmpty()) {
+						buffer = freeBuffers.remove(freeBuffers.size() - 1);
+					} else {
+						createdBuffersCount++;
+					}
+					if (isAnimated()) {
+						if (startTime != 0) {
+							// Skip frames which are already late, so playback doesn't lag behind
+							int duration = getDuration();
+							long position = SystemClock.uptimeMillis() - startTime;
+							if (position - nextTime > duration) {
+								nextTime += (position - nextTime) / duration * duration;
+							}
+							while (nextTime + getFrameDuration(nextIndex) <= position) {
+								nextTime += getFrameDuration(nextIndex);
+								nextIndex = (nextIndex + 1) % getFramesCount();
+							}
+						}
+						index = nextIndex;
+					} else {
+						index = getFramesCount() - 1;
+					}
+					time = nextTime;
+				}
+				if (buffer == null) {
+					buffer = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+				}
+				Bitmap bitmap = drawFrame(index);
+				copyCanvas.setBitmap(buffer);
+				copyCanvas.drawBitmap(bitmap, 0, 0, copyPaint);
+				copyCanvas.setBitmap(null);
+				synchronized (this) {
+					if (recycled) {
+						buffer.recycle();
+					} else {
+						readyFrames.add(new Frame(buffer, time));
+						decoded = true;
+						if (isAnimated()) {
+							nextTime += getFrameDuration(index);
+							nextIndex = (index + 1) % getFramesCount();
+						}
+						if (waiting) {
+							waiting = false;
+							HANDLER.post(invalidateRunnable);
+						}
+					}
+				}
+			}
+		} catch (Throwable t) {
+			Log.persistent().stack(t);
+			synchronized (this) {
+				decoding = false;
+				failed = true;
+				release = recycled && !released;
+				released |= release;
+			}
+		}
+		if (release) {
+			onRecycle();
+		}
+	};
+
+	public Drawable getDrawable() {
+		if (drawable == null) {
+			drawable = new Drawable() {
+				private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
+
+				@Override
+				public int getIntrinsicWidth() {
+					return FrameAnimator.this.getWidth();
+				}
+
+				@Override
+				public int getIntrinsicHeight() {
+					return FrameAnimator.this.getHeight();
+				}
+
+				@Override
+				public void setColorFilter(ColorFilter colorFilter) {
+					paint.setColorFilter(colorFilter);
+				}
+
+				@Override
+				public void setAlpha(int alpha) {
+					paint.setAlpha(alpha);
+				}
+
+				@Override
+				public int getOpacity() {
+					return PixelFormat.TRANSPARENT;
+				}
+
+				@Override
+				public void draw(Canvas canvas) {
+					Bitmap bitmap = null;
+					long delay = -1;
+					synchronized (FrameAnimator.this) {
+						if (!recycled) {
+							long time = SystemClock.uptimeMillis();
+							if (currentFrame == null) {
+								currentFrame = readyFrames.poll();
+								if (currentFrame != null) {
+									startTime = time - currentFrame.time;
+								}
+							}
+							// Only the latest ready frame is displayed, late frames are dropped
+							while (currentFrame != null && !readyFrames.isEmpty() &&
+									startTime + readyFrames.peek().time <= time) {
+								freeBuffers.add(currentFrame.bitmap);
+								currentFrame = readyFrames.poll();
+							}
+							if (currentFrame != null) {
+								bitmap = currentFrame.bitmap;
+							}
+							Frame nextFrame = readyFrames.peek();
+							if (nextFrame != null) {
+								delay = Math.max(startTime + nextFrame.time - time, 0);
+							} else {
+								waiting = currentFrame == null || isAnimated();
+							}
+							startDecoding();
+						}
+					}
+					if (bitmap != null) {
+						Rect bounds = getBounds();
+						canvas.save();
+						canvas.scale((float) bounds.width() / getIntrinsicWidth(),
+								(float) bounds.height() / getIntrinsicHeight());
+						canvas.drawBitmap(bitmap, 0, 0, paint);
+						canvas.restore();
+					}
+					HANDLER.removeCallbacks(invalidateRunnable);
+					if (delay >= 0) {
+						HANDLER.postDelayed(invalidateRunnable, delay);
+					}
+				}
+			};
+		}
+		return drawable;
+	}
+}
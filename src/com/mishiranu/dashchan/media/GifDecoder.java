@@ -20,31 +20,24 @@ import java.io.File;
 import java.io.IOException;
 
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.ColorFilter;
-import android.graphics.Paint;
-import android.graphics.PixelFormat;
-import android.graphics.Rect;
-import android.graphics.drawable.Drawable;
-import android.os.Handler;
-import android.os.Looper;
-
-public class GifDecoder implements Runnable {
+
+public class GifDecoder extends FrameAnimator {
 	private static native long init(String fileName);
 	private static native void destroy(long pointer);
 
 	private static native int getErrorCode(long pointer);
 	private static native void getSummary(long pointer, int[] summary);
+	private static native void getStartTimes(long pointer, int[] startTimes);
 
-	private static native int draw(long pointer, Bitmap bitmap);
-
-	private static final Handler HANDLER = new Handler(Looper.getMainLooper());
+	private static native void drawFrame(long pointer, Bitmap bitmap, int index);
 
 	private final long pointer;
 	private boolean consumed = false;
 
 	private final int width;
 	private final int height;
+	private final int[] startTimes;
+	private final int duration;
 	private final Bitmap bitmap;
 
 	private static boolean loaded = false;
@@ -63,94 +56,80 @@ public class GifDecoder implements Runnable {
 		pointer = init(file.getAbsolutePath());
 		int errorCode = getErrorCode(pointer);
 		if (errorCode != 0) {
-			recycle();
+			consumed = true;
+			destroy(pointer);
 			throw new IOException("Can't initialize decoder: CODE=" + errorCode);
 		}
-		int[] summary = new int[2];
+		int[] summary = new int[4];
 		getSummary(pointer, summary);
 		width = summary[0];
 		height = summary[1];
-		bitmap = Bitmap.createBitmap(summary[0], summary[1], Bitmap.Config.ARGB_8888);
-	}
-
-	public void recycle() {
-		if (!consumed) {
-			consumed = true;
-			if (bitmap != null) {
-				bitmap.recycle();
+		startTimes = new int[summary[2]];
+		duration = summary[3];
+		getStartTimes(pointer, startTimes);
+		Bitmap bitmap = null;
+		try {
+			bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		} catch (OutOfMemoryError e) {
+			throw new IOException(e);
+		} finally {
+			if (bitmap == null) {
+				consumed = true;
+				destroy(pointer);
 			}
-			destroy(pointer);
 		}
+		this.bitmap = bitmap;
 	}
 
 	@Override
-	protected void finalize() throws Throwable {
-		try {
-			recycle();
-		} finally {
-			super.finalize();
-		}
+	protected int getWidth() {
+		return width;
 	}
 
-	private Drawable drawable;
-
-	public Drawable getDrawable() {
-		if (drawable == null) {
-			drawable = new Drawable() {
-				private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
-
-				@Override
-				public int getIntrinsicWidth() {
-					return width;
-				}
+	@Override
+	protected int getHeight() {
+		return height;
+	}
 
-				@Override
-				public int getIntrinsicHeight() {
-					return height;
-				}
+	@Override
+	protected int getFramesCount() {
+		return startTimes.length;
+	}
 
-				@Override
-				public void setColorFilter(ColorFilter colorFilter) {
-					paint.setColorFilter(colorFilter);
-				}
+	@Override
+	protected int getFrameStartTime(int index) {
+		return startTimes[index];
+	}
 
-				@Override
-				public void setAlpha(int alpha) {
-					paint.setAlpha(alpha);
-				}
+	@Override
+	protected int getDuration() {
+		return duration;
+	}
 
-				@Override
-				public int getOpacity() {
-					return PixelFormat.TRANSPARENT;
-				}
+	@Override
+	protected Bitmap drawFrame(int index) {
+		drawFrame(pointer, bitmap, index);
+		return bitmap;
+	}
 
-				@Override
-				public void draw(Canvas canvas) {
-					if (!consumed) {
-						Rect bounds = getBounds();
-						canvas.save();
-						canvas.scale((float) bounds.width() / width, (float) bounds.height() / height);
-						int delay = GifDecoder.draw(pointer, bitmap);
-						canvas.drawBitmap(bitmap, 0, 0, paint);
-						canvas.restore();
-						if (delay >= 0) {
-							delay -= 20;
-							if (delay > 0) {
-								delay = Math.min(delay, 500);
-								HANDLER.postDelayed(GifDecoder.this, delay);
-							} else {
-								invalidateSelf();
-							}
-						}
-					}
-				}
-			};
+	@Override
+	protected void onRecycle() {
+		synchronized (this) {
+			if (consumed) {
+				return;
+			}
+			consumed = true;
 		}
-		return drawable;
+		bitmap.recycle();
+		destroy(pointer);
 	}
 
 	@Override
-	public void run() {
-		drawable.invalidateSelf();
+	protected void finalize() throws Throwable {
+		try {
+			recycle();
+		} finally {
+			super.finalize();
+		}
 	}
-}
\ No newline at end of file
+}
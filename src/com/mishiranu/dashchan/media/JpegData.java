@@ -16,7 +16,6 @@
 
 package com.mishiranu.dashchan.media;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -29,7 +28,6 @@ import android.util.Pair;
 
 import chan.util.StringUtils;
 
-import com.mishiranu.dashchan.content.model.FileHolder;
 import com.mishiranu.dashchan.util.IOUtils;
 
 public class JpegData {
@@ -50,11 +48,16 @@ public class JpegData {
 
 	public final boolean hasExif;
 	public final boolean forbidRegionDecoder;
+	public final int width;
+	public final int height;
 	private final LinkedHashMap<String, String> exif;
 
-	private JpegData(boolean hasExif, boolean forbidRegionDecoder, LinkedHashMap<String, String> exif) {
+	private JpegData(boolean hasExif, boolean forbidRegionDecoder, int width, int height,
+			LinkedHashMap<String, String> exif) {
 		this.hasExif = hasExif;
 		this.forbidRegionDecoder = forbidRegionDecoder;
+		this.width = width;
+		this.height = height;
 		this.exif = exif;
 	}
 
@@ -276,86 +279,87 @@ public class JpegData {
 		return false;
 	}
 
-	public static JpegData extract(FileHolder fileHolder) {
-		if (fileHolder.getImageType() == FileHolder.ImageType.IMAGE_JPEG) {
-			byte[] exifBytes = null;
-			byte[] sofBytes = null;
-			InputStream input = null;
-			try {
-				input = new BufferedInputStream(fileHolder.openInputStream(), 327680);
-				byte[] buffer = new byte[2];
-				while (true) {
-					int oneByte = input.read();
-					if (oneByte == 0xff) {
-						oneByte = input.read();
-						if ((oneByte & 0xe0) == 0xe0) {
-							// Application data (0xe0 for JFIF, 0xe1 for EXIF) or comment (0xfe)
-							if (!IOUtils.readExactlyCheck(input, buffer, 0, 2)) {
+	// Input must point to the start of JPEG file, the stream is not closed
+	public static JpegData extract(InputStream input) {
+		byte[] exifBytes = null;
+		byte[] sofBytes = null;
+		try {
+			byte[] buffer = new byte[2];
+			while (true) {
+				int oneByte = input.read();
+				if (oneByte == 0xff) {
+					oneByte = input.read();
+					if ((oneByte & 0xe0) == 0xe0) {
+						// Application data (0xe0 for JFIF, 0xe1 for EXIF) or comment (0xfe)
+						if (!IOUtils.readExactlyCheck(input, buffer, 0, 2)) {
+							break;
+						}
+						int size = IOUtils.bytesToInt(false, 0, 2, buffer);
+						if (oneByte == 0xe1 && size > 14) {
+							byte[] data = new byte[size - 8];
+							if (!IOUtils.readExactlyCheck(input, data, 0, 6)) {
 								break;
 							}
-							int size = IOUtils.bytesToInt(false, 0, 2, buffer);
-							if (oneByte == 0xe1 && size > 14) {
-								byte[] data = new byte[size - 8];
-								if (!IOUtils.readExactlyCheck(input, data, 0, 6)) {
-									break;
-								}
-								boolean isExif = new String(data).startsWith("Exif");
-								if (!IOUtils.readExactlyCheck(input, data, 0, data.length)) {
-									break;
-								}
-								if (isExif) {
-									exifBytes = data;
-								}
-							} else {
-								if (!IOUtils.skipExactlyCheck(input, size - 2)) {
-									break;
-								}
-							}
-						} else if (oneByte == 0xc0 || oneByte == 0xc1 || oneByte == 0xc2) {
-							if (!IOUtils.readExactlyCheck(input, buffer, 0, 2)) {
+							boolean isExif = new String(data).startsWith("Exif");
+							if (!IOUtils.readExactlyCheck(input, data, 0, data.length)) {
 								break;
 							}
-							int size = IOUtils.bytesToInt(false, 0, 2, buffer) - 2;
-							byte[] data = new byte[size];
-							if (!IOUtils.readExactlyCheck(input, data, 0, size)) {
+							if (isExif) {
+								exifBytes = data;
+							}
+						} else {
+							if (!IOUtils.skipExactlyCheck(input, size - 2)) {
 								break;
 							}
-							sofBytes = data;
-						} else if (oneByte == 0xda) {
+						}
+					} else if ((oneByte & 0xf0) == 0xc0 && oneByte != 0xc4 && oneByte != 0xc8 && oneByte != 0xcc) {
+						// Start of frame, contains image size
+						if (!IOUtils.readExactlyCheck(input, buffer, 0, 2)) {
 							break;
 						}
-					}
-					if (oneByte == -1) {
+						int size = IOUtils.bytesToInt(false, 0, 2, buffer) - 2;
+						byte[] data = new byte[size];
+						if (!IOUtils.readExactlyCheck(input, data, 0, size)) {
+							break;
+						}
+						sofBytes = data;
+					} else if (oneByte == 0xda) {
 						break;
 					}
 				}
-			} catch (IOException e) {
-				// Ignore exception
-			} finally {
-				IOUtils.close(input);
-			}
-			boolean forbidRegionDecoder = sofBytes != null && sofBytes.length > 7 && (sofBytes[5] & 0xff) == 1
-					&& (sofBytes[7] & 0xff) != 0x11;
-			LinkedHashMap<String, String> exif = null;
-			if (exifBytes != null && exifBytes.length > 8) {
-				int tiffHeader = IOUtils.bytesToInt(false, 0, 4, exifBytes);
-				boolean littleEndian = false;
-				boolean valid = true;
-				if (tiffHeader == 0x49492a00) {
-					littleEndian = true;
-				} else if (tiffHeader != 0x4d4d002a) {
-					valid = false;
-				}
-				if (valid) {
-					exif = new LinkedHashMap<>();
-					int ifdOffset = IOUtils.bytesToInt(littleEndian, 4, 4, exifBytes);
-					extractIfd(exif, IFD_GENERAL, exifBytes, ifdOffset, littleEndian);
-					extractIfd(exif, IFD_GENERAL, exifBytes, KEY_EXIF_OFFSET, littleEndian);
-					extractIfd(exif, IFD_GPS, exifBytes, KEY_GPS_OFFSET, littleEndian);
+				if (oneByte == -1) {
+					break;
 				}
 			}
-			return new JpegData(exifBytes != null, forbidRegionDecoder, exif);
+		} catch (IOException e) {
+			// Ignore exception
 		}
-		return null;
+		boolean forbidRegionDecoder = sofBytes != null && sofBytes.length > 7 && (sofBytes[5] & 0xff) == 1
+				&& (sofBytes[7] & 0xff) != 0x11;
+		LinkedHashMap<String, String> exif = null;
+		if (exifBytes != null && exifBytes.length > 8) {
+			int tiffHeader = IOUtils.bytesToInt(false, 0, 4, exifBytes);
+			boolean littleEndian = false;
+			boolean valid = true;
+			if (tiffHeader == 0x49492a00) {
+				littleEndian = true;
+			} else if (tiffHeader != 0x4d4d002a) {
+				valid = false;
+			}
+			if (valid) {
+				exif = new LinkedHashMap<>();
+				int ifdOffset = IOUtils.bytesToInt(littleEndian, 4, 4, exifBytes);
+				extractIfd(exif, IFD_GENERAL, exifBytes, ifdOffset, littleEndian);
+				extractIfd(exif, IFD_GENERAL, exifBytes, KEY_EXIF_OFFSET, littleEndian);
+				extractIfd(exif, IFD_GPS, exifBytes, KEY_GPS_OFFSET, littleEndian);
+			}
+		}
+		int width = -1;
+		int height = -1;
+		if (sofBytes != null && sofBytes.length >= 5) {
+			height = IOUtils.bytesToInt(false, 1, 2, sofBytes);
+			width = IOUtils.bytesToInt(false, 3, 2, sofBytes);
+		}
+		return new JpegData(exifBytes != null, forbidRegionDecoder, width, height, exif);
 	}
 }
\ No newline at end of file
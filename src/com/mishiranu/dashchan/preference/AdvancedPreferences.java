@@ -42,10 +42,20 @@ public class AdvancedPreferences {
 	private static final HashSet<String> SINGLE_CONNECTIONS = new HashSet<>();
 	private static final String GOOGLE_COOKIE;
 	private static final int TAB_SIZE;
+	private static final String THUMBNAILS_FORMAT;
+	private static final int THUMBNAILS_QUALITY;
+	private static final int DOWNLOAD_PARALLELISM;
+	private static final int DOWNLOAD_HOST_CONNECTIONS;
+	private static final int HOST_CONNECTIONS;
 
 	static {
 		CookieBuilder googleCookieBuilder = null;
 		int tabSize = 0;
+		String thumbnailsFormat = null;
+		int thumbnailsQuality = 0;
+		int downloadParallelism = 0;
+		int downloadHostConnections = 0;
+		int hostConnections = 0;
 		File file = MainApplication.getInstance().getExternalCacheDir();
 		if (file != null) {
 			file = new File(file.getParentFile(), "files/advanced.json");
@@ -105,6 +115,11 @@ public class AdvancedPreferences {
 							}
 						}
 						tabSize = jsonObject.optInt("tabSize");
+						thumbnailsFormat = jsonObject.optString("thumbnailsFormat", null);
+						thumbnailsQuality = jsonObject.optInt("thumbnailsQuality");
+						downloadParallelism = jsonObject.optInt("downloadParallelism");
+						downloadHostConnections = jsonObject.optInt("downloadHostConnections");
+						hostConnections = jsonObject.optInt("hostConnections");
 					} catch (JSONException e) {
 						Log.persistent().stack(e);
 					}
@@ -113,6 +128,12 @@ public class AdvancedPreferences {
 		}
 		GOOGLE_COOKIE = googleCookieBuilder != null ? googleCookieBuilder.build() : null;
 		TAB_SIZE = tabSize;
+		THUMBNAILS_FORMAT = thumbnailsFormat;
+		THUMBNAILS_QUALITY = thumbnailsQuality > 0 && thumbnailsQuality <= 100 ? thumbnailsQuality : 80;
+		DOWNLOAD_PARALLELISM = downloadParallelism > 0 ? Math.min(downloadParallelism, 10) : 3;
+		DOWNLOAD_HOST_CONNECTIONS = downloadHostConnections > 0 ? downloadHostConnections : 2;
+		// Downloads must not take all connections to the host
+		HOST_CONNECTIONS = Math.max(hostConnections > 0 ? hostConnections : 6, DOWNLOAD_HOST_CONNECTIONS + 2);
 	}
 
 	public static String getUserAgent(String chanName) {
@@ -138,4 +159,25 @@ public class AdvancedPreferences {
 	public static int getTabSize() {
 		return TAB_SIZE;
 	}
-}
\ No newline at end of file
+
+	public static String getThumbnailsFormat() {
+		// Supported values: "webp", "jpeg", "png"
+		return THUMBNAILS_FORMAT;
+	}
+
+	public static int getThumbnailsQuality() {
+		return THUMBNAILS_QUALITY;
+	}
+
+	public static int getDownloadParallelism() {
+		return DOWNLOAD_PARALLELISM;
+	}
+
+	public static int getDownloadHostConnections() {
+		return DOWNLOAD_HOST_CONNECTIONS;
+	}
+
+	public static int getHostConnections() {
+		return HOST_CONNECTIONS;
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014-2016 Fukurou Mishiranu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mishiranu.dashchan.text;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class AhoCorasickMatcher {
+	private final boolean ignoreCase;
+
+	private final char[][] nodeChars;
+	private final int[][] nodeNext;
+	private final int[] nodeFail;
+	private final int[][] nodeOutputs;
+
+	public AhoCorasickMatcher(List<String> literals, boolean ignoreCase) {
+		this.ignoreCase = ignoreCase;
+		ArrayList<HashMap<Character, Integer>> edges = new ArrayList<>();
+		ArrayList<ArrayList<Integer>> outputs = new ArrayList<>();
+		edges.add(new HashMap<>());
+		outputs.add(new ArrayList<>());
+		for (int i = 0; i < literals.size(); i++) {
+			String literal = literals.get(i);
+			int node = 0;
+			for (int j = 0; j < literal.length(); j++) {
+				char c = fold(literal.charAt(j));
+				Integer next = edges.get(node).get(c);
+				if (next == null) {
+					next = edges.size();
+					edges.add(new HashMap<>());
+					outputs.add(new ArrayList<>());
+					edges.get(node).put(c, next);
+				}
+				node = next;
+			}
+			outputs.get(node).add(i);
+		}
+		int count = edges.size();
+		nodeChars = new char[count][];
+		nodeNext = new int[count][];
+		nodeFail = new int[count];
+		nodeOutputs = new int[count][];
+		for (int i = 0; i < count; i++) {
+			HashMap<Character, Integer> nodeEdges = edges.get(i);
+			char[] chars = new char[nodeEdges.size()];
+			int j = 0;
+			for (char c : nodeEdges.keySet()) {
+				chars[j++] = c;
+			}
+			Arrays.sort(chars);
+			int[] next = new int[chars.length];
+			for (j = 0; j < chars.length; j++) {
+				next[j] = nodeEdges.get(chars[j]);
+			}
+			nodeChars[i] = chars;
+			nodeNext[i] = next;
+		}
+		// Breadth-first traversal guarantees fail links are resolved for shorter prefixes first
+		int[] queue = new int[count];
+		int head = 0;
+		int tail = 0;
+		for (int next : nodeNext[0]) {
+			queue[tail++] = next;
+		}
+		while (head < tail) {
+			int node = queue[head++];
+			for (Map.Entry<Character, Integer> entry : edges.get(node).entrySet()) {
+				char c = entry.getKey();
+				int next = entry.getValue();
+				int fail = nodeFail[node];
+				int failNext;
+				while ((failNext = getNext(fail, c)) < 0 && fail != 0) {
+					fail = nodeFail[fail];
+				}
+				nodeFail[next] = failNext >= 0 ? failNext : 0;
+				outputs.get(next).addAll(outputs.get(nodeFail[next]));
+				queue[tail++] = next;
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			ArrayList<Integer> nodeOutput = outputs.get(i);
+			int[] output = new int[nodeOutput.size()];
+			for (int j = 0; j < output.length; j++) {
+				output[j] = nodeOutput.get(j);
+			}
+			nodeOutputs[i] = output;
+		}
+	}
+
+	public static char foldCase(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	private char fold(char c) {
+		return ignoreCase ? foldCase(c) : c;
+	}
+
+	private int getNext(int node, char c) {
+		int index = Arrays.binarySearch(nodeChars[node], c);
+		return index >= 0 ? nodeNext[node][index] : -1;
+	}
+
+	public BitSet find(CharSequence text) {
+		BitSet found = new BitSet();
+		int node = 0;
+		for (int i = 0, length = text.length(); i < length; i++) {
+			char c = fold(text.charAt(i));
+			int next;
+			while ((next = getNext(node, c)) < 0 && node != 0) {
+				node = nodeFail[node];
+			}
+			node = next >= 0 ? next : 0;
+			for (int output : nodeOutputs[node]) {
+				found.set(output);
+			}
+		}
+		return found;
+	}
+}
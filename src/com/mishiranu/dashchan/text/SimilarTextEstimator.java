@@ -18,10 +18,25 @@ package com.mishiranu.dashchan.text;
 
 import java.util.HashSet;
 import java.util.Locale;
+import java.util.Random;
 
 public class SimilarTextEstimator {
 	private static final int MIN_WORDS_COUNT = 1;
 
+	public static final int SIGNATURE_SIZE = 96;
+
+	private static final long[] SIGNATURE_MULTIPLIERS = new long[SIGNATURE_SIZE];
+	private static final long[] SIGNATURE_INCREMENTS = new long[SIGNATURE_SIZE];
+
+	static {
+		// Fixed seed, signatures are never stored so parameters only have to be stable during the session
+		Random random = new Random(0x2f6b3c1d5a4e7908L);
+		for (int i = 0; i < SIGNATURE_SIZE; i++) {
+			SIGNATURE_MULTIPLIERS[i] = random.nextLong() | 1L;
+			SIGNATURE_INCREMENTS[i] = random.nextLong();
+		}
+	}
+
 	private final int maxLength;
 	private final boolean removePostLinks;
 
@@ -119,14 +134,51 @@ public class SimilarTextEstimator {
 		return count >= MIN_WORDS_COUNT ? new WordsData(words, count) : null;
 	}
 
+	private static int[] computeSignature(HashSet<String> words) {
+		int[] signature = new int[SIGNATURE_SIZE];
+		for (int i = 0; i < SIGNATURE_SIZE; i++) {
+			signature[i] = Integer.MAX_VALUE;
+		}
+		if (words != null) {
+			for (String word : words) {
+				// Murmur3 finalizer spreads String.hashCode bits before multiply-shift hashing
+				long hash = word.hashCode() & 0xffffffffL;
+				hash ^= hash >>> 33;
+				hash *= 0xff51afd7ed558ccdL;
+				hash ^= hash >>> 33;
+				hash *= 0xc4ceb9fe1a85ec53L;
+				hash ^= hash >>> 33;
+				for (int i = 0; i < SIGNATURE_SIZE; i++) {
+					int value = (int) ((hash * SIGNATURE_MULTIPLIERS[i] + SIGNATURE_INCREMENTS[i]) >>> 33);
+					if (value < signature[i]) {
+						signature[i] = value;
+					}
+				}
+			}
+		}
+		return signature;
+	}
+
 	public static class WordsData {
 		public final HashSet<String> words;
 		public final int count;
 		public String postNumber;
 
+		private volatile int[] signature;
+
 		public WordsData(HashSet<String> words, int count) {
 			this.words = words;
 			this.count = count;
 		}
+
+		// MinHash signature of words set, equal components probability equals to Jaccard similarity
+		public int[] getSignature() {
+			int[] signature = this.signature;
+			if (signature == null) {
+				signature = computeSignature(words);
+				this.signature = signature;
+			}
+			return signature;
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014-2016 Fukurou Mishiranu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mishiranu.dashchan.text;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+public class SimilarTextIndex {
+	// SimilarTextEstimator.checkSimiliar passes when 2 * common - words >= otherWords / 3 for unique words,
+	// so a text with N unique words can be similar with Jaccard value of N / (3 * N + 2), e.g. 1/5 for a single
+	// repeated word. Texts with at least 16 unique words have Jaccard value of 0.32 at least, two rows per band
+	// give candidate probability above 99% for them. Shorter texts are checked with every item.
+	private static final int BAND_ROWS = 2;
+	private static final int BANDS_COUNT = SimilarTextEstimator.SIGNATURE_SIZE / BAND_ROWS;
+	private static final int MIN_INDEXED_WORDS_COUNT = 16;
+
+	private final SimilarTextEstimator estimator;
+	private final ArrayList<SimilarTextEstimator.WordsData> items = new ArrayList<>();
+	private final ArrayList<HashMap<Long, ArrayList<Integer>>> bands = new ArrayList<>(BANDS_COUNT);
+
+	public SimilarTextIndex(SimilarTextEstimator estimator, List<SimilarTextEstimator.WordsData> items) {
+		this.estimator = estimator;
+		for (int i = 0; i < BANDS_COUNT; i++) {
+			bands.add(new HashMap<>());
+		}
+		if (items != null) {
+			for (SimilarTextEstimator.WordsData wordsData : items) {
+				add(wordsData);
+			}
+		}
+	}
+
+	private static long getBandKey(int[] signature, int band) {
+		int index = band * BAND_ROWS;
+		return (long) signature[index] << 32 | signature[index + 1] & 0xffffffffL;
+	}
+
+	public void add(SimilarTextEstimator.WordsData wordsData) {
+		int index = items.size();
+		items.add(wordsData);
+		int[] signature = wordsData.getSignature();
+		for (int i = 0; i < BANDS_COUNT; i++) {
+			HashMap<Long, ArrayList<Integer>> band = bands.get(i);
+			long key = getBandKey(signature, i);
+			ArrayList<Integer> indices = band.get(key);
+			if (indices == null) {
+				indices = new ArrayList<>(1);
+				band.put(key, indices);
+			}
+			indices.add(index);
+		}
+	}
+
+	// Returns the first added item similar to given words, candidates are verified with estimator.
+	public SimilarTextEstimator.WordsData findSimilar(SimilarTextEstimator.WordsData wordsData) {
+		if (wordsData == null || items.isEmpty()) {
+			return null;
+		}
+		if (wordsData.words.size() < MIN_INDEXED_WORDS_COUNT) {
+			for (SimilarTextEstimator.WordsData similarWordsData : items) {
+				if (estimator.checkSimiliar(wordsData, similarWordsData)) {
+					return similarWordsData;
+				}
+			}
+			return null;
+		}
+		int[] signature = wordsData.getSignature();
+		BitSet candidates = null;
+		for (int i = 0; i < BANDS_COUNT; i++) {
+			ArrayList<Integer> indices = bands.get(i).get(getBandKey(signature, i));
+			if (indices != null) {
+				if (candidates == null) {
+					candidates = new BitSet(items.size());
+				}
+				for (int index : indices) {
+					candidates.set(index);
+				}
+			}
+		}
+		if (candidates != null) {
+			for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+				SimilarTextEstimator.WordsData similarWordsData = items.get(i);
+				if (estimator.checkSimiliar(wordsData, similarWordsData)) {
+					return similarWordsData;
+				}
+			}
+		}
+		return null;
+	}
+}
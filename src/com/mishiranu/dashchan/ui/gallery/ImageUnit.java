@@ -18,6 +18,9 @@ package com.mishiranu.dashchan.ui.gallery;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.concurrent.Executor;
 
 import android.app.AlertDialog;
@@ -27,6 +30,8 @@ import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Process;
 import android.util.Pair;
 
 import com.mishiranu.dashchan.R;
@@ -50,33 +55,154 @@ import com.mishiranu.dashchan.widget.PhotoView;
 public class ImageUnit {
 	private final PagerInstance instance;
 
+	private static final int PREFETCH_FORWARD_COUNT = 3;
+	private static final int PREFETCH_BACKWARD_COUNT = 1;
+	private static final int PREFETCH_DELAY = 300;
+	private static final long PREFETCH_MAX_BITMAP_SIZE = Runtime.getRuntime().maxMemory() / 8;
+
+	private final Handler handler = new Handler();
+
 	private ReadFileTask readFileTask;
 	private ReadBitmapCallback readBitmapCallback;
+	private final HashMap<GalleryItem, ReadBitmapCallback> prefetchCallbacks = new HashMap<>();
 
 	public ImageUnit(PagerInstance instance) {
 		this.instance = instance;
 	}
 
 	public void interrupt(boolean force) {
-		if (force && readFileTask != null) {
-			readFileTask.cancel();
-			readFileTask = null;
-			readBitmapCallback = null;
+		if (force) {
+			if (readFileTask != null) {
+				readFileTask.cancel();
+				readFileTask = null;
+				readBitmapCallback = null;
+			}
+			cancelPrefetch(-1);
 		}
-		interruptHolder(instance.leftHolder);
-		interruptHolder(instance.currentHolder);
-		interruptHolder(instance.rightHolder);
+		interruptHolder(instance.leftHolder, force);
+		interruptHolder(instance.currentHolder, force);
+		interruptHolder(instance.rightHolder, force);
 	}
 
-	private void interruptHolder(PagerInstance.ViewHolder holder) {
+	private void interruptHolder(PagerInstance.ViewHolder holder, boolean force) {
 		if (holder != null) {
-			if (holder.decodeBitmapTask != null) {
-				((DecodeBitmapTask) holder.decodeBitmapTask).cancel(holder);
+			DecodeBitmapTask decodeBitmapTask = (DecodeBitmapTask) holder.decodeBitmapTask;
+			// Prefetch tasks are kept until they become stale, see onPositionChange
+			if (decodeBitmapTask != null && (force || !decodeBitmapTask.prefetch)) {
+				decodeBitmapTask.cancel(holder);
 				holder.decodeBitmapTask = null;
 			}
 		}
 	}
 
+	public void onPositionChange() {
+		cancelPrefetch(instance.currentIndex);
+		cancelStaleDecoding(instance.leftHolder);
+		cancelStaleDecoding(instance.currentHolder);
+		cancelStaleDecoding(instance.rightHolder);
+		PagerInstance.ViewHolder holder = instance.currentHolder;
+		if (holder != null && holder.fullLoaded && holder.galleryItem.isImage(instance.galleryInstance.locator)) {
+			schedulePrefetch();
+		}
+	}
+
+	private void cancelStaleDecoding(PagerInstance.ViewHolder holder) {
+		if (holder != null) {
+			DecodeBitmapTask decodeBitmapTask = (DecodeBitmapTask) holder.decodeBitmapTask;
+			if (decodeBitmapTask != null && decodeBitmapTask.galleryItem != holder.galleryItem) {
+				decodeBitmapTask.cancel(holder);
+				holder.decodeBitmapTask = null;
+			}
+		}
+	}
+
+	private void cancelPrefetch(int index) {
+		handler.removeCallbacks(prefetchRunnable);
+		ArrayList<GalleryItem> galleryItems = instance.galleryInstance.galleryItems;
+		int start = index - Math.max(PREFETCH_FORWARD_COUNT, PREFETCH_BACKWARD_COUNT);
+		int end = index + Math.max(PREFETCH_FORWARD_COUNT, PREFETCH_BACKWARD_COUNT);
+		Iterator<ReadBitmapCallback> iterator = prefetchCallbacks.values().iterator();
+		while (iterator.hasNext()) {
+			ReadBitmapCallback callback = iterator.next();
+			boolean cancel = index < 0;
+			if (!cancel) {
+				int itemIndex = galleryItems.indexOf(callback.galleryItem);
+				cancel = itemIndex < start || itemIndex > end;
+			}
+			if (cancel) {
+				iterator.remove();
+				callback.task.cancel();
+			}
+		}
+	}
+
+	private void schedulePrefetch() {
+		handler.removeCallbacks(prefetchRunnable);
+		if (Preferences.isLoadNearestImage()) {
+			// Delay allows to skip prefetching during fast swiping
+			handler.postDelayed(prefetchRunnable, PREFETCH_DELAY);
+		}
+	}
+
+	private final Runnable prefetchRunnable = this::prefetch;
+
+	private void prefetch() {
+		PagerInstance.ViewHolder nextHolder = instance.scrollingLeft ? instance.leftHolder : instance.rightHolder;
+		PagerInstance.ViewHolder previousHolder = instance.scrollingLeft ? instance.rightHolder
+				: instance.leftHolder;
+		prefetchDecode(nextHolder);
+		prefetchDecode(previousHolder);
+		int direction = instance.scrollingLeft ? -1 : 1;
+		for (int i = 1; i <= PREFETCH_FORWARD_COUNT; i++) {
+			prefetchDownload(instance.currentIndex + direction * i);
+		}
+		for (int i = 1; i <= PREFETCH_BACKWARD_COUNT; i++) {
+			prefetchDownload(instance.currentIndex - direction * i);
+		}
+	}
+
+	private static final Executor PREFETCH_DOWNLOAD_EXECUTOR = ConcurrentUtils.newSingleThreadPool(20000,
+			"ReadFileTask", "prefetch", Process.THREAD_PRIORITY_BACKGROUND);
+
+	private void prefetchDownload(int index) {
+		ArrayList<GalleryItem> galleryItems = instance.galleryInstance.galleryItems;
+		if (index < 0 || index >= galleryItems.size()) {
+			return;
+		}
+		GalleryItem galleryItem = galleryItems.get(index);
+		if (!galleryItem.isImage(instance.galleryInstance.locator) || prefetchCallbacks.containsKey(galleryItem)
+				|| readBitmapCallback != null && readBitmapCallback.galleryItem == galleryItem) {
+			return;
+		}
+		Uri uri = galleryItem.getFileUri(instance.galleryInstance.locator);
+		File cachedFile = CacheManager.getInstance().getMediaFile(uri, false);
+		if (cachedFile == null || cachedFile.exists()) {
+			return;
+		}
+		ReadBitmapCallback callback = new ReadBitmapCallback(galleryItem);
+		callback.task = new ReadFileTask(instance.galleryInstance.context, instance.galleryInstance.chanName,
+				uri, cachedFile, true, callback);
+		prefetchCallbacks.put(galleryItem, callback);
+		callback.task.executeOnExecutor(PREFETCH_DOWNLOAD_EXECUTOR);
+	}
+
+	private static final Executor PREFETCH_EXECUTOR = ConcurrentUtils.newSingleThreadPool(20000,
+			"DecodeBitmapTask", "prefetch", Process.THREAD_PRIORITY_BACKGROUND);
+
+	private void prefetchDecode(PagerInstance.ViewHolder holder) {
+		if (holder == null || holder.fullLoaded || holder.decodeBitmapTask != null || holder.galleryItem == null
+				|| !holder.galleryItem.isImage(instance.galleryInstance.locator)) {
+			return;
+		}
+		Uri uri = holder.galleryItem.getFileUri(instance.galleryInstance.locator);
+		File cachedFile = CacheManager.getInstance().getMediaFile(uri, false);
+		if (cachedFile != null && cachedFile.exists()) {
+			DecodeBitmapTask decodeBitmapTask = new DecodeBitmapTask(holder, cachedFile, null, true);
+			decodeBitmapTask.executeOnExecutor(PREFETCH_EXECUTOR);
+			holder.decodeBitmapTask = decodeBitmapTask;
+		}
+	}
+
 	public void applyImage(Uri uri, File file, boolean reload) {
 		if (!reload && file.exists()) {
 			applyImageFromFile(file);
@@ -93,28 +219,24 @@ public class ImageUnit {
 			return;
 		}
 		GalleryItem galleryItem = holder.galleryItem;
-		FileHolder fileHolder = FileHolder.obtain(file);
-		if (holder.decodeBitmapTask != null) {
-			((DecodeBitmapTask) holder.decodeBitmapTask).cancel(holder);
+		DecodeBitmapTask prefetchTask = (DecodeBitmapTask) holder.decodeBitmapTask;
+		if (prefetchTask != null && prefetchTask.prefetch && prefetchTask.galleryItem == galleryItem) {
+			// Image is already being decoded in background, result will be applied to current holder
+			holder.progressBar.setVisible(true, false);
+			holder.progressBar.setIndeterminate(true);
+		} else {
+			FileHolder fileHolder = FileHolder.obtain(file);
+			if (holder.decodeBitmapTask != null) {
+				((DecodeBitmapTask) holder.decodeBitmapTask).cancel(holder);
+			}
+			DecodeBitmapTask decodeBitmapTask = new DecodeBitmapTask(holder, file, fileHolder, false);
+			decodeBitmapTask.executeOnExecutor(EXECUTOR);
+			holder.decodeBitmapTask = decodeBitmapTask;
 		}
-		DecodeBitmapTask decodeBitmapTask = new DecodeBitmapTask(file, fileHolder);
-		decodeBitmapTask.executeOnExecutor(EXECUTOR);
-		holder.decodeBitmapTask = decodeBitmapTask;
 		if (galleryItem.size <= 0) {
 			galleryItem.size = (int) file.length();
 			instance.galleryInstance.callback.updateTitle();
 		}
-		PagerInstance.ViewHolder nextHolder = instance.scrollingLeft ? instance.leftHolder : instance.rightHolder;
-		if (nextHolder != null && Preferences.isLoadNearestImage()) {
-			GalleryItem nextGalleryItem = nextHolder.galleryItem;
-			if (nextGalleryItem.isImage(instance.galleryInstance.locator)) {
-				Uri nextUri = nextGalleryItem.getFileUri(instance.galleryInstance.locator);
-				File nextCachedFile = CacheManager.getInstance().getMediaFile(nextUri, true);
-				if (nextCachedFile != null && !nextCachedFile.exists()) {
-					loadImage(nextUri, nextCachedFile, nextHolder);
-				}
-			}
-		}
 	}
 
 	private void loadImage(Uri uri, File cachedFile, PagerInstance.ViewHolder holder) {
@@ -124,9 +246,19 @@ public class ImageUnit {
 		if (readFileTask != null) {
 			readFileTask.cancel();
 		}
+		ReadBitmapCallback prefetchCallback = prefetchCallbacks.remove(holder.galleryItem);
+		if (prefetchCallback != null) {
+			// Other prefetch tasks must not delay download of the current image
+			cancelPrefetch(-1);
+			readBitmapCallback = prefetchCallback;
+			readFileTask = prefetchCallback.task;
+			prefetchCallback.attachDownloading();
+			return;
+		}
 		readBitmapCallback = new ReadBitmapCallback(holder.galleryItem);
 		readFileTask = new ReadFileTask(instance.galleryInstance.context, instance.galleryInstance.chanName,
 				uri, cachedFile, true, readBitmapCallback);
+		readBitmapCallback.task = readFileTask;
 		readFileTask.executeOnExecutor(ReadFileTask.THREAD_POOL_EXECUTOR);
 	}
 
@@ -139,12 +271,23 @@ public class ImageUnit {
 	}
 
 	private class ReadBitmapCallback implements ReadFileTask.Callback, ReadFileTask.CancelCallback {
-		private final GalleryItem galleryItem;
+		public final GalleryItem galleryItem;
+		public ReadFileTask task;
 
 		public ReadBitmapCallback(GalleryItem galleryItem) {
 			this.galleryItem = galleryItem;
 		}
 
+		private void detach() {
+			if (readBitmapCallback == this) {
+				readFileTask = null;
+				readBitmapCallback = null;
+			}
+			if (prefetchCallbacks.get(galleryItem) == this) {
+				prefetchCallbacks.remove(galleryItem);
+			}
+		}
+
 		private boolean isCurrentHolder() {
 			return isHolder(instance.currentHolder);
 		}
@@ -155,8 +298,7 @@ public class ImageUnit {
 
 		@Override
 		public void onFileExists(Uri uri, File file) {
-			readFileTask = null;
-			readBitmapCallback = null;
+			detach();
 			if (isCurrentHolder()) {
 				applyImageFromFile(file);
 			}
@@ -185,8 +327,7 @@ public class ImageUnit {
 
 		@Override
 		public void onFinishDownloading(boolean success, Uri uri, File file, ErrorItem errorItem) {
-			readFileTask = null;
-			readBitmapCallback = null;
+			detach();
 			if (isCurrentHolder()) {
 				instance.currentHolder.progressBar.setVisible(false, false);
 				if (success) {
@@ -194,6 +335,12 @@ public class ImageUnit {
 				} else {
 					instance.callback.showError(instance.currentHolder, errorItem.toString());
 				}
+			} else if (success && instance.currentHolder != null && instance.currentHolder.fullLoaded) {
+				if (isHolder(instance.leftHolder)) {
+					prefetchDecode(instance.leftHolder);
+				} else if (isHolder(instance.rightHolder)) {
+					prefetchDecode(instance.rightHolder);
+				}
 			}
 		}
 
@@ -248,9 +395,12 @@ public class ImageUnit {
 	}
 
 	private class DecodeBitmapTask extends AsyncTask<Void, Void, Void> {
+		private final PagerInstance.ViewHolder holder;
+		private final GalleryItem galleryItem;
 		private final File file;
-		private final FileHolder fileHolder;
+		private FileHolder fileHolder;
 		private final PhotoView photoView;
+		public final boolean prefetch;
 
 		private Bitmap bitmap;
 		private DecoderDrawable decoderDrawable;
@@ -258,24 +408,58 @@ public class ImageUnit {
 		private GifDecoder gifDecoder;
 		private int errorMessageId;
 
-		public DecodeBitmapTask(File file, FileHolder fileHolder) {
+		public DecodeBitmapTask(PagerInstance.ViewHolder holder, File file, FileHolder fileHolder, boolean prefetch) {
+			this.holder = holder;
+			galleryItem = holder.galleryItem;
 			this.file = file;
 			this.fileHolder = fileHolder;
-			photoView = instance.currentHolder.photoView;
-			if (fileHolder.getImageWidth() >= 2048 && fileHolder.getImageHeight() >= 2048
-					|| fileHolder.getImageType() == FileHolder.ImageType.IMAGE_SVG) {
-				instance.currentHolder.progressBar.setVisible(true, false);
-				instance.currentHolder.progressBar.setIndeterminate(true);
+			this.prefetch = prefetch;
+			photoView = holder.photoView;
+			if (!prefetch && (fileHolder.getImageWidth() >= 2048 && fileHolder.getImageHeight() >= 2048
+					|| fileHolder.getImageType() == FileHolder.ImageType.IMAGE_SVG)) {
+				holder.progressBar.setVisible(true, false);
+				holder.progressBar.setIndeterminate(true);
 			}
 		}
 
+		private boolean isPrefetchAllowed() throws InterruptedException {
+			FileHolder.ImageType imageType = fileHolder.getImageType();
+			if (imageType == FileHolder.ImageType.IMAGE_GIF || imageType == FileHolder.ImageType.IMAGE_SVG) {
+				return false;
+			}
+			if (imageType == FileHolder.ImageType.IMAGE_PNG) {
+				// Animated images are not kept in side views
+				try {
+					new AnimatedPngDecoder(fileHolder).recycle();
+					return false;
+				} catch (IOException e) {
+					// Not animated, ignore exception
+				}
+			}
+			int width = fileHolder.getImageWidth();
+			int height = fileHolder.getImageHeight();
+			float scale = Math.min((float) photoView.getMaximumImageSizeAsync() / Math.max(width, height), 1f);
+			return 4L * (long) (width * scale) * (long) (height * scale) <= PREFETCH_MAX_BITMAP_SIZE;
+		}
+
 		@Override
 		protected Void doInBackground(Void... params) {
+			if (fileHolder == null) {
+				fileHolder = FileHolder.obtain(file);
+			}
 			if (!fileHolder.isImage()) {
 				errorMessageId = R.string.message_image_corrupted;
 				return null;
 			}
-			if (fileHolder.getImageType() == FileHolder.ImageType.IMAGE_PNG) {
+			if (prefetch) {
+				try {
+					if (!isPrefetchAllowed()) {
+						return null;
+					}
+				} catch (InterruptedException e) {
+					return null;
+				}
+			} else if (fileHolder.getImageType() == FileHolder.ImageType.IMAGE_PNG) {
 				try {
 					animatedPngDecoder = new AnimatedPngDecoder(fileHolder);
 					return null;
@@ -292,7 +476,7 @@ public class ImageUnit {
 			}
 			try {
 				int maxSize = photoView.getMaximumImageSizeAsync();
-				bitmap = fileHolder.readImageBitmap(maxSize, true, true);
+				bitmap = fileHolder.readImageBitmap(maxSize, true, !prefetch);
 				if (bitmap == null) {
 					errorMessageId = R.string.message_image_corrupted;
 				} else {
@@ -319,9 +503,17 @@ public class ImageUnit {
 
 		@Override
 		protected void onPostExecute(Void result) {
-			PagerInstance.ViewHolder holder = instance.currentHolder;
-			holder.decodeBitmapTask = null;
-			holder.progressBar.setVisible(false, false);
+			if (holder.decodeBitmapTask == this) {
+				holder.decodeBitmapTask = null;
+			}
+			boolean current = holder == instance.currentHolder;
+			if (holder.galleryItem != galleryItem) {
+				recycle();
+				return;
+			}
+			if (!prefetch || current) {
+				holder.progressBar.setVisible(false, false);
+			}
 			if (bitmap != null || decoderDrawable != null || animatedPngDecoder != null || gifDecoder != null) {
 				if (animatedPngDecoder != null) {
 					holder.animatedPngDecoder = animatedPngDecoder;
@@ -331,15 +523,39 @@ public class ImageUnit {
 					setPhotoViewImage(holder, gifDecoder.getDrawable(), true);
 				} else if (decoderDrawable != null) {
 					holder.decoderDrawable = decoderDrawable;
+					decoderDrawable.setEnabled(current);
 					setPhotoViewImage(holder, decoderDrawable, decoderDrawable.hasAlpha());
 				} else {
 					holder.simpleBitmapDrawable = new SimpleBitmapDrawable(bitmap);
 					setPhotoViewImage(holder, holder.simpleBitmapDrawable, bitmap.hasAlpha());
 				}
 				holder.fullLoaded = true;
-				instance.galleryInstance.callback.invalidateOptionsMenu();
-			} else {
-				instance.callback.showError(holder, instance.galleryInstance.context.getString(errorMessageId));
+				if (current) {
+					instance.galleryInstance.callback.invalidateOptionsMenu();
+					schedulePrefetch();
+				}
+			} else if (current) {
+				if (prefetch && errorMessageId == 0) {
+					// Prefetch was skipped, decode the image as usual
+					applyImageFromFile(file);
+				} else {
+					instance.callback.showError(holder, instance.galleryInstance.context.getString(errorMessageId));
+				}
+			}
+		}
+
+		private void recycle() {
+			if (bitmap != null) {
+				bitmap.recycle();
+			}
+			if (decoderDrawable != null) {
+				decoderDrawable.recycle();
+			}
+			if (animatedPngDecoder != null) {
+				animatedPngDecoder.recycle();
+			}
+			if (gifDecoder != null) {
+				gifDecoder.recycle();
 			}
 		}
 
@@ -354,4 +570,4 @@ public class ImageUnit {
 			holder.photoViewThumbnail = false;
 		}
 	}
-}
\ No newline at end of file
+}
@@ -34,6 +34,7 @@ public class PagerInstance {
 	public final Callback callback;
 
 	public boolean scrollingLeft;
+	public int currentIndex;
 
 	public ViewHolder leftHolder;
 	public ViewHolder currentHolder;
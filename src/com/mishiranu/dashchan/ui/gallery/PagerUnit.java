@@ -517,6 +517,7 @@ public class PagerUnit implements PagerInstance.Callback, ImageLoader.Observer {
 				pagerInstance.scrollingLeft = false;
 			}
 			previousIndex = index;
+			pagerInstance.currentIndex = index;
 			pagerInstance.leftHolder = leftView != null ? (PagerInstance.ViewHolder) leftView.getTag() : null;
 			pagerInstance.currentHolder = holder;
 			pagerInstance.rightHolder = rightView != null ? (PagerInstance.ViewHolder) rightView.getTag() : null;
@@ -537,6 +538,7 @@ public class PagerUnit implements PagerInstance.Callback, ImageLoader.Observer {
 				galleryInstance.callback.invalidateOptionsMenu();
 				galleryInstance.callback.modifySystemUiVisibility(GalleryInstance.FLAG_LOCKED_ERROR, false);
 			}
+			imageUnit.onPositionChange();
 			if (galleryItem.size <= 0) {
 				Uri uri = galleryItem.getFileUri(galleryInstance.locator);
 				File cachedFile = CacheManager.getInstance().getMediaFile(uri, false);
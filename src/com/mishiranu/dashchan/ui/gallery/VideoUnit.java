@@ -17,7 +17,6 @@
 package com.mishiranu.dashchan.ui.gallery;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Locale;
@@ -62,7 +61,6 @@ import com.mishiranu.dashchan.preference.Preferences;
 import com.mishiranu.dashchan.util.AnimationUtils;
 import com.mishiranu.dashchan.util.ConcurrentUtils;
 import com.mishiranu.dashchan.util.GraphicsUtils;
-import com.mishiranu.dashchan.util.IOUtils;
 import com.mishiranu.dashchan.util.Log;
 import com.mishiranu.dashchan.util.ResourceUtils;
 import com.mishiranu.dashchan.util.StringBlockBuilder;
@@ -208,7 +206,8 @@ public class VideoUnit implements AudioManager.OnAudioFocusChangeListener {
 			PagerInstance.ViewHolder holder = instance.currentHolder;
 			holder.progressBar.setIndeterminate(true);
 			holder.progressBar.setVisible(true, false);
-			final CachingInputStream inputStream = new CachingInputStream();
+			final CachingInputStream inputStream = new CachingInputStream(new File(file.getParentFile(),
+					file.getName() + ".part"));
 			new AsyncTask<Void, Void, Boolean>() {
 				@Override
 				protected Boolean doInBackground(Void... params) {
@@ -730,18 +729,7 @@ public class VideoUnit implements AudioManager.OnAudioFocusChangeListener {
 					if (file == null) {
 						return false;
 					}
-					boolean success;
-					FileOutputStream output = null;
-					try {
-						output = new FileOutputStream(file);
-						inputStream.writeTo(output);
-						success = true;
-					} catch (IOException e) {
-						success = false;
-						e.printStackTrace();
-					} finally {
-						IOUtils.close(output);
-					}
+					boolean success = inputStream.moveTo(file);
 					CacheManager.getInstance().handleDownloadedFile(file, success);
 					return success;
 				}
@@ -44,6 +44,7 @@ import com.mishiranu.dashchan.R;
 import com.mishiranu.dashchan.content.async.ReadPostsTask;
 import com.mishiranu.dashchan.content.model.GalleryItem;
 import com.mishiranu.dashchan.content.model.PostItem;
+import com.mishiranu.dashchan.content.model.PostItemPreloader;
 import com.mishiranu.dashchan.ui.navigator.manager.HidePerformer;
 import com.mishiranu.dashchan.ui.navigator.manager.UiManager;
 import com.mishiranu.dashchan.ui.posting.Replyable;
@@ -58,6 +59,8 @@ public class PostsAdapter extends BaseAdapter implements CommentTextView.LinkLis
 	private static final int ITEM_VIEW_TYPE_POST = 0;
 	private static final int ITEM_VIEW_TYPE_HIDDEN_POST = 1;
 
+	private static final int WARM_LAYOUTS_COUNT = 3;
+
 	private final BaseAdapterNotifier notifier = new BaseAdapterNotifier(this);
 
 	private final ArrayList<PostItem> postItems = new ArrayList<>();
@@ -73,6 +76,8 @@ public class PostsAdapter extends BaseAdapter implements CommentTextView.LinkLis
 	private final int bumpLimit;
 
 	private boolean selection = false;
+	private int lastBoundPosition = -1;
+	private final ArrayList<PostItem> warmPostItems = new ArrayList<>(WARM_LAYOUTS_COUNT);
 
 	public PostsAdapter(Context context, String chanName, String boardName, UiManager uiManager,
 			Replyable replyable, HidePerformer hidePerformer, HashSet<String> userPostNumbers, ListView listView) {
@@ -153,10 +158,30 @@ public class PostsAdapter extends BaseAdapter implements CommentTextView.LinkLis
 					: UiManager.SELECTION_NOT_SELECTED : UiManager.SELECTION_DISABLED;
 			demandSet.lastInList = position == getCount() - 1;
 			convertView = uiManager.view().getPostView(postItem, convertView, parent, demandSet, configurationSet);
+			warmCommentLayouts(position, convertView);
 		}
 		return convertView;
 	}
 
+	private void warmCommentLayouts(int position, View view) {
+		// Prepare posts in scrolling direction
+		int direction = position >= lastBoundPosition ? 1 : -1;
+		lastBoundPosition = position;
+		ArrayList<PostItem> warmPostItems = this.warmPostItems;
+		HidePerformer hidePerformer = configurationSet.hidePerformer;
+		for (int i = position + direction; i >= 0 && i < postItems.size() &&
+				warmPostItems.size() < WARM_LAYOUTS_COUNT; i += direction) {
+			PostItem postItem = postItems.get(i);
+			if (postItem != null && !postItem.isHidden(hidePerformer)) {
+				warmPostItems.add(postItem);
+			}
+		}
+		if (!warmPostItems.isEmpty()) {
+			uiManager.view().warmPostCommentLayouts(view, warmPostItems);
+			warmPostItems.clear();
+		}
+	}
+
 	public int indexOf(PostItem postItem) {
 		return postItems.indexOf(postItem);
 	}
@@ -444,6 +469,10 @@ public class PostsAdapter extends BaseAdapter implements CommentTextView.LinkLis
 
 	public void cancelPreloading() {
 		preloadHandler.removeMessages(0);
+		if (preloadJob != null) {
+			preloadJob.cancel();
+			preloadJob = null;
+		}
 	}
 
 	public void preloadPosts(int from) {
@@ -466,7 +495,9 @@ public class PostsAdapter extends BaseAdapter implements CommentTextView.LinkLis
 			}
 		}
 		cancelPreloading();
-		preloadHandler.obtainMessage(0, 0, 0, preloadPostItems).sendToTarget();
+		// Comments are prepared in background, hidden state is checked in main thread for every prepared batch
+		preloadJob = PostItemPreloader.preloadAsync(preloadPostItems, preparedPostItems -> preloadHandler
+				.obtainMessage(0, 0, 0, new ArrayList<>(preparedPostItems)).sendToTarget());
 	}
 
 	public void preloadPosts(Collection<PostItem> postItems, PreloadFinishCallback callback) {
@@ -477,6 +508,7 @@ public class PostsAdapter extends BaseAdapter implements CommentTextView.LinkLis
 	}
 
 	private final Handler preloadHandler = new Handler(Looper.getMainLooper(), new PreloadCallback(null));
+	private PostItemPreloader.Job preloadJob;
 
 	public interface PreloadFinishCallback {
 		public void onFinish();
@@ -29,21 +29,24 @@ import chan.util.StringUtils;
 import com.mishiranu.dashchan.R;
 import com.mishiranu.dashchan.content.MainApplication;
 import com.mishiranu.dashchan.content.model.PostItem;
+import com.mishiranu.dashchan.content.storage.AutohideIndex;
 import com.mishiranu.dashchan.content.storage.AutohideStorage;
 import com.mishiranu.dashchan.text.SimilarTextEstimator;
+import com.mishiranu.dashchan.text.SimilarTextIndex;
 import com.mishiranu.dashchan.util.ToastUtils;
 
 public class HidePerformer implements PostItem.HidePerformer {
 	private static final int MAX_COMMENT_LENGTH = 1000;
+	private static final SimilarTextEstimator ESTIMATOR = new SimilarTextEstimator(MAX_COMMENT_LENGTH, true);
 
 	private final AutohideStorage autohideStorage = AutohideStorage.getInstance();
-	private final SimilarTextEstimator estimator = new SimilarTextEstimator(MAX_COMMENT_LENGTH, true);
 	private final String autohidePrefix;
 	private UiManager.PostsProvider postsProvider;
 
 	private LinkedHashSet<String> replies;
 	private LinkedHashSet<String> names;
 	private ArrayList<SimilarTextEstimator.WordsData> words;
+	private SimilarTextIndex wordsIndex;
 
 	public HidePerformer() {
 		autohidePrefix = MainApplication.getInstance().getString(R.string.preference_header_autohide) + ": ";
@@ -100,14 +103,12 @@ public class HidePerformer implements PostItem.HidePerformer {
 	}
 
 	private String checkHiddenBySimilarPost(PostItem postItem) {
-		if (words != null) {
-			SimilarTextEstimator.WordsData wordsData = estimator.getWords(postItem.getComment().toString());
-			if (wordsData != null) {
-				for (SimilarTextEstimator.WordsData similarWordsData : words) {
-					if (estimator.checkSimiliar(wordsData, similarWordsData)) {
-						return "similar to " + similarWordsData.postNumber;
-					}
-				}
+		SimilarTextIndex wordsIndex = this.wordsIndex;
+		if (wordsIndex != null) {
+			SimilarTextEstimator.WordsData similarWordsData = wordsIndex.findSimilar(postItem
+					.getCommentWords(ESTIMATOR));
+			if (similarWordsData != null) {
+				return "similar to " + similarWordsData.postNumber;
 			}
 		}
 		return null;
@@ -122,37 +123,52 @@ public class HidePerformer implements PostItem.HidePerformer {
 		String subject = null;
 		String comment = null;
 		String name = null;
-		ArrayList<AutohideStorage.AutohideItem> autohideItems = autohideStorage.getItems();
-		for (int i = 0; i < autohideItems.size(); i++) {
-			AutohideStorage.AutohideItem autohideItem = autohideItems.get(i);
-			// AND selection (only if chan, board, thread, op and sage matches to rule)
-			if (autohideItem.chanNames == null || autohideItem.chanNames.contains(chanName)) {
-				if (StringUtils.isEmpty(autohideItem.boardName) || boardName == null
-						|| autohideItem.boardName.equals(boardName)) {
-					if (StringUtils.isEmpty(autohideItem.threadNumber) || autohideItem.boardName != null &&
-							autohideItem.threadNumber.equals(originalPostNumber)) {
-						if ((!autohideItem.optionOriginalPost || autohideItem.optionOriginalPost == originalPost)
-								&& (!autohideItem.optionSage || autohideItem.optionSage == sage)) {
-							String result;
-							// OR selection (hide if subj, exp or name matches to rule)
-							if (subject == null) {
-								subject = postItem.getSubject();
-							}
-							if (autohideItem.optionSubject && (result = autohideItem.find(subject)) != null) {
-								return autohideItem.getReason(true, false, comment, result);
-							}
-							if (comment == null) {
-								comment = postItem.getComment().toString();
-							}
-							if (autohideItem.optionComment && (result = autohideItem.find(comment)) != null) {
-								return autohideItem.getReason(false, false, comment, result);
-							}
-							if (name == null) {
-								name = postItem.getFullName().toString();
-							}
-							if (autohideItem.optionName && (result = autohideItem.find(name)) != null) {
-								return autohideItem.getReason(false, true, name, result);
-							}
+		AutohideIndex.Candidates subjectCandidates = null;
+		AutohideIndex.Candidates commentCandidates = null;
+		AutohideIndex.Candidates nameCandidates = null;
+		AutohideIndex autohideIndex = autohideStorage.getIndex();
+		// Index contains only rules with matching chan and board
+		for (int index : autohideIndex.getItemIndices(chanName, boardName)) {
+			AutohideStorage.AutohideItem autohideItem = autohideIndex.getItem(index);
+			// AND selection (only if thread, op and sage matches to rule)
+			if (StringUtils.isEmpty(autohideItem.threadNumber) || autohideItem.boardName != null &&
+					autohideItem.threadNumber.equals(originalPostNumber)) {
+				if ((!autohideItem.optionOriginalPost || autohideItem.optionOriginalPost == originalPost)
+						&& (!autohideItem.optionSage || autohideItem.optionSage == sage)) {
+					String result;
+					// OR selection (hide if subj, exp or name matches to rule)
+					if (subject == null) {
+						subject = postItem.getSubject();
+					}
+					if (autohideItem.optionSubject) {
+						if (subjectCandidates == null) {
+							subjectCandidates = autohideIndex.findCandidates(subject);
+						}
+						// Pattern can match only if text contains one of its literals
+						if (subjectCandidates.contains(index) && (result = autohideItem.find(subject)) != null) {
+							return autohideItem.getReason(true, false, comment, result);
+						}
+					}
+					if (comment == null) {
+						comment = postItem.getComment().toString();
+					}
+					if (autohideItem.optionComment) {
+						if (commentCandidates == null) {
+							commentCandidates = autohideIndex.findCandidates(comment);
+						}
+						if (commentCandidates.contains(index) && (result = autohideItem.find(comment)) != null) {
+							return autohideItem.getReason(false, false, comment, result);
+						}
+					}
+					if (name == null) {
+						name = postItem.getFullName().toString();
+					}
+					if (autohideItem.optionName) {
+						if (nameCandidates == null) {
+							nameCandidates = autohideIndex.findCandidates(name);
+						}
+						if (nameCandidates.contains(index) && (result = autohideItem.find(name)) != null) {
+							return autohideItem.getReason(false, true, name, result);
 						}
 					}
 				}
@@ -195,7 +211,7 @@ public class HidePerformer implements PostItem.HidePerformer {
 
 	public int addHideSimilar(PostItem postItem) {
 		String comment = postItem.getComment().toString();
-		SimilarTextEstimator.WordsData wordsData = estimator.getWords(comment);
+		SimilarTextEstimator.WordsData wordsData = ESTIMATOR.getWords(comment);
 		if (wordsData == null) {
 			ToastUtils.show(MainApplication.getInstance(), R.string.message_too_few_meaningful_words);
 			return ADD_FAIL;
@@ -212,9 +228,14 @@ public class HidePerformer implements PostItem.HidePerformer {
 			}
 		}
 		words.add(wordsData);
+		updateWordsIndex();
 		return ADD_SUCCESS;
 	}
 
+	private void updateWordsIndex() {
+		wordsIndex = words != null ? new SimilarTextIndex(ESTIMATOR, words) : null;
+	}
+
 	public boolean hasLocalAutohide() {
 		int repliesLength = replies != null ? replies.size() : 0;
 		int namesLength = names != null ? names.size() : 0;
@@ -286,6 +307,7 @@ public class HidePerformer implements PostItem.HidePerformer {
 				if (words.isEmpty()) {
 					words = null;
 				}
+				updateWordsIndex();
 				return;
 			}
 		}
@@ -367,6 +389,7 @@ public class HidePerformer implements PostItem.HidePerformer {
 					}
 				}
 			}
+			updateWordsIndex();
 		}
 	}
 }
\ No newline at end of file
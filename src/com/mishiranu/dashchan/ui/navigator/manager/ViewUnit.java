@@ -870,6 +870,13 @@ public class ViewUnit implements SingleLayerLinearLayout.OnTemporaryDetatchListe
 		}
 	}
 
+	public void warmPostCommentLayouts(View view, List<PostItem> postItems) {
+		PostViewHolder holder = (PostViewHolder) view.getTag();
+		for (PostItem postItem : postItems) {
+			holder.comment.warmSubjectAndComment(postItem.getSubject(), postItem.getComment());
+		}
+	}
+
 	@Override
 	public void onTemporaryDetatch(SingleLayerLinearLayout view, boolean start) {
 		if (start) {
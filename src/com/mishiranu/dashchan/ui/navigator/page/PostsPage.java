@@ -17,11 +17,14 @@
 package com.mishiranu.dashchan.ui.navigator.page;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -51,6 +54,7 @@ import chan.content.ChanConfiguration;
 import chan.content.ChanLocator;
 import chan.content.ChanManager;
 import chan.content.RedirectException;
+import chan.content.model.Post;
 import chan.content.model.Posts;
 import chan.util.CommonUtils;
 import chan.util.StringUtils;
@@ -61,10 +65,13 @@ import com.mishiranu.dashchan.content.CacheManager;
 import com.mishiranu.dashchan.content.ImageLoader;
 import com.mishiranu.dashchan.content.async.DeserializePostsTask;
 import com.mishiranu.dashchan.content.async.ReadPostsTask;
+import com.mishiranu.dashchan.content.async.SearchPostsTask;
 import com.mishiranu.dashchan.content.model.AttachmentItem;
 import com.mishiranu.dashchan.content.model.ErrorItem;
 import com.mishiranu.dashchan.content.model.GalleryItem;
 import com.mishiranu.dashchan.content.model.PostItem;
+import com.mishiranu.dashchan.content.model.PostsSearchIndex;
+import com.mishiranu.dashchan.content.net.YouTubeTitlesReader;
 import com.mishiranu.dashchan.content.service.PostingService;
 import com.mishiranu.dashchan.content.storage.FavoritesStorage;
 import com.mishiranu.dashchan.content.storage.HistoryDatabase;
@@ -90,7 +97,11 @@ import com.mishiranu.dashchan.widget.PullableListView;
 import com.mishiranu.dashchan.widget.PullableWrapper;
 
 public class PostsPage extends ListPage<PostsAdapter> implements FavoritesStorage.Observer, UiManager.Observer,
-		ImageLoader.Observer, DeserializePostsTask.Callback, ReadPostsTask.Callback, ActionMode.Callback {
+		ImageLoader.Observer, YouTubeTitlesReader.Observer, DeserializePostsTask.Callback, ReadPostsTask.Callback,
+		SearchPostsTask.Callback, ActionMode.Callback {
+	private static final Executor SEARCH_EXECUTOR = ConcurrentUtils.newSingleThreadPool(20000,
+			"SearchPostsTask", null, 0);
+
 	private DeserializePostsTask deserializeTask;
 	private ReadPostsTask readTask;
 
@@ -103,9 +114,14 @@ public class PostsPage extends ListPage<PostsAdapter> implements FavoritesStorag
 
 	private LinearLayout searchController;
 	private Button searchTextResult;
-	private final ArrayList<Integer> searchFoundPosts = new ArrayList<>();
+	private final ArrayList<String> searchFoundPosts = new ArrayList<>();
 	private boolean searching = false;
 	private int searchLastPosition;
+	private int searchListPosition;
+	private boolean searchPositionDefined;
+	private HashSet<String> searchQueries;
+	private PostsSearchIndex searchIndex;
+	private SearchPostsTask searchTask;
 
 	private int autoRefreshInterval = 30;
 	private boolean autoRefreshEnabled = false;
@@ -196,6 +212,7 @@ public class PostsPage extends ListPage<PostsAdapter> implements FavoritesStorag
 
 		scrollToPostNumber = pageHolder.initialPostNumber;
 		FavoritesStorage.getInstance().getObservable().register(this);
+		YouTubeTitlesReader.getInstance().getObservable().register(this);
 		LocalBroadcastManager.getInstance(activity).registerReceiver(galleryPagerReceiver,
 				new IntentFilter(C.ACTION_GALLERY_NAVIGATE_POST));
 		boolean hasNewPostDatas = handleNewPostDatas();
@@ -235,9 +252,14 @@ public class PostsPage extends ListPage<PostsAdapter> implements FavoritesStorag
 			readTask.cancel();
 			readTask = null;
 		}
+		if (searchTask != null) {
+			searchTask.cancel();
+			searchTask = null;
+		}
 		ImageLoader.getInstance().observable().unregister(this);
 		ImageLoader.getInstance().clearTasks(getPageHolder().chanName);
 		FavoritesStorage.getInstance().getObservable().unregister(this);
+		YouTubeTitlesReader.getInstance().getObservable().unregister(this);
 		setCustomSearchView(null);
 	}
 
@@ -558,6 +580,47 @@ public class PostsPage extends ListPage<PostsAdapter> implements FavoritesStorag
 		}
 	}
 
+	@Override
+	public void onYouTubeTitlesApplied(Map<Post, Post> posts) {
+		PageHolder pageHolder = getPageHolder();
+		PostsAdapter adapter = getAdapter();
+		ArrayList<ReadPostsTask.Patch> patches = new ArrayList<>();
+		int index = 0;
+		for (PostItem postItem : adapter) {
+			Post post = postItem.getPost();
+			Post newPost = posts.get(post);
+			if (newPost != null) {
+				ReadPostsTask.Patch patch = new ReadPostsTask.Patch(newPost, post, index, true, false);
+				patch.postItem = new PostItem(newPost, pageHolder.chanName, pageHolder.boardName);
+				patch.postItem.setUnread(postItem.isUnread());
+				patch.postItem.setExpanded(postItem.isExpanded());
+				patches.add(patch);
+			}
+			index++;
+		}
+		if (!patches.isEmpty()) {
+			adapter.mergeItems(patches);
+			PostsExtra extra = getExtra();
+			if (extra.cachedPosts != null) {
+				// Posts are replaced with a new array, so serialization in progress still sees the old ones
+				Post[] cachedPosts = extra.cachedPosts.getPosts().clone();
+				for (int i = 0; i < cachedPosts.length; i++) {
+					Post newPost = posts.get(cachedPosts[i]);
+					if (newPost != null) {
+						cachedPosts[i] = newPost;
+					}
+				}
+				extra.cachedPosts.setPosts(cachedPosts);
+			}
+			extra.cachedPostItems.clear();
+			for (PostItem postItem : adapter) {
+				extra.cachedPostItems.add(postItem);
+			}
+			serializePosts();
+			getUiManager().dialog().updateAdapters();
+		}
+	}
+
 	@Override
 	public void onAppearanceOptionChanged(int what) {
 		switch (what) {
@@ -685,23 +748,29 @@ public class PostsPage extends ListPage<PostsAdapter> implements FavoritesStorag
 		if (adapter.isEmpty()) {
 			return false;
 		}
+		if (searchTask != null) {
+			searchTask.cancel();
+			searchTask = null;
+		}
 		searchFoundPosts.clear();
-		int listPosition = ListPosition.obtain(getListView()).position;
-		searchLastPosition = 0;
-		boolean positionDefined = false;
+		searchListPosition = ListPosition.obtain(getListView()).position;
+		searchLastPosition = -1;
+		searchPositionDefined = false;
 		Locale locale = Locale.getDefault();
 		SearchHelper helper = new SearchHelper(Preferences.isAdvancedSearch());
 		helper.setFlags("m", "r", "a", "d", "e", "n", "op");
-		HashSet<String> queries = helper.handleQueries(locale, query);
-		HashSet<String> fileNames = new HashSet<>();
+		searchQueries = helper.handleQueries(locale, query);
 		PostsExtra extra = getExtra();
 		int newPostPosition = adapter.findPositionByPostNumber(extra.newPostNumber);
-		OUTER: for (int i = 0; i < adapter.getCount(); i++) {
+		int count = adapter.getCount();
+		ArrayList<PostItem> postItems = new ArrayList<>(count);
+		int[] positions = new int[count];
+		int positionsCount = 0;
+		for (int i = 0; i < count; i++) {
 			PostItem postItem = adapter.getItem(i);
+			postItems.add(postItem);
 			if (postItem != null && !postItem.isHidden(hidePerformer)) {
 				String postNumber = postItem.getPostNumber();
-				String comment = postItem.getComment().toString().toLowerCase(locale);
-				int postPosition = getAdapter().findPositionByPostNumber(postNumber);
 				boolean userPost = postItem.isUserPost();
 				boolean reply = false;
 				HashSet<String> referencesTo = postItem.getReferencesTo();
@@ -716,86 +785,88 @@ public class PostsPage extends ListPage<PostsAdapter> implements FavoritesStorag
 				boolean hasAttachments = postItem.hasAttachments();
 				boolean deleted = postItem.isDeleted();
 				boolean edited = lastEditedPostNumbers.contains(postNumber);
-				boolean newPost = newPostPosition >= 0 && postPosition >= newPostPosition;
+				boolean newPost = newPostPosition >= 0 && i >= newPostPosition;
 				boolean originalPoster = postItem.isOriginalPoster();
-				if (!helper.checkFlags("m", userPost, "r", reply, "a", hasAttachments, "d", deleted, "e", edited,
+				if (helper.checkFlags("m", userPost, "r", reply, "a", hasAttachments, "d", deleted, "e", edited,
 						"n", newPost, "op", originalPoster)) {
-					continue;
-				}
-				for (String lowQuery : helper.getExcluded()) {
-					if (comment.contains(lowQuery)) {
-						continue OUTER;
-					}
-				}
-				String subject = postItem.getSubject().toLowerCase(locale);
-				String name = postItem.getFullName().toString().toLowerCase(locale);
-				fileNames.clear();
-				ArrayList<AttachmentItem> attachmentItems = postItem.getAttachmentItems();
-				if (attachmentItems != null) {
-					for (AttachmentItem attachmentItem : attachmentItems) {
-						String fileName = attachmentItem.getFileName();
-						if (fileName != null) {
-							fileNames.add(fileName.toLowerCase(locale));
-							String originalName = attachmentItem.getOriginalName();
-							if (originalName != null) {
-								fileNames.add(originalName.toLowerCase(locale));
-							}
-						}
-					}
-				}
-				boolean found = false;
-				if (helper.hasIncluded()) {
-					QUERIES: for (String lowQuery : helper.getIncluded()) {
-						if (comment.contains(lowQuery)) {
-							found = true;
-							break;
-						} else if (subject.contains(lowQuery)) {
-							found = true;
-							break;
-						} else if (name.contains(lowQuery)) {
-							found = true;
-							break;
-						} else {
-							for (String fileName : fileNames) {
-								if (fileName.contains(lowQuery)) {
-									found = true;
-									break QUERIES;
-								}
-							}
-						}
-					}
-				} else {
-					found = true;
-				}
-				if (found) {
-					if (!positionDefined && i > listPosition) {
-						searchLastPosition = searchFoundPosts.size();
-						positionDefined = true;
-					}
-					searchFoundPosts.add(i);
+					positions[positionsCount++] = i;
 				}
 			}
 		}
-		boolean found = searchFoundPosts.size() > 0;
-		getUiManager().view().setHighlightText(found ? queries : null);
-		adapter.notifyDataSetChanged();
+		ArrayList<String> included = null;
+		if (helper.hasIncluded()) {
+			included = new ArrayList<>();
+			for (String lowQuery : helper.getIncluded()) {
+				included.add(lowQuery);
+			}
+		}
+		ArrayList<String> excluded = new ArrayList<>();
+		for (String lowQuery : helper.getExcluded()) {
+			excluded.add(lowQuery);
+		}
+		if (searchIndex == null) {
+			searchIndex = new PostsSearchIndex();
+		}
 		searching = true;
-		if (found) {
+		updateSearchTitle();
+		searchTask = new SearchPostsTask(this, searchIndex, postItems, Arrays.copyOf(positions, positionsCount),
+				included, excluded, locale);
+		searchTask.executeOnExecutor(SEARCH_EXECUTOR);
+		return true;
+	}
+
+	@Override
+	public void onSearchPostsFound(String[] postNumbers) {
+		PostsAdapter adapter = getAdapter();
+		boolean first = searchFoundPosts.isEmpty();
+		int scrollIndex = -1;
+		for (String postNumber : postNumbers) {
+			int position = adapter.findPositionByPostNumber(postNumber);
+			if (position < 0) {
+				// Post was removed from adapter during search
+				continue;
+			}
+			if (!searchPositionDefined && position > searchListPosition) {
+				scrollIndex = searchFoundPosts.size();
+				searchPositionDefined = true;
+			}
+			searchFoundPosts.add(postNumber);
+		}
+		if (first && !searchFoundPosts.isEmpty()) {
+			getUiManager().view().setHighlightText(searchQueries);
+			getAdapter().notifyDataSetChanged();
 			setCustomSearchView(searchController);
 			updateOptionsMenu(true);
-			searchLastPosition--;
+		}
+		if (scrollIndex >= 0) {
+			searchLastPosition = scrollIndex - 1;
 			findForward();
-			return true;
 		} else {
+			updateSearchTitle();
+		}
+	}
+
+	@Override
+	public void onSearchPostsComplete() {
+		searchTask = null;
+		if (searchFoundPosts.isEmpty()) {
+			getUiManager().view().setHighlightText(null);
+			getAdapter().notifyDataSetChanged();
 			ToastUtils.show(getActivity(), R.string.message_not_found);
-			searchLastPosition = -1;
 			updateSearchTitle();
-			return false;
+		} else if (!searchPositionDefined) {
+			searchPositionDefined = true;
+			searchLastPosition = -1;
+			findForward();
 		}
 	}
 
 	@Override
 	public void onSearchCancel() {
+		if (searchTask != null) {
+			searchTask.cancel();
+			searchTask = null;
+		}
 		if (searching) {
 			searching = false;
 			setCustomSearchView(null);
@@ -807,13 +878,8 @@ public class PostsPage extends ListPage<PostsAdapter> implements FavoritesStorag
 
 	private void showSearchDialog() {
 		if (!searchFoundPosts.isEmpty()) {
-			PostsAdapter adapter = getAdapter();
-			HashSet<String> postNumbers = new HashSet<>();
-			for (Integer position : searchFoundPosts) {
-				PostItem postItem = adapter.getItem(position);
-				postNumbers.add(postItem.getPostNumber());
-			}
-			getUiManager().dialog().displayList(postNumbers, adapter.getConfigurationSet());
+			getUiManager().dialog().displayList(new HashSet<>(searchFoundPosts),
+					getAdapter().getConfigurationSet());
 		}
 	}
 
@@ -824,7 +890,7 @@ public class PostsPage extends ListPage<PostsAdapter> implements FavoritesStorag
 			if (searchLastPosition < 0) {
 				searchLastPosition += count;
 			}
-			ListScroller.scrollTo(getListView(), searchFoundPosts.get(searchLastPosition));
+			scrollToSearchFoundPost();
 			updateSearchTitle();
 		}
 	}
@@ -836,11 +902,18 @@ public class PostsPage extends ListPage<PostsAdapter> implements FavoritesStorag
 			if (searchLastPosition >= count) {
 				searchLastPosition -= count;
 			}
-			ListScroller.scrollTo(getListView(), searchFoundPosts.get(searchLastPosition));
+			scrollToSearchFoundPost();
 			updateSearchTitle();
 		}
 	}
 
+	private void scrollToSearchFoundPost() {
+		int position = getAdapter().findPositionByPostNumber(searchFoundPosts.get(searchLastPosition));
+		if (position >= 0) {
+			ListScroller.scrollTo(getListView(), position);
+		}
+	}
+
 	private void updateSearchTitle() {
 		searchTextResult.setText((searchLastPosition + 1) + "/" + searchFoundPosts.size());
 	}
@@ -1138,6 +1211,7 @@ public class PostsPage extends ListPage<PostsAdapter> implements FavoritesStorag
 					postItem.setExpanded(true);
 				}
 			}
+			YouTubeTitlesReader.getInstance().resolveIfNecessary(Arrays.asList(posts.getPosts()));
 			Pair<Boolean, Integer> autoRefreshData = posts.getAutoRefreshData();
 			autoRefreshEnabled = autoRefreshData.first;
 			autoRefreshInterval = Math.min(Math.max(autoRefreshData.second, Preferences.MIN_AUTO_REFRESH_INTERVAL),
@@ -1286,6 +1360,13 @@ public class PostsPage extends ListPage<PostsAdapter> implements FavoritesStorag
 		}
 		boolean updateAdapters = result.newCount > 0 || result.deletedCount > 0 || result.hasEdited;
 		serializePosts();
+		if (!result.patches.isEmpty()) {
+			ArrayList<Post> posts = new ArrayList<>(result.patches.size());
+			for (ReadPostsTask.Patch patch : result.patches) {
+				posts.add(patch.newPost);
+			}
+			YouTubeTitlesReader.getInstance().resolveIfNecessary(posts);
+		}
 		if (result.hasEdited) {
 			lastEditedPostNumbers.clear();
 			for (ReadPostsTask.Patch patch : result.patches) {
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014-2016 Fukurou Mishiranu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mishiranu.dashchan.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+
+import com.mishiranu.dashchan.C;
+
+public class BitmapLruCache {
+	private static final int STRIPES_COUNT = 4;
+
+	private final Stripe[] stripes = new Stripe[STRIPES_COUNT];
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private static class Stripe {
+		public final LinkedHashMap<String, Bitmap> bitmaps = new LinkedHashMap<>(0, 0.75f, true);
+		public final long maxSize;
+		public long size;
+
+		public Stripe(long maxSize) {
+			this.maxSize = maxSize;
+		}
+	}
+
+	public BitmapLruCache(long maxSize) {
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe(maxSize / STRIPES_COUNT);
+		}
+	}
+
+	private Stripe getStripe(String key) {
+		return stripes[(key.hashCode() & 0x7fffffff) % STRIPES_COUNT];
+	}
+
+	public static int getByteCount(Bitmap bitmap) {
+		return C.API_KITKAT ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+	}
+
+	public boolean contains(String key) {
+		Stripe stripe = getStripe(key);
+		synchronized (stripe) {
+			return stripe.bitmaps.containsKey(key);
+		}
+	}
+
+	public Bitmap get(String key) {
+		Stripe stripe = getStripe(key);
+		Bitmap bitmap;
+		synchronized (stripe) {
+			bitmap = stripe.bitmaps.get(key);
+		}
+		(bitmap != null ? hitCount : missCount).incrementAndGet();
+		return bitmap;
+	}
+
+	public void putIfAbsent(String key, Bitmap bitmap) {
+		Stripe stripe = getStripe(key);
+		synchronized (stripe) {
+			if (stripe.bitmaps.containsKey(key)) {
+				return;
+			}
+			stripe.bitmaps.put(key, bitmap);
+			stripe.size += getByteCount(bitmap);
+			// Evicted bitmaps can still be displayed somewhere, so they are neither recycled nor reused
+			Iterator<Map.Entry<String, Bitmap>> iterator = stripe.bitmaps.entrySet().iterator();
+			while (stripe.size > stripe.maxSize && stripe.bitmaps.size() > 1) {
+				Bitmap evictedBitmap = iterator.next().getValue();
+				iterator.remove();
+				stripe.size -= getByteCount(evictedBitmap);
+				evictionCount.incrementAndGet();
+			}
+		}
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	public long getSize() {
+		long size = 0L;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size;
+			}
+		}
+		return size;
+	}
+}
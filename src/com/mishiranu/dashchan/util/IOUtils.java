@@ -157,8 +157,12 @@ public class IOUtils {
 		return null;
 	}
 
-	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
 	public static OutputStream openOutputStream(Context context, File file) throws IOException {
+		return openOutputStream(context, file, false);
+	}
+
+	@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+	public static OutputStream openOutputStream(Context context, File file, boolean append) throws IOException {
 		if (C.API_LOLLIPOP) {
 			File downloadDirectory = Preferences.getDownloadDirectory();
 			String path = file.getAbsolutePath();
@@ -190,7 +194,7 @@ public class IOUtils {
 						}
 						String displayName = segments[segments.length - 1];
 						Uri childUri = findChildDocument(contentResolver, uri, displayName);
-						if (childUri != null) {
+						if (childUri != null && !append) {
 							if (DocumentsContract.deleteDocument(contentResolver, childUri)) {
 								childUri = null;
 							}
@@ -205,14 +209,14 @@ public class IOUtils {
 						} else {
 							uri = childUri;
 						}
-						return contentResolver.openOutputStream(uri);
+						return contentResolver.openOutputStream(uri, append ? "wa" : "w");
 					} catch (RuntimeException e) {
 						throw new IOException(e);
 					}
 				}
 			}
 		}
-		return new FileOutputStream(file);
+		return new FileOutputStream(file, append);
 	}
 
 	private static final MessageDigest DIGEST_SHA_256;
@@ -173,7 +173,6 @@ public class CommentTextView extends TextView {
 	}
 
 	public void setSubjectAndComment(CharSequence subject, CharSequence comment) {
-		boolean hasSubject = !StringUtils.isEmpty(subject);
 		boolean hasComment = !StringUtils.isEmpty(comment);
 		if (hasComment && comment instanceof Spanned) {
 			SpoilerSpan[] spoilerSpans = ((Spanned) comment).getSpans(0, comment.length(), SpoilerSpan.class);
@@ -184,6 +183,12 @@ public class CommentTextView extends TextView {
 				}
 			}
 		}
+		setText(makeSubjectAndComment(subject, comment));
+	}
+
+	static CharSequence makeSubjectAndComment(CharSequence subject, CharSequence comment) {
+		boolean hasSubject = !StringUtils.isEmpty(subject);
+		boolean hasComment = !StringUtils.isEmpty(comment);
 		if (hasSubject) {
 			SpannableStringBuilder spannable = new SpannableStringBuilder();
 			spannable.append(subject);
@@ -195,11 +200,21 @@ public class CommentTextView extends TextView {
 				spannable.setSpan(new RelativeSizeSpan(0.75f), length, length + 2, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
 				spannable.append(comment);
 			}
-			setText(spannable);
+			return spannable;
 		} else if (hasComment) {
-			setText(comment);
+			return comment;
 		} else {
-			setText(null);
+			return null;
+		}
+	}
+
+	// Builds layout for another text with this view's paint and width in background,
+	// so measured words are taken from platform text layout cache when this text is bound.
+	public void warmSubjectAndComment(CharSequence subject, CharSequence comment) {
+		int width = getWidth() - getCompoundPaddingLeft() - getCompoundPaddingRight();
+		if (width > 0 && (!StringUtils.isEmpty(subject) || !StringUtils.isEmpty(comment))) {
+			TextLayoutWarmer.warm(subject, comment, getPaint(), width, getLineSpacingMultiplier(),
+					getLineSpacingExtra(), getIncludeFontPadding());
 		}
 	}
 
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-2016 Fukurou Mishiranu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mishiranu.dashchan.widget;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Process;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+import com.mishiranu.dashchan.util.ConcurrentUtils;
+import com.mishiranu.dashchan.util.LruCache;
+
+/*
+ * Platform caches measured words globally (TextLayoutCache before Lollipop, minikin LayoutCache after),
+ * so layout built in background makes measuring the same text in UI thread much cheaper.
+ */
+class TextLayoutWarmer {
+	private static final int MAX_PENDING = 8;
+	private static final int MAX_WARMED = 200;
+
+	private static final ThreadPoolExecutor EXECUTOR = ConcurrentUtils.newSingleThreadPool(5000,
+			"TextLayoutWarmer", null, Process.THREAD_PRIORITY_BACKGROUND);
+
+	// Accessed only from UI thread
+	private static final LruCache<Key, Boolean> WARMED = new LruCache<>(MAX_WARMED);
+
+	private static class Key {
+		private final int subjectIdentity;
+		private final int commentIdentity;
+		private final int width;
+		private final float textSize;
+		private final Typeface typeface;
+
+		public Key(CharSequence subject, CharSequence comment, int width, Paint paint) {
+			// Identity is enough there, texts are cached in post items
+			subjectIdentity = System.identityHashCode(subject);
+			commentIdentity = System.identityHashCode(comment);
+			this.width = width;
+			textSize = paint.getTextSize();
+			typeface = paint.getTypeface();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+			if (o instanceof Key) {
+				Key co = (Key) o;
+				return co.subjectIdentity == subjectIdentity && co.commentIdentity == commentIdentity &&
+						co.width == width && co.textSize == textSize && co.typeface == typeface;
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			int prime = 31;
+			int result = 1;
+			result = prime * result + subjectIdentity;
+			result = prime * result + commentIdentity;
+			result = prime * result + width;
+			result = prime * result + Float.floatToIntBits(textSize);
+			result = prime * result + (typeface != null ? typeface.hashCode() : 0);
+			return result;
+		}
+	}
+
+	private static class WarmTask implements Runnable {
+		public final Key key;
+
+		private final CharSequence text;
+		private final TextPaint paint;
+		private final int width;
+		private final float spacingMultiplier;
+		private final float spacingExtra;
+		private final boolean includePadding;
+
+		public WarmTask(Key key, CharSequence text, TextPaint paint, int width,
+				float spacingMultiplier, float spacingExtra, boolean includePadding) {
+			this.key = key;
+			this.text = text;
+			this.paint = paint;
+			this.width = width;
+			this.spacingMultiplier = spacingMultiplier;
+			this.spacingExtra = spacingExtra;
+			this.includePadding = includePadding;
+		}
+
+		@Override
+		public void run() {
+			new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, spacingMultiplier,
+					spacingExtra, includePadding);
+		}
+	}
+
+	public static void warm(CharSequence subject, CharSequence comment, TextPaint paint, int width,
+			float spacingMultiplier, float spacingExtra, boolean includePadding) {
+		Key key = new Key(subject, comment, width, paint);
+		if (WARMED.get(key) != null) {
+			return;
+		}
+		CharSequence text = CommentTextView.makeSubjectAndComment(subject, comment);
+		if (text == null) {
+			return;
+		}
+		if (text instanceof Spanned) {
+			// Spans are changed in UI thread (e.g. spoilers and link highlighting), layout is built from a copy
+			text = new SpannedString(text);
+		}
+		BlockingQueue<Runnable> queue = EXECUTOR.getQueue();
+		while (queue.size() >= MAX_PENDING) {
+			// Drop the oldest requests, they are far from visible posts after fast scroll
+			Runnable runnable = queue.poll();
+			if (runnable == null) {
+				break;
+			}
+			WARMED.remove(((WarmTask) runnable).key);
+		}
+		WARMED.put(key, true);
+		EXECUTOR.execute(new WarmTask(key, text, new TextPaint(paint), width,
+				spacingMultiplier, spacingExtra, includePadding));
+	}
+}